@@ -1,7 +1,12 @@
 package com.cher.mymq.bio;
 
+import com.cher.mymq.common.ConsumeBatch;
+import com.cher.mymq.common.PublishBatch;
+
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * MessageQueueClientTool 封装了与消息队列服务端的交互，
@@ -46,6 +51,21 @@ public class MessageQueueClientTool {
         return sendCommand("PUBLISH " + queueName + " " + message);
     }
 
+    /**
+     * 批量发布多条消息到指定队列：整批一帧发送，服务端一次写入日志，只返回一个响应。
+     *
+     * @param queueName 队列名称
+     * @param messages  消息内容（不能包含换行符）
+     * @return 服务端响应
+     */
+    public String publishBatch(String queueName, List<String> messages) {
+        StringBuilder frame = new StringBuilder(PublishBatch.ACTION).append(' ').append(messages.size());
+        for (String message : messages) {
+            frame.append('\n').append(queueName).append(' ').append(message);
+        }
+        return sendCommand(frame.toString());
+    }
+
     /**
      * 从指定队列消费一条消息。
      *
@@ -56,6 +76,56 @@ public class MessageQueueClientTool {
         return sendCommand("CONSUME " + queueName);
     }
 
+    /**
+     * 从指定队列批量消费最多 maxCount 条消息，一次往返取回。
+     *
+     * @param queueName 队列名称
+     * @param maxCount  最多取出的消息数
+     * @return 取出的消息（队列为空时为空列表）
+     * @throws IOException 服务端返回错误或连接异常
+     */
+    public List<String> consumeBatch(String queueName, int maxCount) throws IOException {
+        String header = sendCommand(ConsumeBatch.ACTION + " " + queueName + " " + maxCount);
+        if ("NO_MESSAGE".equals(header)) {
+            return List.of();
+        }
+        if (header == null || !header.startsWith(ConsumeBatch.PREFIX)) {
+            throw new IOException(header == null ? "连接已关闭" : header);
+        }
+        int count = Integer.parseInt(header.substring(ConsumeBatch.PREFIX.length()));
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(in.readLine());
+        }
+        return messages;
+    }
+
+    /**
+     * 流水线发送多条命令：一次写出全部命令，再按顺序读取响应（服务端按请求顺序响应），
+     * 省去每条命令一次往返的等待。命令须只有一行响应（不包括 CONSUMEBATCH 和批量发布帧）。
+     *
+     * @param commands 命令字符串
+     * @return 与命令一一对应的服务端响应
+     * @throws IOException 连接异常
+     */
+    public List<String> pipeline(List<String> commands) throws IOException {
+        StringBuilder frame = new StringBuilder();
+        for (String command : commands) {
+            frame.append(command).append('\n');
+        }
+        out.print(frame);
+        out.flush();
+        List<String> responses = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            String response = in.readLine();
+            if (response == null) {
+                throw new IOException("连接已关闭");
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
     /**
      * 删除指定队列。如果队列不存在，将返回错误消息。
      *
@@ -111,6 +181,10 @@ public class MessageQueueClientTool {
             // 测试消费消息
             System.out.println("CONSUME: " + client.consume("testQueue"));
 
+            // 测试批量发布与批量消费
+            System.out.println("PUBLISHBATCH: " + client.publishBatch("testQueue", List.of("batch-1", "batch-2")));
+            System.out.println("CONSUMEBATCH: " + client.consumeBatch("testQueue", 10));
+
             // 测试删除队列
             System.out.println("DROP: " + client.dropQueue("testQueue"));
 
@@ -0,0 +1,168 @@
+package com.cher.mymq.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制协议的一帧（Netty 服务端可选，文本协议保持不变）。
+ *
+ * 协商：客户端连接后先发送 2 字节 {@link #MAGIC} {@link #VERSION}，服务端回复同样的 2 字节后该连接改用二进制帧；
+ * 第一个字节不是 MAGIC 的连接仍按文本行处理（见 {@link ProtocolNegotiator}）。
+ *
+ * 帧格式（大端）：int 长度（不含自身）| byte 操作码 | int 关联 ID | short 队列名字节数 | 队列名（UTF-8）| 负载。
+ * 请求的负载与文本命令队列名之后的部分含义相同（PUBLISH 为消息原始字节，Master 接受任意字节，按行投递给文本协议的消费者时转义；长轮询 CONSUME 为等待毫秒数；
+ * CONSUMEBATCH 为 "maxCount [maxBytes]"），为空表示没有这一部分。
+ * 响应带回请求的关联 ID，队列名为空；MESSAGES 的负载为 int 条数，随后每条消息为 int 长度加原始字节。
+ */
+public final class BinaryFrame {
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 1;
+    // 单帧最大字节数，防止一个长度字段让连接无限制地累积
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("mymq.binary.maxFrameLength", 16 * 1024 * 1024);
+    // 操作码、关联 ID、队列名长度
+    public static final int HEADER_LENGTH = 1 + 4 + 2;
+
+    // 请求操作码
+    public static final byte CREATE = 1;
+    public static final byte DROP = 2;
+    public static final byte PUBLISH = 3;
+    public static final byte CONSUME = 4;
+    public static final byte CONSUME_BATCH = 5;
+
+    // 响应操作码
+    public static final byte OK = (byte) 0x80;
+    public static final byte ERROR = (byte) 0x81;
+    public static final byte MESSAGE = (byte) 0x82;
+    public static final byte NO_MESSAGE = (byte) 0x83;
+    public static final byte MESSAGES = (byte) 0x84;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte opcode;
+    private final int correlationId;
+    private final String queueName;
+    // 没有负载时为 null
+    private final byte[] payload;
+    // 只有 MESSAGES 响应不为 null
+    private final List<byte[]> messages;
+
+    public BinaryFrame(byte opcode, int correlationId, String queueName, byte[] payload) {
+        this(opcode, correlationId, queueName, payload, null);
+    }
+
+    private BinaryFrame(byte opcode, int correlationId, String queueName, byte[] payload, List<byte[]> messages) {
+        this.opcode = opcode;
+        this.correlationId = correlationId;
+        this.queueName = queueName;
+        this.payload = payload;
+        this.messages = messages;
+    }
+
+    public static BinaryFrame message(int correlationId, byte[] message) {
+        return new BinaryFrame(MESSAGE, correlationId, "", message);
+    }
+
+    public static BinaryFrame messages(int correlationId, List<byte[]> messages) {
+        return new BinaryFrame(MESSAGES, correlationId, "", null, messages);
+    }
+
+    /**
+     * 把文本协议的响应转换为响应帧：NO_MESSAGE、ERROR: 、MESSAGE: 、MESSAGES: 分别对应各自的操作码，其余为 OK
+     */
+    public static BinaryFrame response(int correlationId, String response) {
+        if ("NO_MESSAGE".equals(response)) {
+            return new BinaryFrame(NO_MESSAGE, correlationId, "", null);
+        }
+        if (response.startsWith("ERROR: ")) {
+            return new BinaryFrame(ERROR, correlationId, "", utf8(response.substring("ERROR: ".length())));
+        }
+        if (response.startsWith("MESSAGE: ")) {
+            return message(correlationId, utf8(response.substring("MESSAGE: ".length())));
+        }
+        if (response.startsWith(ConsumeBatch.PREFIX)) {
+            // 单机服务端的 CONSUMEBATCH 响应：首行之后每行一条消息
+            String[] lines = response.split("\n");
+            List<byte[]> messages = new ArrayList<>(lines.length - 1);
+            for (int i = 1; i < lines.length; i++) {
+                messages.add(utf8(lines[i]));
+            }
+            return messages(correlationId, messages);
+        }
+        return new BinaryFrame(OK, correlationId, "", utf8(response));
+    }
+
+    /**
+     * 请求操作码对应的命令，未知的操作码返回 null
+     */
+    public CommandParser.Action getAction() {
+        switch (opcode) {
+            case CREATE:
+                return CommandParser.Action.CREATE;
+            case DROP:
+                return CommandParser.Action.DROP;
+            case PUBLISH:
+                return CommandParser.Action.PUBLISH;
+            case CONSUME:
+                return CommandParser.Action.CONSUME;
+            case CONSUME_BATCH:
+                return CommandParser.Action.CONSUMEBATCH;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 队列名是否能在日志和复制的文本行中原样表示（非空，不含空白）
+     */
+    public boolean hasValidQueueName() {
+        if (queueName.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < queueName.length(); i++) {
+            if (Character.isWhitespace(queueName.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * 负载按 UTF-8 严格解码为字符串（不合法的字节报错，不会被替换成 U+FFFD），没有负载时返回 null
+     *
+     * @throws CharacterCodingException 负载不是合法的 UTF-8
+     */
+    public String getPayloadAsString() throws CharacterCodingException {
+        return payload == null ? null : StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(payload)).toString();
+    }
+
+    public List<byte[]> getMessages() {
+        return messages;
+    }
+
+    byte[] payloadOrEmpty() {
+        return payload == null ? EMPTY : payload;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,48 @@
+package com.cher.mymq.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按长度字段拆出二进制请求帧（格式见 {@link BinaryFrame}），队列名和负载直接从 ByteBuf 读出，
+ * 负载只复制一次到交给业务逻辑的字节数组。格式错误或超过 {@link BinaryFrame#MAX_FRAME_LENGTH} 时抛出异常，由处理器关闭连接。
+ */
+public class BinaryFrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    public BinaryFrameDecoder() {
+        super(BinaryFrame.MAX_FRAME_LENGTH, 0, 4, 0, 4);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) {
+            return null;
+        }
+        try {
+            if (frame.readableBytes() < BinaryFrame.HEADER_LENGTH) {
+                throw new CorruptedFrameException("二进制帧过短: " + frame.readableBytes());
+            }
+            byte opcode = frame.readByte();
+            int correlationId = frame.readInt();
+            int nameLength = frame.readUnsignedShort();
+            if (nameLength > frame.readableBytes()) {
+                throw new CorruptedFrameException("队列名长度超出帧: " + nameLength);
+            }
+            String queueName = frame.toString(frame.readerIndex(), nameLength, StandardCharsets.UTF_8);
+            frame.skipBytes(nameLength);
+            byte[] payload = null;
+            if (frame.isReadable()) {
+                payload = new byte[frame.readableBytes()];
+                frame.readBytes(payload);
+            }
+            return new BinaryFrame(opcode, correlationId, queueName, payload);
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.cher.mymq.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.util.List;
+
+/**
+ * 把 {@link BinaryFrame} 编码为长度前缀的二进制帧，文本响应（字符串）不经过这里
+ */
+public class BinaryFrameEncoder extends MessageToByteEncoder<BinaryFrame> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, BinaryFrame frame, ByteBuf out) {
+        int nameLength = ByteBufUtil.utf8Bytes(frame.getQueueName());
+        List<byte[]> messages = frame.getMessages();
+        int payloadLength;
+        if (messages != null) {
+            payloadLength = 4;
+            for (byte[] message : messages) {
+                payloadLength += 4 + message.length;
+            }
+        } else {
+            payloadLength = frame.payloadOrEmpty().length;
+        }
+        out.writeInt(BinaryFrame.HEADER_LENGTH + nameLength + payloadLength);
+        out.writeByte(frame.getOpcode());
+        out.writeInt(frame.getCorrelationId());
+        out.writeShort(nameLength);
+        ByteBufUtil.writeUtf8(out, frame.getQueueName());
+        if (messages != null) {
+            out.writeInt(messages.size());
+            for (byte[] message : messages) {
+                out.writeInt(message.length);
+                out.writeBytes(message);
+            }
+        } else {
+            out.writeBytes(frame.payloadOrEmpty());
+        }
+    }
+}
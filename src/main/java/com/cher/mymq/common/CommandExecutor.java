@@ -0,0 +1,293 @@
+package com.cher.mymq.common;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端执行客户端命令的方式，整个服务端共享一个实例（各连接只在其上创建 {@link OrderedExecutor}）：
+ *   POOL —— 固定大小的共享线程池（默认，线程数默认为 CPU 核数）
+ *   EVENT_LOOP —— 在连接所在的 I/O 线程上直接执行，省去线程切换；命令等待刷盘时会阻塞该线程上的其他连接
+ *   VIRTUAL —— 每条命令一个虚拟线程（需要 JDK 21 及以上，否则退回 POOL）
+ *
+ * 所有方式都限制已提交未开始的命令数（队列深度），超过时拒绝，由连接按顺序响应繁忙错误；
+ * 各连接在 {@link OrderedExecutor} 中排队等待的命令另有积压上限，超过时暂停读取该连接。统计的队列深度包含这两部分。
+ * 从系统属性读取：-Dmymq.executor=POOL|EVENT_LOOP|VIRTUAL，-Dmymq.executor.threads=线程数，
+ * -Dmymq.executor.maxQueueDepth=队列深度上限，-Dmymq.executor.maxBacklog=每个连接的积压上限，
+ * -Dmymq.executor.statsIntervalSeconds=统计输出间隔（0 不输出）。
+ */
+public class CommandExecutor {
+    public static final String PROPERTY = "mymq.executor";
+    public static final String BUSY = "ERROR: 服务繁忙，请稍后重试";
+
+    public enum Mode {
+        POOL,
+        EVENT_LOOP,
+        VIRTUAL
+    }
+
+    // 在调用线程上直接执行时，嵌套提交的任务排在当前任务之后，避免连续命令的递归调用
+    private static final ThreadLocal<Deque<Runnable>> INLINE_TASKS = new ThreadLocal<>();
+
+    private final String name;
+    private final Mode mode;
+    private final int threads;
+    private final int maxQueueDepth;
+    private final int maxBacklog;
+    // EVENT_LOOP 时为 null
+    private final ExecutorService executor;
+
+    // 统计：当前与最大队列深度、各连接积压的命令数、拒绝数、已开始的命令数、等待与执行的总耗时和最大耗时
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger maxObservedDepth = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    /**
+     * @param name          服务端名称，用于线程名和输出
+     * @param mode          执行方式
+     * @param threads       POOL 的线程数
+     * @param maxQueueDepth 已提交未开始的命令数上限
+     */
+    public CommandExecutor(String name, Mode mode, int threads, int maxQueueDepth) {
+        this(name, mode, threads, maxQueueDepth, OrderedExecutor.DEFAULT_MAX_BACKLOG);
+    }
+
+    /**
+     * @param maxBacklog 每个连接排队等待的命令数上限，超过时暂停读取该连接
+     */
+    public CommandExecutor(String name, Mode mode, int threads, int maxQueueDepth, int maxBacklog) {
+        this.name = name;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxBacklog = maxBacklog;
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (mode == Mode.VIRTUAL && virtual == null) {
+            System.out.println("[WARN] 当前 JDK 不支持虚拟线程，" + PROPERTY + " 使用 POOL");
+            mode = Mode.POOL;
+        }
+        this.mode = mode;
+        this.threads = mode == Mode.POOL ? threads : 0;
+        if (mode == Mode.POOL) {
+            AtomicInteger index = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, name + "-worker-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executor = virtual;
+        }
+    }
+
+    public static CommandExecutor fromSystemProperties(String name) {
+        Mode mode = Mode.POOL;
+        String value = System.getProperty(PROPERTY);
+        if (value != null) {
+            try {
+                mode = Mode.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("[WARN] " + PROPERTY + " 配置无效，使用 POOL: " + value);
+            }
+        }
+        int threads = Math.max(1, Integer.getInteger(PROPERTY + ".threads", Runtime.getRuntime().availableProcessors()));
+        int maxQueueDepth = Math.max(1, Integer.getInteger(PROPERTY + ".maxQueueDepth", 10000));
+        int maxBacklog = Math.max(1, Integer.getInteger(PROPERTY + ".maxBacklog", OrderedExecutor.DEFAULT_MAX_BACKLOG));
+        CommandExecutor executor = new CommandExecutor(name, mode, threads, maxQueueDepth, maxBacklog);
+        executor.startStatsReporter(Long.getLong(PROPERTY + ".statsIntervalSeconds", 60));
+        System.out.println("[INFO] 命令执行方式: " + executor.describe());
+        return executor;
+    }
+
+    /**
+     * 一个连接提交命令使用的执行器
+     *
+     * @param eventLoop 连接所在的 I/O 线程（EVENT_LOOP 时在其上执行），为 null 时在调用线程上执行
+     */
+    public Executor forConnection(Executor eventLoop) {
+        if (mode != Mode.EVENT_LOOP) {
+            return task -> submit(executor, task);
+        }
+        return eventLoop == null ? task -> submit(CommandExecutor::runInline, task) : task -> submit(eventLoop, task);
+    }
+
+    /**
+     * 为一个连接创建按顺序执行命令的执行器，积压的命令计入队列深度
+     *
+     * @param onRejected 命令因队列已满被拒绝时调用，按顺序响应错误
+     */
+    public OrderedExecutor newOrderedExecutor(Executor eventLoop, Runnable onRejected) {
+        return new OrderedExecutor(forConnection(eventLoop), onRejected, this::addBacklog);
+    }
+
+    /**
+     * 为一个连接创建按顺序执行命令的执行器，积压超过上限时调用 pauseReading 暂停读取该连接，
+     * 降到一半及以下时调用 resumeReading（见 {@link OrderedExecutor#limitBacklog}）
+     */
+    public OrderedExecutor newOrderedExecutor(Executor eventLoop, Runnable onRejected,
+                                              Runnable pauseReading, Runnable resumeReading) {
+        OrderedExecutor ordered = newOrderedExecutor(eventLoop, onRejected);
+        ordered.limitBacklog(maxBacklog, pauseReading, resumeReading);
+        return ordered;
+    }
+
+    private void addBacklog(int delta) {
+        int current = backlog.addAndGet(delta);
+        if (delta > 0) {
+            maxObservedDepth.accumulateAndGet(current + queueDepth.get(), Math::max);
+        }
+    }
+
+    private void submit(Executor target, Runnable task) {
+        if (queueDepth.incrementAndGet() > maxQueueDepth) {
+            queueDepth.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("命令队列已满: " + maxQueueDepth);
+        }
+        maxObservedDepth.accumulateAndGet(queueDepth.get() + backlog.get(), Math::max);
+        long submitted = System.nanoTime();
+        try {
+            target.execute(() -> {
+                long started = System.nanoTime();
+                queueDepth.decrementAndGet();
+                record(started - submitted, totalWaitNanos, maxWaitNanos);
+                startedCount.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    record(System.nanoTime() - started, totalRunNanos, maxRunNanos);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池或 I/O 线程已关闭
+            queueDepth.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private static void record(long nanos, AtomicLong total, AtomicLong max) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static void runInline(Runnable task) {
+        Deque<Runnable> pending = INLINE_TASKS.get();
+        if (pending != null) {
+            pending.add(task);
+            return;
+        }
+        pending = new ArrayDeque<>();
+        INLINE_TASKS.set(pending);
+        try {
+            Runnable next = task;
+            do {
+                next.run();
+            } while ((next = pending.poll()) != null);
+        } finally {
+            INLINE_TASKS.remove();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void startStatsReporter(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-ExecutorStats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> System.out.println("[" + name + "] 命令执行统计: " + getStatsSummary()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public String describe() {
+        return mode == Mode.POOL ? mode + "（" + threads + " 线程，队列深度上限 " + maxQueueDepth + "，每个连接积压上限 " + maxBacklog + "）"
+                : mode + "（队列深度上限 " + maxQueueDepth + "，每个连接积压上限 " + maxBacklog + "）";
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 当前队列深度：已提交未开始的命令数加上各连接积压的命令数
+     */
+    public int getQueueDepth() {
+        return queueDepth.get() + backlog.get();
+    }
+
+    /**
+     * 各连接在 {@link OrderedExecutor} 中积压的命令总数
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxObservedDepth.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = startedCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public double getAverageRunMillis() {
+        long count = startedCount.get();
+        return count == 0 ? 0 : totalRunNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxRunMillis() {
+        return maxRunNanos.get() / 1_000_000.0;
+    }
+
+    public String getStatsSummary() {
+        return String.format("方式=%s, 队列深度=%d（连接内积压 %d）, 最大队列深度=%d, 已执行=%d, 已拒绝=%d, 平均等待(ms)=%.3f, 最大等待(ms)=%.3f, 平均执行(ms)=%.3f, 最大执行(ms)=%.3f",
+                mode, getQueueDepth(), getBacklog(), getMaxQueueDepth(), getStartedCount(), getRejectedCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getAverageRunMillis(), getMaxRunMillis());
+    }
+
+    /**
+     * 服务端退出时调用，不再接受新命令
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
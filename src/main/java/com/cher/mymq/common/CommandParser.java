@@ -0,0 +1,342 @@
+package com.cher.mymq.common;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文本命令 "ACTION queueName [payload]" 的逐字符解析，所有服务端共用。
+ *
+ * 与 command.split(" ", 3) + toUpperCase() + 按字符串 switch 的结果相同，但只记录各部分的位置：
+ * 命令名按字符（不区分大小写）直接匹配到 {@link Action}，不创建字符串；队列名从共享的名称缓存中取得，
+ * 同名队列的后续请求不再创建字符串；第三部分只在调用方需要保存时（如 PUBLISH 的消息）才复制。
+ *
+ * 解析器保存最近一次解析的结果，不是线程安全的：连接处理器每个连接一个实例，
+ * 其他调用方使用 {@link #local()}，并在解析后立即取出需要的部分（执行命令时可能在同一线程上嵌套解析）。
+ */
+public final class CommandParser {
+
+    public enum Action {
+        PUBLISH,
+        CONSUME,
+        CONSUMEBATCH,
+        CREATE,
+        DROP,
+        OFFSET,
+        SUBSCRIBE,
+        CREDIT,
+        UNSUBSCRIBE,
+        PUBLISHBATCH,
+        STATS,
+        UNKNOWN;
+
+        // 按命令名（大写）的哈希直接定位候选命令，再逐字符确认；新增命令与已有命令哈希冲突时需要调整表的大小
+        private static final int TABLE_SIZE = 32;
+        private static final Action[] BY_HASH = new Action[TABLE_SIZE];
+
+        static {
+            for (Action action : values()) {
+                if (action == UNKNOWN) {
+                    continue;
+                }
+                int slot = slot(action.name().hashCode());
+                if (BY_HASH[slot] != null) {
+                    throw new IllegalStateException("命令名哈希冲突: " + BY_HASH[slot] + ", " + action);
+                }
+                BY_HASH[slot] = action;
+            }
+        }
+
+        /**
+         * 命令名（不区分大小写）对应的 Action，未知时为 UNKNOWN
+         */
+        public static Action of(String name) {
+            return match(name, name.length());
+        }
+
+        private static Action byHash(int hash) {
+            return BY_HASH[slot(hash)];
+        }
+
+        private static int slot(int hash) {
+            return (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+        }
+    }
+
+    // 队列名缓存的大小（2 的幂）；按内容哈希直接映射，冲突时覆盖，占用固定
+    private static final int NAME_CACHE_SIZE = 4096;
+    // 字符串不可变，并发读写同一槽位最多造成一次缓存未命中
+    private static final String[] NAME_CACHE = new String[NAME_CACHE_SIZE];
+
+    // 复制到数组中处理的命令开头的字节数，足以容纳常见的命令名、队列名和短参数
+    private static final int HEADER_SIZE = 128;
+
+    private static final ThreadLocal<CommandParser> LOCAL = ThreadLocal.withInitial(CommandParser::new);
+
+    // 两种来源只有一种不为 null
+    private String text;
+    private ByteBuf bytes;
+    // ByteBuf 来源时，命令开头的一段（至少包含命令名和队列名）复制到这里按字节数组处理，重复使用，不随请求分配；
+    // 超出这一段的消息内容不复制
+    private byte[] header = new byte[HEADER_SIZE];
+    private int headerStart;
+    private int headerLength;
+    private Action action;
+    private int queueStart;
+    private int queueEnd;
+    // 没有第三部分时为 -1
+    private int payloadStart;
+    private int end;
+
+    /**
+     * 当前线程的解析器
+     */
+    public static CommandParser local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 解析字符串形式的命令
+     *
+     * @return 命令中没有空格（缺少队列名）时返回 false
+     */
+    public boolean parse(String command) {
+        this.text = command;
+        this.bytes = null;
+        this.end = command.length();
+        int actionEnd = command.indexOf(' ');
+        if (actionEnd < 0) {
+            return fail();
+        }
+        action = match(command, actionEnd);
+        locatePayload(actionEnd + 1, command.indexOf(' ', actionEnd + 1));
+        return true;
+    }
+
+    /**
+     * 解析 ByteBuf 中 [start, end) 范围内的命令，不移动读写位置；结果在 ByteBuf 释放前有效
+     *
+     * @return 命令中没有空格（缺少队列名）时返回 false
+     */
+    public boolean parse(ByteBuf buffer, int start, int end) {
+        this.text = null;
+        this.bytes = buffer;
+        this.end = end;
+        headerStart = start;
+        headerLength = Math.min(end - start, header.length);
+        buffer.getBytes(start, header, 0, headerLength);
+        int actionEnd = indexOfSpace(start, end);
+        if (actionEnd < 0) {
+            return fail();
+        }
+        locatePayload(actionEnd + 1, indexOfSpace(actionEnd + 1, end));
+        if (queueEnd - start > headerLength) {
+            // 队列名超出复制的一段（很少见），扩大数组重新复制
+            header = new byte[queueEnd - start];
+            headerLength = header.length;
+            buffer.getBytes(start, header, 0, headerLength);
+        }
+        action = match(header, actionEnd - start);
+        return true;
+    }
+
+    private boolean fail() {
+        action = Action.UNKNOWN;
+        queueStart = queueEnd = end;
+        payloadStart = -1;
+        return false;
+    }
+
+    private void locatePayload(int queueStart, int second) {
+        this.queueStart = queueStart;
+        if (second < 0) {
+            queueEnd = end;
+            payloadStart = -1;
+        } else {
+            queueEnd = second;
+            payloadStart = second + 1;
+        }
+    }
+
+    public Action action() {
+        return action;
+    }
+
+    /**
+     * 队列名；与缓存中的名称相同时返回缓存的字符串
+     */
+    public String queueName() {
+        int length = queueEnd - queueStart;
+        int hash = 0;
+        if (text != null) {
+            for (int i = queueStart; i < queueEnd; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+        } else {
+            int from = queueStart - headerStart;
+            for (int i = from; i < from + length; i++) {
+                if (header[i] < 0) {
+                    // 非 ASCII 的字节，按 UTF-8 解码，不使用缓存
+                    return new String(header, from, length, StandardCharsets.UTF_8);
+                }
+                hash = 31 * hash + header[i];
+            }
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String cached = NAME_CACHE[slot];
+        if (cached != null && cached.length() == length && sameChars(cached)) {
+            return cached;
+        }
+        String name = text != null ? text.substring(queueStart, queueEnd)
+                : new String(header, queueStart - headerStart, length, StandardCharsets.US_ASCII);
+        NAME_CACHE[slot] = name;
+        return name;
+    }
+
+    public boolean hasPayload() {
+        return payloadStart >= 0;
+    }
+
+    /**
+     * 第三部分（可能包含空格），没有时为 null
+     */
+    public String payload() {
+        if (payloadStart < 0) {
+            return null;
+        }
+        return text != null ? text.substring(payloadStart, end)
+                : bytes.toString(payloadStart, end - payloadStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 第三部分的原始字节，没有时为 null
+     */
+    public byte[] payloadBytes() {
+        if (payloadStart < 0) {
+            return null;
+        }
+        if (text != null) {
+            return text.substring(payloadStart, end).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] payload = new byte[end - payloadStart];
+        bytes.getBytes(payloadStart, payload);
+        return payload;
+    }
+
+    /**
+     * 把第三部分（忽略两端空白）解析为十进制整数，如长轮询的等待毫秒数
+     *
+     * @throws NumberFormatException 没有第三部分、不是十进制数字或溢出
+     */
+    public long payloadAsLong() {
+        int from = payloadStart;
+        int to = end;
+        if (from < 0) {
+            throw new NumberFormatException("缺少数值");
+        }
+        while (from < to && isBlank(charAt(from))) {
+            from++;
+        }
+        while (to > from && isBlank(charAt(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            throw new NumberFormatException("缺少数值");
+        }
+        boolean negative = charAt(from) == '-';
+        if (negative || charAt(from) == '+') {
+            from++;
+        }
+        if (from == to) {
+            throw new NumberFormatException("无效的数值");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int c = charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("无效的数值");
+            }
+            value = value * 10 + (c - '0');
+            if (value < 0) {
+                throw new NumberFormatException("数值溢出");
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    // 字符串来源返回字符；字节来源返回字节，非 ASCII 字节为负数
+    private int charAt(int index) {
+        if (text != null) {
+            return text.charAt(index);
+        }
+        return index - headerStart < headerLength ? header[index - headerStart] : bytes.getByte(index);
+    }
+
+    // ByteBuf 来源时先在复制的一段中查找，超出部分再到 ByteBuf 中查找
+    private int indexOfSpace(int from, int to) {
+        int copiedEnd = headerStart + headerLength;
+        for (int i = from; i < copiedEnd; i++) {
+            if (header[i - headerStart] == ' ') {
+                return i;
+            }
+        }
+        return copiedEnd < to ? bytes.indexOf(Math.max(from, copiedEnd), to, (byte) ' ') : -1;
+    }
+
+    // 与 String.trim() 一致
+    private static boolean isBlank(int c) {
+        return c >= 0 && c <= ' ';
+    }
+
+    private boolean sameChars(String cached) {
+        if (text != null) {
+            return text.regionMatches(queueStart, cached, 0, cached.length());
+        }
+        int from = queueStart - headerStart;
+        for (int i = 0; i < cached.length(); i++) {
+            if (cached.charAt(i) != header[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Action match(String text, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + toUpperCase(text.charAt(i));
+        }
+        Action candidate = Action.byHash(hash);
+        if (candidate == null || candidate.name().length() != length) {
+            return Action.UNKNOWN;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toUpperCase(text.charAt(i)) != candidate.name().charAt(i)) {
+                return Action.UNKNOWN;
+            }
+        }
+        return candidate;
+    }
+
+    private static Action match(byte[] name, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + toUpperCase(name[i]);
+        }
+        Action candidate = Action.byHash(hash);
+        if (candidate == null || candidate.name().length() != length) {
+            return Action.UNKNOWN;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toUpperCase(name[i]) != candidate.name().charAt(i)) {
+                return Action.UNKNOWN;
+            }
+        }
+        return candidate;
+    }
+
+    // 命令名都是大写字母，只需把 ASCII 小写字母转为大写
+    private static int toUpperCase(int c) {
+        return c >= 'a' && c <= 'z' ? c - ('a' - 'A') : c;
+    }
+}
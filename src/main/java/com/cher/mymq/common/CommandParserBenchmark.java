@@ -0,0 +1,163 @@
+package com.cher.mymq.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 命令解析的耗时和每条命令的堆分配：逐条解析一组典型命令（PUBLISH、CONSUME、长轮询 CONSUME、CONSUMEBATCH、CREATE），
+ * 取出命令、队列名，长轮询时解析等待时间。
+ *
+ * 对比原有的 split(" ", 3) + toUpperCase() + 按字符串 switch、Master 原有的按字节拆分（命令名和队列名各解码一次），
+ * 以及 {@link CommandParser} 解析字符串和 ByteBuf。PUBLISH 的消息内容需要保存到队列，两种方式都要复制，不计入。
+ * 分配字节数取自当前线程的累计分配量（com.sun.management.ThreadMXBean）。
+ *
+ * 用法：java com.cher.mymq.common.CommandParserBenchmark [每轮命令数] [轮数]
+ */
+public class CommandParserBenchmark {
+    private static final String[] COMMANDS = {
+            "PUBLISH orders order-created:10086",
+            "consume orders",
+            "CONSUME orders 5000",
+            "CONSUMEBATCH orders 32",
+            "CREATE payments",
+    };
+
+    private static final ByteBuf[] BUFFERS = new ByteBuf[COMMANDS.length];
+    private static final CommandParser PARSER = new CommandParser();
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            BUFFERS[i] = Unpooled.copiedBuffer(COMMANDS[i], StandardCharsets.UTF_8);
+        }
+    }
+
+    // 防止解析结果被优化掉
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.out.println("[INFO] 每轮命令数 " + operations + "，轮数 " + rounds + "（第一轮为预热，不计入结果）");
+
+        String[] names = {"split + toUpperCase", "ByteBuf 逐段解码", "CommandParser(String)", "CommandParser(ByteBuf)"};
+        double[] bestNanos = new double[names.length];
+        double[] bestBytes = new double[names.length];
+        Arrays.fill(bestNanos, Double.MAX_VALUE);
+        Arrays.fill(bestBytes, Double.MAX_VALUE);
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < names.length; i++) {
+                double[] result = run(i, operations);
+                if (round > 0) {
+                    bestNanos[i] = Math.min(bestNanos[i], result[0]);
+                    bestBytes[i] = Math.min(bestBytes[i], result[1]);
+                }
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("[INFO] %-24s %8.1f ns/命令 %8.1f 字节/命令%n", names[i], bestNanos[i], bestBytes[i]);
+        }
+    }
+
+    /**
+     * @return 每条命令的平均耗时（纳秒）和平均分配字节数
+     */
+    private static double[] run(int kind, int operations) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < operations; i++) {
+            checksum += parse(kind, i % COMMANDS.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        sink = checksum;
+        return new double[]{(double) elapsed / operations, (double) allocated / operations};
+    }
+
+    // 每种实现一个分支，避免同一调用点上的多态调用影响测量
+    private static long parse(int kind, int index) {
+        switch (kind) {
+            case 0:
+                return splitParse(COMMANDS[index]);
+            case 1:
+                return bytesParse(BUFFERS[index]);
+            case 2:
+                return parserParse(PARSER.parse(COMMANDS[index]));
+            default:
+                return parserParse(PARSER.parse(BUFFERS[index], 0, BUFFERS[index].writerIndex()));
+        }
+    }
+
+    // 原有实现：拆分字符串，命令名转大写后按字符串 switch
+    private static long splitParse(String command) {
+        String[] parts = command.split(" ", 3);
+        if (parts.length < 2) {
+            return 0;
+        }
+        String queueName = parts[1];
+        switch (parts[0].toUpperCase()) {
+            case "PUBLISH":
+                return 1 + queueName.length();
+            case "CONSUME":
+                return parts.length < 3 ? 2 + queueName.length() : Long.parseLong(parts[2].trim());
+            case ConsumeBatch.ACTION:
+                return 3 + queueName.length() + parts[2].length();
+            case "CREATE":
+                return 4 + queueName.length();
+            default:
+                return 0;
+        }
+    }
+
+    // Master 原有实现：按空格定位后，命令名和队列名各解码为字符串，再按字符串比较
+    private static long bytesParse(ByteBuf msg) {
+        int end = msg.writerIndex();
+        int actionEnd = msg.indexOf(0, end, (byte) ' ');
+        if (actionEnd < 0) {
+            return 0;
+        }
+        int queueEnd = msg.indexOf(actionEnd + 1, end, (byte) ' ');
+        String action = msg.toString(0, actionEnd, StandardCharsets.UTF_8).toUpperCase();
+        String queueName = msg.toString(actionEnd + 1, (queueEnd < 0 ? end : queueEnd) - actionEnd - 1,
+                StandardCharsets.UTF_8);
+        switch (action) {
+            case "PUBLISH":
+                return 1 + queueName.length();
+            case "CONSUME":
+                return queueEnd < 0 ? 2 + queueName.length()
+                        : Long.parseLong(msg.toString(queueEnd + 1, end - queueEnd - 1, StandardCharsets.US_ASCII).trim());
+            case ConsumeBatch.ACTION:
+                return 3 + queueName.length() + end - queueEnd - 1;
+            case "CREATE":
+                return 4 + queueName.length();
+            default:
+                return 0;
+        }
+    }
+
+    private static long parserParse(boolean parsed) {
+        if (!parsed) {
+            return 0;
+        }
+        CommandParser parser = PARSER;
+        String queueName = parser.queueName();
+        switch (parser.action()) {
+            case PUBLISH:
+                return 1 + queueName.length();
+            case CONSUME:
+                return parser.hasPayload() ? parser.payloadAsLong() : 2 + queueName.length();
+            case CONSUMEBATCH:
+                return 3 + queueName.length() + (parser.hasPayload() ? 1 : 0);
+            case CREATE:
+                return 4 + queueName.length();
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.cher.mymq.common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * 紧凑的队列容器：空闲队列只占几十字节。
+ *
+ * 存储结构在第一次写入时才创建（CAS 发布，offer 本身不加锁），队列再次变空后由 {@link #compact()} 释放；
+ * 不单独分配锁对象，需要与日志保持顺序的操作直接对容器自身加 synchronized，无竞争时不额外占用内存。
+ * offer/poll 不取容器锁，使用 RING 时不需要日志顺序的调用方可以完全无锁地读写。
+ * 各服务端的 QueueHolder 继承此类，按需增加自己的状态。
+ *
+ * 队列的创建和删除不经过全局锁：DROP 在容器锁内标记 dropped 并移出队列表，
+ * 其他操作取得容器锁后先检查该标记，与 DROP 竞争的写入会改为操作重新创建的同名队列。
+ *
+ * 长轮询的 CONSUME 在队列为空时登记在容器上（见 {@link LongPollConsumer}），写入消息后由 {@link #wakeConsumer()} 唤醒。
+ */
+public class CompactQueue<E> {
+    private static final VarHandle BACKEND;
+
+    static {
+        try {
+            BACKEND = MethodHandles.lookup().findVarHandle(CompactQueue.class, "backend", QueueBackend.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final QueueBackendConfig.Type type;
+    // 没有消息时为 null
+    private volatile QueueBackend<E> backend;
+    // 已被 DROP（持有容器锁时设置）
+    private volatile boolean dropped;
+    // 长轮询中等待消息的消费者（持有容器锁时修改），没有时为 null
+    private volatile ArrayDeque<ConsumeWaiter> consumeWaiters;
+
+    public CompactQueue(QueueBackendConfig.Type type) {
+        this.type = type;
+    }
+
+    /**
+     * 追加一条消息到队尾。不加锁：存储结构为空时用 CAS 创建，并发创建时只保留先成功的一个，
+     * 不会因为两次创建丢消息。不能与 compact() 并发，见其说明
+     */
+    @SuppressWarnings("unchecked")
+    public boolean offer(E message) {
+        QueueBackend<E> queue = backend;
+        if (queue == null) {
+            QueueBackend<E> created = QueueBackendConfig.create(type);
+            QueueBackend<E> existing = (QueueBackend<E>) BACKEND.compareAndExchange(this, null, created);
+            queue = existing == null ? created : existing;
+        }
+        return queue.offer(message);
+    }
+
+    /**
+     * 取出队首消息，队列为空时返回 null。不加锁：存储结构只在为空时释放，
+     * 并发的 poll 即使读到刚释放的存储结构也只会得到 null
+     */
+    public E poll() {
+        QueueBackend<E> queue = backend;
+        return queue == null ? null : queue.poll();
+    }
+
+    /**
+     * 批量出队：按顺序取出最多 maxCount 条消息，累计字节数达到 maxBytes 后不再取下一条，
+     * 每条消息通过 {@link #poll()} 取出（子类的计数照常生效）。需要与日志保持顺序时调用方持有容器锁
+     *
+     * @param maxBytes 负数表示不限制，此时不调用 sizeOf
+     * @param sizeOf   消息的字节数
+     * @return 取出的消息，队列为空时返回空列表
+     */
+    public List<E> pollBatch(int maxCount, long maxBytes, ToLongFunction<E> sizeOf) {
+        List<E> batch = new ArrayList<>(Math.min(maxCount, Math.max(size(), 1)));
+        long bytes = 0;
+        while (batch.size() < maxCount && (maxBytes < 0 || bytes < maxBytes)) {
+            E message = poll();
+            if (message == null) {
+                break;
+            }
+            batch.add(message);
+            if (maxBytes >= 0) {
+                bytes += sizeOf.applyAsLong(message);
+            }
+        }
+        return batch;
+    }
+
+    public int size() {
+        QueueBackend<E> queue = backend;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * 是否有可以立即取出的消息。子类可以让部分已入队的消息暂不可见（如等待持久化），此时应覆盖此方法
+     */
+    public boolean hasMessages() {
+        return size() > 0;
+    }
+
+    /**
+     * 按顺序复制当前内容（用于快照，调用方保证期间没有并发修改）
+     */
+    public List<E> snapshot() {
+        QueueBackend<E> queue = backend;
+        return queue == null ? List.of() : queue.toList();
+    }
+
+    /**
+     * 队列为空时释放存储结构，之后的第一次写入重新创建。
+     * 调用方保证期间没有并发的 offer，否则消息可能写入刚释放的存储结构：
+     * 各服务端只在快照的写锁内调用，而所有写入都持有快照读锁或发生在开始服务之前
+     *
+     * @return 是否释放了存储结构
+     */
+    public boolean compact() {
+        QueueBackend<E> queue = backend;
+        if (queue == null || queue.size() > 0) {
+            return false;
+        }
+        backend = null;
+        return true;
+    }
+
+    /**
+     * 标记队列已删除。调用方持有容器锁，并在同一临界区内把它移出队列表
+     */
+    public void markDropped() {
+        dropped = true;
+    }
+
+    public boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * 没有可取出的消息且队列未删除时登记等待者
+     *
+     * @return 队列已有消息或已删除时返回 false，调用方应立即重试
+     */
+    synchronized boolean park(ConsumeWaiter waiter) {
+        if (dropped || hasMessages()) {
+            return false;
+        }
+        ArrayDeque<ConsumeWaiter> waiters = consumeWaiters;
+        if (waiters == null) {
+            waiters = new ArrayDeque<>();
+            consumeWaiters = waiters;
+        }
+        waiter.parkedOn(this);
+        waiters.add(waiter);
+        return true;
+    }
+
+    // 等待者超时后移除
+    synchronized void unpark(ConsumeWaiter waiter) {
+        ArrayDeque<ConsumeWaiter> waiters = consumeWaiters;
+        if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) {
+            consumeWaiters = null;
+        }
+    }
+
+    /**
+     * 写入一条消息后唤醒一个仍在等待的消费者，它在当前线程上重新执行 CONSUME。调用方不应持有容器锁
+     */
+    public void wakeConsumer() {
+        while (consumeWaiters != null) {
+            ConsumeWaiter waiter;
+            synchronized (this) {
+                ArrayDeque<ConsumeWaiter> waiters = consumeWaiters;
+                if (waiters == null) {
+                    return;
+                }
+                waiter = waiters.poll();
+                if (waiters.isEmpty()) {
+                    consumeWaiters = null;
+                }
+            }
+            if (waiter.wake()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写入 count 条消息后唤醒最多 count 个仍在等待的消费者，见 {@link #wakeConsumer()}
+     */
+    public void wakeConsumers(int count) {
+        for (int i = 0; i < count && consumeWaiters != null; i++) {
+            wakeConsumer();
+        }
+    }
+
+    /**
+     * 队列删除后唤醒所有等待者，它们重新执行 CONSUME 得到队列不存在的响应
+     */
+    public void wakeAllConsumers() {
+        ArrayDeque<ConsumeWaiter> waiters;
+        synchronized (this) {
+            waiters = consumeWaiters;
+            consumeWaiters = null;
+        }
+        if (waiters != null) {
+            waiters.forEach(ConsumeWaiter::wake);
+        }
+    }
+
+    public QueueBackendConfig.Type getType() {
+        return type;
+    }
+}
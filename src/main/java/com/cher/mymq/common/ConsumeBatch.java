@@ -0,0 +1,55 @@
+package com.cher.mymq.common;
+
+/**
+ * 批量消费 CONSUMEBATCH queueName maxCount [maxBytes] 的参数。
+ *
+ * 一次取出最多 maxCount 条消息，累计字节数达到 maxBytes 后不再取下一条（至少取一条，
+ * 因此总字节数最多超出最后一条消息的长度）。响应为一帧：首行 {@code MESSAGES: n}，随后 n 行依次为各条消息；
+ * 队列为空时与 CONSUME 相同，响应 NO_MESSAGE。
+ */
+public final class ConsumeBatch {
+    public static final String ACTION = "CONSUMEBATCH";
+    public static final String PREFIX = "MESSAGES: ";
+
+    private final int maxCount;
+    // 负数表示不限制
+    private final long maxBytes;
+
+    public ConsumeBatch(int maxCount, long maxBytes) {
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 解析命令的第三部分 "maxCount [maxBytes]"
+     *
+     * @throws IllegalArgumentException 格式错误或数值不为正时抛出
+     */
+    public static ConsumeBatch parse(String args) {
+        if (args == null) {
+            throw new IllegalArgumentException("CONSUMEBATCH 命令需要最大消息数");
+        }
+        String[] parts = args.trim().split(" +");
+        if (parts.length > 2) {
+            throw new IllegalArgumentException("无效的批量消费参数: " + args);
+        }
+        try {
+            int maxCount = Integer.parseInt(parts[0]);
+            long maxBytes = parts.length == 2 ? Long.parseLong(parts[1]) : -1;
+            if (maxCount <= 0 || (parts.length == 2 && maxBytes <= 0)) {
+                throw new IllegalArgumentException("最大消息数和最大字节数必须为正数: " + args);
+            }
+            return new ConsumeBatch(maxCount, maxBytes);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的批量消费参数: " + args);
+        }
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,66 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 登记在空队列上的一次长轮询 CONSUME。被新消息唤醒和超时只有一个生效。
+ */
+final class ConsumeWaiter {
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final Runnable onWake;
+    private final Runnable onTimeout;
+    // 所在的队列，超时时从中移除
+    private volatile CompactQueue<?> parkedOn;
+    private volatile ScheduledFuture<?> timeout;
+
+    ConsumeWaiter(Runnable onWake, Runnable onTimeout) {
+        this.onWake = onWake;
+        this.onTimeout = onTimeout;
+    }
+
+    void parkedOn(CompactQueue<?> queue) {
+        this.parkedOn = queue;
+    }
+
+    /**
+     * 登记超时任务。登记到队列之后才能安排超时，期间已被唤醒时立即取消，不留下无用的定时任务
+     */
+    void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+        if (finished.get()) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * 有新消息：仍在等待时在当前线程上调用 onWake
+     *
+     * @return 已经超时返回 false，调用方应唤醒下一个等待者
+     */
+    boolean wake() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        ScheduledFuture<?> future = timeout;
+        if (future != null) {
+            future.cancel(false);
+        }
+        onWake.run();
+        return true;
+    }
+
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    void expire() {
+        if (finished.compareAndSet(false, true)) {
+            CompactQueue<?> queue = parkedOn;
+            if (queue != null) {
+                queue.unpark(this);
+            }
+            onTimeout.run();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务端默认的持久化策略，以及按队列的覆盖配置。
+ *
+ * 从系统属性读取：-Dmymq.durability=SYNC_INTERVAL(100) 设置默认策略，
+ * -Dmymq.durability.queue.&lt;队列名&gt;=ASYNC 覆盖单个队列。每个队列的属性只在第一次使用时读取一次。
+ */
+public class DurabilityConfig {
+    public static final String PROPERTY = "mymq.durability";
+    public static final String QUEUE_PROPERTY_PREFIX = "mymq.durability.queue.";
+
+    private final DurabilityPolicy defaultPolicy;
+    private final ConcurrentHashMap<String, DurabilityPolicy> queuePolicies = new ConcurrentHashMap<>();
+
+    public DurabilityConfig(DurabilityPolicy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    public static DurabilityConfig fromSystemProperties() {
+        return new DurabilityConfig(readProperty(PROPERTY, DurabilityPolicy.SYNC_EACH));
+    }
+
+    /**
+     * 显式设置某个队列的策略（优先于系统属性）
+     */
+    public void setQueuePolicy(String queueName, DurabilityPolicy policy) {
+        queuePolicies.put(queueName, policy);
+    }
+
+    public DurabilityPolicy forQueue(String queueName) {
+        DurabilityPolicy policy = queuePolicies.get(queueName);
+        if (policy == null) {
+            policy = queuePolicies.computeIfAbsent(queueName,
+                    name -> readProperty(QUEUE_PROPERTY_PREFIX + name, defaultPolicy));
+        }
+        return policy;
+    }
+
+    public DurabilityPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    private static DurabilityPolicy readProperty(String key, DurabilityPolicy fallback) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return DurabilityPolicy.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.out.println("[WARN] " + key + " 配置无效，使用 " + fallback + ": " + e.getMessage());
+            return fallback;
+        }
+    }
+}
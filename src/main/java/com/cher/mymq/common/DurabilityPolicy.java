@@ -0,0 +1,76 @@
+package com.cher.mymq.common;
+
+/**
+ * 日志持久化策略：
+ * <ul>
+ *   <li>SYNC_EACH —— 每次写入都 fsync 后才响应（默认，与原有行为一致）</li>
+ *   <li>SYNC_INTERVAL(ms) —— 写入后立即响应，由后台在 ms 毫秒内 fsync</li>
+ *   <li>ASYNC —— 只写入操作系统页缓存，不主动 fsync</li>
+ * </ul>
+ * 字符串形式为 {@code SYNC_EACH}、{@code SYNC_INTERVAL(100)}、{@code ASYNC}，不区分大小写。
+ */
+public final class DurabilityPolicy {
+    public enum Mode {
+        SYNC_EACH, SYNC_INTERVAL, ASYNC
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    public static final DurabilityPolicy SYNC_EACH = new DurabilityPolicy(Mode.SYNC_EACH, 0);
+    public static final DurabilityPolicy ASYNC = new DurabilityPolicy(Mode.ASYNC, 0);
+
+    private final Mode mode;
+    private final long intervalMillis;
+
+    private DurabilityPolicy(Mode mode, long intervalMillis) {
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public static DurabilityPolicy syncInterval(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("刷盘间隔必须大于 0: " + intervalMillis);
+        }
+        return new DurabilityPolicy(Mode.SYNC_INTERVAL, intervalMillis);
+    }
+
+    /**
+     * 解析策略字符串
+     *
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static DurabilityPolicy parse(String spec) {
+        String value = spec.trim().toUpperCase();
+        if (value.equals("SYNC_EACH")) {
+            return SYNC_EACH;
+        }
+        if (value.equals("ASYNC")) {
+            return ASYNC;
+        }
+        if (value.equals("SYNC_INTERVAL")) {
+            return syncInterval(DEFAULT_INTERVAL_MILLIS);
+        }
+        if (value.startsWith("SYNC_INTERVAL(") && value.endsWith(")")) {
+            String millis = value.substring("SYNC_INTERVAL(".length(), value.length() - 1).trim();
+            try {
+                return syncInterval(Long.parseLong(millis));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的刷盘间隔: " + spec);
+            }
+        }
+        throw new IllegalArgumentException("无效的持久化策略: " + spec);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.SYNC_INTERVAL ? "SYNC_INTERVAL(" + intervalMillis + ")" : mode.name();
+    }
+}
@@ -0,0 +1,56 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按持久化模式统计已写入但尚未 fsync 的字节数，即崩溃时可能丢失的数据量。
+ *
+ * 一次 fsync 覆盖它开始之前完成的所有写入：fsync 前调用 {@link #beginFlush} 记下各模式的计数，
+ * fsync 成功后调用 {@link #endFlush} 扣除，期间新写入的字节仍然计为未刷盘。
+ */
+public class FlushTracker {
+    private static final DurabilityPolicy.Mode[] MODES = DurabilityPolicy.Mode.values();
+
+    private final AtomicLongArray unflushed = new AtomicLongArray(MODES.length);
+
+    public void written(DurabilityPolicy policy, long bytes) {
+        unflushed.addAndGet(policy.getMode().ordinal(), bytes);
+    }
+
+    public long[] beginFlush() {
+        long[] pending = new long[MODES.length];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = unflushed.get(i);
+        }
+        return pending;
+    }
+
+    public void endFlush(long[] flushed) {
+        for (int i = 0; i < flushed.length; i++) {
+            unflushed.addAndGet(i, -flushed[i]);
+        }
+    }
+
+    public long getUnflushedBytes(DurabilityPolicy.Mode mode) {
+        return unflushed.get(mode.ordinal());
+    }
+
+    public long getUnflushedBytes() {
+        long total = 0;
+        for (int i = 0; i < MODES.length; i++) {
+            total += unflushed.get(i);
+        }
+        return total;
+    }
+
+    public String getSummary() {
+        StringBuilder builder = new StringBuilder("未刷盘字节: ");
+        for (DurabilityPolicy.Mode mode : MODES) {
+            if (mode.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(mode).append('=').append(getUnflushedBytes(mode));
+        }
+        return builder.toString();
+    }
+}
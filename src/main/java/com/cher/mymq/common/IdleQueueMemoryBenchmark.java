@@ -0,0 +1,84 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 空闲队列的内存占用：创建大量空队列放入 ConcurrentHashMap，比较 GC 后堆内存的增量。
+ *
+ * 对比原有的 QueueHolder（存储结构 + ReentrantReadWriteLock，创建时即分配）和 CompactQueue
+ * （从未写入的队列，以及写入并取空后经过 compact() 的队列）。
+ * 结果中“每个队列”包含队列名和 ConcurrentHashMap 节点，“容器”减去了只放入队列名时的基准占用。
+ *
+ * 用法：java com.cher.mymq.common.IdleQueueMemoryBenchmark [队列数]
+ */
+public class IdleQueueMemoryBenchmark {
+
+    // 原有实现：每个队列创建时分配存储结构和读写锁
+    private static final class LockedHolder {
+        final QueueBackend<String> queue;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        LockedHolder(QueueBackend<String> queue) {
+            this.queue = queue;
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.println("[INFO] 队列数 " + count);
+
+        double baseline = measure(count, name -> Boolean.TRUE);
+        System.out.printf("[INFO] %-32s 每个队列 %6.1f 字节%n", "基准（队列名 + Map 节点）", baseline);
+        report("QueueHolder(LINKED+读写锁)", baseline,
+                measure(count, name -> new LockedHolder(QueueBackendConfig.create(QueueBackendConfig.Type.LINKED))));
+        report("QueueHolder(RING+读写锁)", baseline,
+                measure(count, name -> new LockedHolder(QueueBackendConfig.create(QueueBackendConfig.Type.RING))));
+        report("CompactQueue（未写入）", baseline,
+                measure(count, name -> new CompactQueue<String>(QueueBackendConfig.Type.LINKED)));
+        report("CompactQueue（写入取空后 compact）", baseline, measure(count, name -> {
+            CompactQueue<String> queue = new CompactQueue<>(QueueBackendConfig.Type.RING);
+            queue.offer(name);
+            queue.poll();
+            queue.compact();
+            return queue;
+        }));
+    }
+
+    private static void report(String name, double baseline, double perQueue) {
+        System.out.printf("[INFO] %-32s 每个队列 %6.1f 字节，容器 %6.1f 字节%n", name, perQueue, perQueue - baseline);
+    }
+
+    /**
+     * @return 每个队列（含队列名和 Map 节点）平均占用的堆内存字节数
+     */
+    private static double measure(int count, Function<String, Object> factory) {
+        ConcurrentHashMap<String, Object> queues = new ConcurrentHashMap<>(count * 2);
+        long empty = usedMemory();
+        for (int i = 0; i < count; i++) {
+            String name = "user-" + i;
+            queues.put(name, factory.apply(name));
+        }
+        long after = usedMemory();
+        // 测量期间保持 Map 可达
+        if (queues.size() != count) {
+            throw new IllegalStateException("队列数不一致: " + queues.size());
+        }
+        // 只统计队列本身，不计 Map 预分配的桶数组
+        return (double) (after - empty) / count;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,32 @@
+package com.cher.mymq.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 基于 LinkedBlockingQueue 的存储结构（默认）：入队和出队各有一把锁，每条消息分配一个链表节点
+ */
+public class LinkedQueueBackend<E> implements QueueBackend<E> {
+    private final LinkedBlockingQueue<E> queue = new LinkedBlockingQueue<>();
+
+    @Override
+    public boolean offer(E message) {
+        return queue.offer(message);
+    }
+
+    @Override
+    public E poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public List<E> toList() {
+        return new ArrayList<>(queue);
+    }
+}
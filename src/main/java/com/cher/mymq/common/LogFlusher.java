@@ -0,0 +1,132 @@
+package com.cher.mymq.common;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * 单文件日志的刷盘调度：按每次写入的持久化策略，立即 fsync、由后台线程在间隔内 fsync，或不主动 fsync。
+ *
+ * 一次 fsync 会同时持久化之前所有模式写入的数据，因此 SYNC_INTERVAL 的截止时间取所有待刷盘写入中最早的一个。
+ * 出现过非 SYNC_EACH 写入后，后台线程每隔 {@link #REPORT_INTERVAL_MILLIS} 输出一次各模式的未刷盘字节数。
+ */
+public class LogFlusher {
+    private static final long REPORT_INTERVAL_MILLIS = 60_000;
+
+    private final FileChannel channel;
+    private final String name;
+    private final FlushTracker tracker = new FlushTracker();
+    // 串行化 fsync，保证未刷盘字节的扣减与 fsync 一一对应
+    private final Object forceLock = new Object();
+    private final Object monitor = new Object();
+    // 最早需要刷盘的时间（毫秒时间戳），没有待刷盘的间隔写入时为 Long.MAX_VALUE
+    private long flushDeadline = Long.MAX_VALUE;
+    private volatile boolean relaxedWrites = false;
+    private volatile boolean closed = false;
+    private final Thread thread;
+
+    /**
+     * @param channel 日志文件通道
+     * @param name    日志名称，用于线程名和输出
+     */
+    public LogFlusher(FileChannel channel, String name) {
+        this.channel = channel;
+        this.name = name;
+        this.thread = new Thread(this::run, "LogFlusher-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 写入 bytes 字节后调用；SYNC_EACH 在返回前完成 fsync
+     */
+    public void afterWrite(DurabilityPolicy policy, long bytes) throws IOException {
+        tracker.written(policy, bytes);
+        switch (policy.getMode()) {
+            case SYNC_EACH:
+                force();
+                break;
+            case SYNC_INTERVAL: {
+                relaxedWrites = true;
+                long deadline = System.currentTimeMillis() + policy.getIntervalMillis();
+                synchronized (monitor) {
+                    if (deadline < flushDeadline) {
+                        flushDeadline = deadline;
+                        monitor.notifyAll();
+                    }
+                }
+                break;
+            }
+            default:
+                relaxedWrites = true;
+                break;
+        }
+    }
+
+    /**
+     * 立即 fsync，持久化此前的所有写入
+     */
+    public void force() throws IOException {
+        synchronized (forceLock) {
+            long[] pending = tracker.beginFlush();
+            channel.force(true);
+            tracker.endFlush(pending);
+        }
+    }
+
+    private void run() {
+        long lastReport = System.currentTimeMillis();
+        while (!closed) {
+            boolean due = false;
+            synchronized (monitor) {
+                long now = System.currentTimeMillis();
+                if (flushDeadline <= now) {
+                    flushDeadline = Long.MAX_VALUE;
+                    due = true;
+                } else {
+                    long wait = Math.min(flushDeadline - now, Math.max(1, lastReport + REPORT_INTERVAL_MILLIS - now));
+                    try {
+                        monitor.wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            if (due) {
+                try {
+                    force();
+                } catch (IOException e) {
+                    System.err.println("[ERROR] " + name + " 定时刷盘失败：" + e.getMessage());
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                lastReport = now;
+                if (relaxedWrites) {
+                    System.out.println("[INFO] " + name + " " + tracker.getSummary());
+                }
+            }
+        }
+    }
+
+    public FlushTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * 停止后台线程，并把剩余数据刷盘
+     */
+    public void close() {
+        closed = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        try {
+            thread.join();
+            force();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("[ERROR] " + name + " 关闭时刷盘失败：" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.cher.mymq.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 流式日志扫描：按固定大小的块读取日志文件，在块内切出每条记录交给回调处理。
+ * 默认按换行符分隔记录，子类可覆盖 {@link #frame} 支持其他格式。
+ *
+ * 内存占用只与块大小（和单条记录的最大长度）有关，与日志总大小无关。
+ * 一个扫描器可以依次扫描多个文件（如多个日志段），进度按总字节数累计，
+ * 每隔 {@link #REPORT_INTERVAL_MILLIS} 输出一次已处理字节数、字节速率和命令速率。
+ */
+public class LogScanner {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final long REPORT_INTERVAL_MILLIS = 2000;
+
+    /**
+     * 记录回调：record 为块缓冲区，[offset, offset + length) 为一条记录（不含换行符）。
+     * 缓冲区会被复用，回调返回后不能再引用其中的数据。
+     */
+    public interface RecordHandler {
+        void onRecord(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private final String label;
+    private final long totalBytes;
+    private ByteBuffer buffer;
+
+    private final long startNanos = System.nanoTime();
+    private long lastReportNanos = startNanos;
+    private long scannedBytes;
+    private long recordCount;
+
+    /**
+     * @param label      输出进度时的名称
+     * @param totalBytes 预计要扫描的总字节数，仅用于显示进度
+     */
+    public LogScanner(String label, long totalBytes) {
+        this(label, totalBytes, DEFAULT_CHUNK_SIZE);
+    }
+
+    public LogScanner(String label, long totalBytes, int chunkSize) {
+        this.label = label;
+        this.totalBytes = totalBytes;
+        this.buffer = ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * 扫描文件 [fromPosition, endPosition) 范围内的记录
+     *
+     * @param endPosition 结束位置，-1 表示扫描到文件末尾
+     */
+    public void scan(Path path, long fromPosition, long endPosition, RecordHandler handler) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = endPosition < 0 ? channel.size() : Math.min(endPosition, channel.size());
+            long position = Math.min(fromPosition, end);
+            buffer.clear();
+            while (position < end) {
+                if (!buffer.hasRemaining()) {
+                    // 单条记录超过当前块大小，扩容后继续读取
+                    ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    grown.put(buffer);
+                    buffer = grown;
+                }
+                int limit = (int) Math.min(buffer.remaining(), end - position);
+                ByteBuffer window = buffer.duplicate();
+                window.limit(buffer.position() + limit);
+                int read = channel.read(window, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+                buffer.position(buffer.position() + read);
+                scannedBytes += read;
+                dispatch(handler, false);
+                maybeReport();
+            }
+            dispatch(handler, true);
+        }
+    }
+
+    /**
+     * 把缓冲区中的完整记录交给回调，剩余的半条记录移到缓冲区开头
+     */
+    private void dispatch(RecordHandler handler, boolean endOfFile) throws IOException {
+        byte[] bytes = buffer.array();
+        int limit = buffer.position();
+        int start = frame(handler, bytes, limit, endOfFile);
+        System.arraycopy(bytes, start, bytes, 0, limit - start);
+        buffer.position(limit - start);
+        buffer.limit(buffer.capacity());
+    }
+
+    /**
+     * 从 bytes[0, limit) 中切出完整记录并通过 {@link #emit} 交给回调，返回已消费的字节数。
+     * 默认按换行符分隔；子类可以覆盖以支持其他记录格式。
+     *
+     * @param endOfFile 是否已读到扫描范围末尾
+     */
+    protected int frame(RecordHandler handler, byte[] bytes, int limit, boolean endOfFile) throws IOException {
+        int start = 0;
+        for (int i = 0; i < limit; i++) {
+            if (bytes[i] == (byte) '\n') {
+                emitLine(handler, bytes, start, i);
+                start = i + 1;
+            }
+        }
+        if (endOfFile && start < limit) {
+            // 文件末尾没有换行符的记录，与 readAllLines 的行为保持一致
+            emitLine(handler, bytes, start, limit);
+            start = limit;
+        }
+        return start;
+    }
+
+    private void emitLine(RecordHandler handler, byte[] bytes, int start, int end) throws IOException {
+        if (end > start && bytes[end - 1] == (byte) '\r') {
+            end--;
+        }
+        if (end > start) {
+            emit(handler, bytes, start, end);
+        }
+    }
+
+    protected void emit(RecordHandler handler, byte[] bytes, int start, int end) throws IOException {
+        recordCount++;
+        handler.onRecord(bytes, start, end - start);
+    }
+
+    private void maybeReport() {
+        long now = System.nanoTime();
+        if (now - lastReportNanos >= REPORT_INTERVAL_MILLIS * 1_000_000) {
+            lastReportNanos = now;
+            System.out.println("[INFO] " + label + "进度: " + summary(now));
+        }
+    }
+
+    private String summary(long now) {
+        double seconds = Math.max(now - startNanos, 1) / 1e9;
+        return String.format("%.1f/%.1f MB, %.1f MB/s, %d 条命令, %.0f 条/s",
+                scannedBytes / 1048576.0, totalBytes / 1048576.0, scannedBytes / 1048576.0 / seconds,
+                recordCount, recordCount / seconds);
+    }
+
+    /**
+     * 输出最终统计
+     */
+    public void finish() {
+        System.out.println("[INFO] " + label + "完成: " + summary(System.nanoTime()));
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getScannedBytes() {
+        return scannedBytes;
+    }
+}
@@ -0,0 +1,69 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 长轮询 CONSUME（CONSUME queueName timeoutMs）的公共流程。
+ *
+ * 先按普通 CONSUME 执行一次；队列为空时把请求登记在队列上并返回，不占用线程。
+ * PUBLISH 写入消息后调用 {@link CompactQueue#wakeConsumer()}，被唤醒的请求在发布线程上重新执行 CONSUME，
+ * 取到消息后响应；被其他消费者抢先时重新登记。超时由一个共享的定时线程处理，响应最后一次的空结果。
+ *
+ * @param <R> 服务端的响应类型
+ */
+public class LongPollConsumer<R> {
+    private final ScheduledThreadPoolExecutor timer;
+
+    public LongPollConsumer(String threadName) {
+        // 线程在第一次登记超时时才创建
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 被唤醒的请求取消超时任务后立即从队列中移除，不等到超时时间
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param attempt       执行一次普通 CONSUME
+     * @param isEmpty       响应是否表示队列为空
+     * @param queue         取得当前的队列（不存在时返回 null）
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @param respond       取到消息、出错或超时后调用一次
+     */
+    public void consume(Supplier<R> attempt, Predicate<R> isEmpty, Supplier<? extends CompactQueue<?>> queue,
+                        long timeoutMillis, Consumer<R> respond) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        attempt(attempt, isEmpty, queue, deadline, respond);
+    }
+
+    private void attempt(Supplier<R> attempt, Predicate<R> isEmpty, Supplier<? extends CompactQueue<?>> queue,
+                         long deadline, Consumer<R> respond) {
+        while (true) {
+            R result = attempt.get();
+            long remaining = deadline - System.nanoTime();
+            if (!isEmpty.test(result) || remaining <= 0) {
+                respond.accept(result);
+                return;
+            }
+            CompactQueue<?> target = queue.get();
+            if (target == null) {
+                // 队列刚被删除，重新执行得到错误响应
+                continue;
+            }
+            ConsumeWaiter waiter = new ConsumeWaiter(
+                    () -> attempt(attempt, isEmpty, queue, deadline, respond),
+                    () -> respond.accept(result));
+            if (target.park(waiter)) {
+                waiter.setTimeout(timer.schedule(waiter::expire, remaining, TimeUnit.NANOSECONDS));
+                return;
+            }
+            // 登记前已有新消息或队列已删除，立即重试
+        }
+    }
+}
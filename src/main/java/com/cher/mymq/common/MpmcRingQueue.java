@@ -0,0 +1,197 @@
+package com.cher.mymq.common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁多生产者多消费者队列：由容量递增的环形数组块串成链表，不加锁，也不为每条消息分配节点。
+ *
+ * 每个块是一个有界 MPMC 环（Vyukov 算法）：槽位带序号，生产者 CAS 推进 tail、消费者 CAS 推进 head，
+ * 序号表明槽位当前可写还是可读。块写满时，发现写满的生产者给 tail 加上关闭标记，再链接一个容量加倍的新块；
+ * 关闭的块不再接受写入，消费者读完其中的消息后才转到下一块，因此整体仍然保持 FIFO。
+ * 队列长度不超过当前块容量时只在块内循环，不再分配内存。
+ * head 与 tail 计数器填充到不同的缓存行，生产者和消费者互不造成伪共享。
+ */
+public class MpmcRingQueue<E> implements QueueBackend<E> {
+    public static final int DEFAULT_INITIAL_CAPACITY = 16;
+    public static final int DEFAULT_MAX_CHUNK_CAPACITY = 64 * 1024;
+
+    // tail 的最高位：块已写满并关闭
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private static final VarHandle HEAD_CHUNK;
+    private static final VarHandle CHUNK_HEAD;
+    private static final VarHandle CHUNK_TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD_CHUNK = lookup.findVarHandle(MpmcRingQueue.class, "headChunk", Chunk.class);
+            CHUNK_HEAD = lookup.findVarHandle(ChunkHead.class, "head", long.class);
+            CHUNK_TAIL = lookup.findVarHandle(ChunkTail.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int maxChunkCapacity;
+    // 消费者当前读取的块、生产者当前写入的块
+    private volatile Chunk headChunk;
+    private volatile Chunk tailChunk;
+
+    public MpmcRingQueue() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CHUNK_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity  第一个块的容量
+     * @param maxChunkCapacity 单个块的容量上限，块容量每次加倍直到该值（均向上取整为 2 的幂）
+     */
+    public MpmcRingQueue(int initialCapacity, int maxChunkCapacity) {
+        this.maxChunkCapacity = powerOfTwo(maxChunkCapacity);
+        Chunk chunk = new Chunk(Math.min(powerOfTwo(initialCapacity), this.maxChunkCapacity));
+        headChunk = chunk;
+        tailChunk = chunk;
+    }
+
+    private static int powerOfTwo(int capacity) {
+        return Math.max(2, Integer.highestOneBit(Math.max(2, capacity) - 1) << 1);
+    }
+
+    @Override
+    public boolean offer(E message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        Chunk chunk = tailChunk;
+        while (true) {
+            long tail = chunk.tail;
+            if (tail < 0) {
+                // 块已关闭，转到下一块
+                chunk = nextOf(chunk);
+                continue;
+            }
+            int index = (int) tail & chunk.mask;
+            long sequence = chunk.sequences.get(index);
+            if (sequence == tail) {
+                if (CHUNK_TAIL.compareAndSet(chunk, tail, tail + 1)) {
+                    chunk.elements[index] = message;
+                    chunk.sequences.set(index, tail + 1);
+                    return true;
+                }
+            } else if (sequence < tail) {
+                // 槽位仍被上一圈的消息占用，块已写满：关闭并链接新块
+                if (CHUNK_TAIL.compareAndSet(chunk, tail, tail | CLOSED)) {
+                    Chunk next = new Chunk(Math.min(chunk.elements.length * 2, maxChunkCapacity));
+                    chunk.next = next;
+                    tailChunk = next;
+                }
+            }
+            // 其他生产者已占用该位置，重新读取 tail
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        Chunk chunk = headChunk;
+        while (true) {
+            long head = chunk.head;
+            int index = (int) head & chunk.mask;
+            long sequence = chunk.sequences.get(index);
+            if (sequence == head + 1) {
+                if (CHUNK_HEAD.compareAndSet(chunk, head, head + 1)) {
+                    E message = (E) chunk.elements[index];
+                    chunk.elements[index] = null;
+                    chunk.sequences.set(index, head + chunk.elements.length);
+                    return message;
+                }
+            } else if (sequence <= head) {
+                long tail = chunk.tail;
+                if (head < (tail & ~CLOSED)) {
+                    // 生产者已占用槽位但还没写入，等待其完成，保证已返回的 offer 一定可见
+                    Thread.onSpinWait();
+                } else if (tail < 0) {
+                    // 关闭的块已读完，转到下一块
+                    HEAD_CHUNK.compareAndSet(this, chunk, nextOf(chunk));
+                    chunk = headChunk;
+                } else {
+                    return null;
+                }
+            }
+            // 其他消费者已取走该位置，重新读取 head
+        }
+    }
+
+    // 关闭块的生产者随后会链接下一块
+    private static Chunk nextOf(Chunk chunk) {
+        Chunk next;
+        while ((next = chunk.next) == null) {
+            Thread.onSpinWait();
+        }
+        return next;
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (Chunk chunk = headChunk; chunk != null; chunk = chunk.next) {
+            size += (chunk.tail & ~CLOSED) - chunk.head;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<E> toList() {
+        List<E> messages = new ArrayList<>(size());
+        for (Chunk chunk = headChunk; chunk != null; chunk = chunk.next) {
+            long end = chunk.tail & ~CLOSED;
+            for (long position = chunk.head; position < end; position++) {
+                messages.add((E) chunk.elements[(int) position & chunk.mask]);
+            }
+        }
+        return messages;
+    }
+
+    // 缓存行填充：tail 与 head 前后各留 64 字节
+    abstract static class ChunkPadding0 {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class ChunkTail extends ChunkPadding0 {
+        volatile long tail;
+    }
+
+    abstract static class ChunkPadding1 extends ChunkTail {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    abstract static class ChunkHead extends ChunkPadding1 {
+        volatile long head;
+    }
+
+    abstract static class ChunkPadding2 extends ChunkHead {
+        long p20, p21, p22, p23, p24, p25, p26, p27;
+    }
+
+    static final class Chunk extends ChunkPadding2 {
+        final Object[] elements;
+        // 槽位序号：等于位置时可写入，等于位置 + 1 时可读取
+        final AtomicLongArray sequences;
+        final int mask;
+        volatile Chunk next;
+
+        Chunk(int capacity) {
+            elements = new Object[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+    }
+}
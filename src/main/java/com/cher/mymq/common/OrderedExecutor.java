@@ -0,0 +1,164 @@
+package com.cher.mymq.common;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * 一个连接的命令执行器：命令在共享的执行器（见 {@link CommandExecutor}）上执行，但同一连接的命令按到达顺序逐个执行，
+ * 前一条命令响应后才开始下一条，响应因此与请求顺序一致，客户端可以连续发送多条命令而不必等待响应。
+ * 不同连接各有一个实例，仍并行执行。
+ *
+ * 长轮询 CONSUME 这类异步命令通过 {@link #submit(Consumer)} 提交，在响应时调用 done 再开始下一条，
+ * 等待期间不占用工作线程。
+ *
+ * 客户端连续发送而不读取响应时，等待执行的命令会不断积压，由 {@link #limitBacklog} 在积压过多时暂停读取该连接。
+ */
+public class OrderedExecutor implements Executor {
+    // 默认的积压上限：一个连接等待执行的命令超过这么多条时暂停读取
+    public static final int DEFAULT_MAX_BACKLOG = 1024;
+
+    private final Executor executor;
+    private final Runnable onRejected;
+    // 等待执行的命令数的变化（+1 / -1），用于统计所有连接的积压
+    private final IntConsumer backlogListener;
+    // 等待执行的命令，由 this 保护
+    private final Queue<Task> tasks = new ArrayDeque<>();
+    // 是否有命令正在执行（或已交给线程池）
+    private boolean active;
+    // 积压上限（0 表示不限制）、暂停与恢复读取的回调，以及当前是否已暂停读取，由 this 保护
+    private int maxBacklog;
+    private Runnable pauseReading;
+    private Runnable resumeReading;
+    private boolean readingPaused;
+
+    /**
+     * @param executor   实际执行命令的执行器
+     * @param onRejected 命令被执行器拒绝（队列已满或已关闭）时在该命令的位置上调用，用于响应错误
+     */
+    public OrderedExecutor(Executor executor, Runnable onRejected) {
+        this(executor, onRejected, delta -> { });
+    }
+
+    /**
+     * @param backlogListener 等待执行的命令数每次变化时调用，参数为 +1 或 -1
+     */
+    public OrderedExecutor(Executor executor, Runnable onRejected, IntConsumer backlogListener) {
+        this.executor = executor;
+        this.onRejected = onRejected;
+        this.backlogListener = backlogListener;
+    }
+
+    /**
+     * 限制该连接积压的命令数：等待执行的命令超过 maxBacklog 条时调用 pauseReading 暂停读取该连接，
+     * 降到一半及以下时调用 resumeReading。暂停前已读入的数据仍会解析出命令，积压最多再多出一次读取的量。
+     * 回调在持有本执行器的锁时调用，只应修改连接的读取状态
+     */
+    public synchronized void limitBacklog(int maxBacklog, Runnable pauseReading, Runnable resumeReading) {
+        this.maxBacklog = maxBacklog;
+        this.pauseReading = pauseReading;
+        this.resumeReading = resumeReading;
+    }
+
+    /**
+     * 等待执行的命令数（不含正在执行的命令）
+     */
+    public synchronized int getBacklog() {
+        return tasks.size();
+    }
+
+    /**
+     * 提交一条同步命令，run 返回即视为完成
+     */
+    @Override
+    public void execute(Runnable task) {
+        submit(done -> {
+            try {
+                task.run();
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * 提交一条异步命令：task 收到 done，命令响应后（可以在其他线程上）调用一次 done
+     */
+    public void submit(Consumer<Runnable> task) {
+        submit(task, onRejected);
+    }
+
+    /**
+     * 提交一条异步命令，被拒绝时调用该命令自己的 onRejected（例如响应需要带上请求的关联 ID）
+     */
+    public void submit(Consumer<Runnable> task, Runnable onRejected) {
+        synchronized (this) {
+            tasks.add(new Task(task, onRejected));
+            backlogListener.accept(1);
+            if (maxBacklog > 0 && !readingPaused && tasks.size() > maxBacklog) {
+                readingPaused = true;
+                pauseReading.run();
+            }
+            if (active) {
+                return;
+            }
+            active = true;
+        }
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        while (true) {
+            Task next;
+            synchronized (this) {
+                next = tasks.poll();
+                if (next != null) {
+                    backlogListener.accept(-1);
+                }
+                if (readingPaused && tasks.size() <= maxBacklog / 2) {
+                    readingPaused = false;
+                    resumeReading.run();
+                }
+                if (next == null) {
+                    active = false;
+                    return;
+                }
+            }
+            AtomicBoolean finished = new AtomicBoolean();
+            Runnable done = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    scheduleNext();
+                }
+            };
+            try {
+                executor.execute(() -> {
+                    try {
+                        next.body.accept(done);
+                    } catch (RuntimeException e) {
+                        // 命令抛出异常时不能阻塞该连接的后续命令
+                        System.err.println("[ERROR] 命令执行失败: " + e.getMessage());
+                        done.run();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // 该命令不执行，在它的位置上响应错误，继续下一条
+                next.onRejected.run();
+            }
+        }
+    }
+
+    private static final class Task {
+        final Consumer<Runnable> body;
+        final Runnable onRejected;
+
+        Task(Consumer<Runnable> body, Runnable onRejected) {
+            this.body = body;
+            this.onRejected = onRejected;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.cher.mymq.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 连接上的协议协商，放在 pipeline 的最前面：根据客户端发送的第一个字节选择协议后把自己替换为对应的解码器，
+ * 已收到的其余字节交给新的解码器。
+ *
+ * 第一个字节为 {@link BinaryFrame#MAGIC} 时读取版本号，回复 MAGIC 与服务端版本并改用 {@link BinaryFrameDecoder}，
+ * 版本不支持时回复后关闭连接；否则按文本协议处理（文本命令总以字母开头），依次加入 textDecoders 创建的解码器。
+ */
+public class ProtocolNegotiator extends ByteToMessageDecoder {
+    private final List<Supplier<? extends ChannelHandler>> textDecoders;
+    // 版本不支持、连接正在关闭，丢弃之后收到的字节
+    private boolean rejected;
+
+    /**
+     * @param textDecoders 文本协议依次使用的解码器，每个连接各创建一组
+     */
+    public ProtocolNegotiator(List<Supplier<? extends ChannelHandler>> textDecoders) {
+        this.textDecoders = List.copyOf(textDecoders);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (rejected) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        if (!in.isReadable()) {
+            return;
+        }
+        if (in.getByte(in.readerIndex()) != BinaryFrame.MAGIC) {
+            String name = ctx.name();
+            for (Supplier<? extends ChannelHandler> decoder : textDecoders) {
+                ChannelHandler handler = decoder.get();
+                ctx.pipeline().addAfter(name, null, handler);
+                name = ctx.pipeline().context(handler).name();
+            }
+            ctx.pipeline().remove(this);
+            return;
+        }
+        if (in.readableBytes() < 2) {
+            return;
+        }
+        in.skipBytes(1);
+        byte version = in.readByte();
+        if (version != BinaryFrame.VERSION) {
+            rejected = true;
+            System.out.println("[WARN] 不支持的二进制协议版本 " + version + "，关闭连接: " + ctx.channel().remoteAddress());
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(new byte[]{BinaryFrame.MAGIC, BinaryFrame.VERSION}))
+                    .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        ctx.writeAndFlush(Unpooled.wrappedBuffer(new byte[]{BinaryFrame.MAGIC, BinaryFrame.VERSION}));
+        ctx.pipeline().addAfter(ctx.name(), null, new BinaryFrameDecoder());
+        ctx.pipeline().remove(this);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cher.mymq.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量发布帧：首行 {@code PUBLISHBATCH n}，随后 n 行 {@code queueName message}，可以包含多个队列的消息。
+ *
+ * 连接处理器收到首行后创建本对象，逐行 {@link #add} 直到收齐，再整帧交给服务端一次执行：
+ * 同一队列的消息在一次加锁内全部写入或全部拒绝、一次写入日志，整批只返回一个响应。
+ * 帧中有格式错误的行时仍按条数收齐，整帧拒绝，连接不会与后续命令错位。
+ *
+ * @param <E> 消息的类型（主节点为原始字节，单机服务端为字符串）
+ */
+public final class PublishBatch<E> {
+    public static final String ACTION = "PUBLISHBATCH";
+    // 单帧最多的消息数，防止一个首行让连接无限制地累积
+    public static final int MAX_MESSAGES = Integer.getInteger("mymq.publishBatch.maxMessages", 10000);
+    public static final String INVALID_LINE = "无效的批量消息行，格式为 queueName message";
+
+    private final int expected;
+    private int received;
+    // 按队列分组，保持各队列第一次出现的顺序，队列内保持帧中的顺序
+    private final Map<String, List<E>> messages = new LinkedHashMap<>();
+    // 第一个格式错误，没有时为 null
+    private String error;
+
+    private PublishBatch(int expected) {
+        this.expected = expected;
+    }
+
+    /**
+     * 解析首行的第二部分（消息条数）
+     *
+     * @throws IllegalArgumentException 条数无效或超过 {@link #MAX_MESSAGES}
+     */
+    public static <E> PublishBatch<E> start(String count) {
+        String value = count.trim();
+        int expected;
+        try {
+            expected = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的批量消息数: " + value);
+        }
+        if (expected <= 0 || expected > MAX_MESSAGES) {
+            throw new IllegalArgumentException("批量消息数必须在 1 到 " + MAX_MESSAGES + " 之间: " + value);
+        }
+        return new PublishBatch<>(expected);
+    }
+
+    /**
+     * 命令行是否为批量发布帧的首行
+     */
+    public static boolean isHeader(String line) {
+        return line.regionMatches(true, 0, ACTION, 0, ACTION.length())
+                && (line.length() == ACTION.length() || line.charAt(ACTION.length()) == ' ');
+    }
+
+    /**
+     * 由首行 {@code PUBLISHBATCH n} 开始一帧
+     *
+     * @throws IllegalArgumentException 条数无效
+     */
+    public static PublishBatch<String> fromHeader(String line) {
+        return start(line.substring(ACTION.length()));
+    }
+
+    /**
+     * 加入文本形式的一行 {@code queueName message}（单机服务端）
+     *
+     * @return 帧是否已收齐
+     */
+    public static boolean addLine(PublishBatch<String> batch, String line) {
+        int space = line.indexOf(' ');
+        if (space <= 0) {
+            return batch.reject(INVALID_LINE);
+        }
+        return batch.add(line.substring(0, space), line.substring(space + 1));
+    }
+
+    /**
+     * 加入帧中的一条消息
+     *
+     * @return 帧是否已收齐
+     */
+    public boolean add(String queueName, E message) {
+        messages.computeIfAbsent(queueName, k -> new ArrayList<>()).add(message);
+        return ++received == expected;
+    }
+
+    /**
+     * 帧中的一行格式错误：计入条数，整帧在收齐后拒绝
+     *
+     * @return 帧是否已收齐
+     */
+    public boolean reject(String reason) {
+        if (error == null) {
+            error = reason;
+        }
+        return ++received == expected;
+    }
+
+    /**
+     * 第一个格式错误，帧有效时为 null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * 按队列分组的消息
+     */
+    public Map<String, List<E>> getMessages() {
+        return messages;
+    }
+
+    public int size() {
+        return expected;
+    }
+}
@@ -0,0 +1,27 @@
+package com.cher.mymq.common;
+
+import java.util.List;
+
+/**
+ * 队列内容的存储结构。实现自身保证 offer/poll 的线程安全，服务端只在需要与日志保持顺序时另外加锁。
+ *
+ * 可按队列选择实现，见 {@link QueueBackendConfig}。
+ */
+public interface QueueBackend<E> {
+    /**
+     * 追加一条消息到队尾
+     */
+    boolean offer(E message);
+
+    /**
+     * 取出队首消息，队列为空时返回 null
+     */
+    E poll();
+
+    int size();
+
+    /**
+     * 按顺序复制当前内容（用于快照，调用方保证期间没有并发修改）
+     */
+    List<E> toList();
+}
@@ -0,0 +1,178 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 队列存储结构的并发吞吐量对比：多个生产者和消费者线程同时操作同一个队列。
+ *
+ * 对比三种方式：原有的 QueueHolder（LinkedBlockingQueue，每次 offer/poll 外加队列写锁）、
+ * 不加外层锁的 LinkedBlockingQueue，以及无锁环形队列 MpmcRingQueue。
+ * 另外测量 RING 经过 {@link CompactQueue} 的开销，以及 Master 记录日志的 PUBLISH 在容器锁内 offer、
+ * CONSUME 不加锁 poll 时的吞吐量，即保持日志顺序的容器锁的代价。
+ *
+ * 用法：java com.cher.mymq.common.QueueBackendBenchmark [生产者数] [消费者数] [每轮消息数] [轮数]
+ */
+public class QueueBackendBenchmark {
+    private static final String MESSAGE = "benchmark-message";
+
+    private interface Target {
+        void offer(String message);
+
+        String poll();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        System.out.println("[INFO] 生产者 " + producers + "，消费者 " + consumers + "，每轮消息 " + messages
+                + "，轮数 " + rounds + "（第一轮为预热，不计入结果）");
+
+        String[] names = {"QueueHolder(LINKED+写锁)", "LINKED", "RING", "CompactQueue(RING)", "CompactQueue(RING)+容器锁"};
+        double[] best = new double[names.length];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < names.length; i++) {
+                double opsPerSecond = run(newTarget(i), producers, consumers, messages);
+                if (round > 0) {
+                    best[i] = Math.max(best[i], opsPerSecond);
+                }
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("[INFO] %-24s 最高吞吐量 %,.0f 次操作/秒%n", names[i], best[i]);
+        }
+    }
+
+    private static Target newTarget(int kind) {
+        switch (kind) {
+            case 0: {
+                // 原有实现：存储结构自身的锁之外，每次操作再加一层队列写锁
+                QueueBackend<String> queue = new LinkedQueueBackend<>();
+                ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+                return new Target() {
+                    @Override
+                    public void offer(String message) {
+                        lock.writeLock().lock();
+                        try {
+                            queue.offer(message);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+
+                    @Override
+                    public String poll() {
+                        lock.writeLock().lock();
+                        try {
+                            return queue.poll();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                };
+            }
+            case 1:
+                return wrap(QueueBackendConfig.create(QueueBackendConfig.Type.LINKED));
+            case 2:
+                return wrap(QueueBackendConfig.create(QueueBackendConfig.Type.RING));
+            case 3: {
+                CompactQueue<String> queue = new CompactQueue<>(QueueBackendConfig.Type.RING);
+                return new Target() {
+                    @Override
+                    public void offer(String message) {
+                        queue.offer(message);
+                    }
+
+                    @Override
+                    public String poll() {
+                        return queue.poll();
+                    }
+                };
+            }
+            default: {
+                // 与 Master 记录日志的 PUBLISH 相同：offer 在容器锁内，消费位置按间隔提交时 poll 不加锁
+                CompactQueue<String> queue = new CompactQueue<>(QueueBackendConfig.Type.RING);
+                return new Target() {
+                    @Override
+                    public void offer(String message) {
+                        synchronized (queue) {
+                            queue.offer(message);
+                        }
+                    }
+
+                    @Override
+                    public String poll() {
+                        return queue.poll();
+                    }
+                };
+            }
+        }
+    }
+
+    private static Target wrap(QueueBackend<String> queue) {
+        return new Target() {
+            @Override
+            public void offer(String message) {
+                queue.offer(message);
+            }
+
+            @Override
+            public String poll() {
+                return queue.poll();
+            }
+        };
+    }
+
+    /**
+     * 所有线程同时开始，生产者共写入 messages 条消息，消费者取完为止
+     *
+     * @return offer 与 poll 合计的每秒操作数
+     */
+    private static double run(Target target, int producers, int consumers, int messages) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+        AtomicLong consumed = new AtomicLong();
+        for (int p = 0; p < producers; p++) {
+            int count = messages / producers + (p < messages % producers ? 1 : 0);
+            startThread(() -> {
+                for (int i = 0; i < count; i++) {
+                    target.offer(MESSAGE);
+                }
+            }, start, done);
+        }
+        for (int c = 0; c < consumers; c++) {
+            startThread(() -> {
+                while (consumed.get() < messages) {
+                    if (target.poll() != null) {
+                        consumed.incrementAndGet();
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+            }, start, done);
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return messages * 2 / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    private static void startThread(Runnable body, CountDownLatch start, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
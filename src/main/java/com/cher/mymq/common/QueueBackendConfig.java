@@ -0,0 +1,79 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 队列存储结构的选择：服务端默认实现，以及按队列的覆盖。
+ *
+ * 从系统属性读取：-Dmymq.queue.backend=RING 设置默认实现，
+ * -Dmymq.queue.backend.queue.&lt;队列名&gt;=LINKED 覆盖单个队列。按队列的覆盖在启动时一次读入，
+ * 没有覆盖的队列不在这里占用内存。
+ */
+public class QueueBackendConfig {
+    public static final String PROPERTY = "mymq.queue.backend";
+    public static final String QUEUE_PROPERTY_PREFIX = "mymq.queue.backend.queue.";
+
+    public enum Type {
+        // LinkedBlockingQueue，入队出队各一把锁
+        LINKED,
+        // 无锁环形数组块，见 MpmcRingQueue
+        RING
+    }
+
+    private final Type defaultType;
+    private final ConcurrentHashMap<String, Type> queueTypes = new ConcurrentHashMap<>();
+
+    public QueueBackendConfig(Type defaultType) {
+        this.defaultType = defaultType;
+    }
+
+    public static QueueBackendConfig fromSystemProperties() {
+        QueueBackendConfig config = new QueueBackendConfig(readProperty(PROPERTY, Type.LINKED));
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(QUEUE_PROPERTY_PREFIX)) {
+                config.setQueueType(key.substring(QUEUE_PROPERTY_PREFIX.length()),
+                        readProperty(key, config.defaultType));
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 显式设置某个队列的实现（优先于系统属性）
+     */
+    public void setQueueType(String queueName, Type type) {
+        queueTypes.put(queueName, type);
+    }
+
+    public Type typeOf(String queueName) {
+        return queueTypes.getOrDefault(queueName, defaultType);
+    }
+
+    /**
+     * 为队列创建配置的存储结构
+     */
+    public <E> QueueBackend<E> create(String queueName) {
+        return create(typeOf(queueName));
+    }
+
+    public static <E> QueueBackend<E> create(Type type) {
+        return type == Type.RING ? new MpmcRingQueue<>() : new LinkedQueueBackend<>();
+    }
+
+    public Type getDefaultType() {
+        return defaultType;
+    }
+
+    private static Type readProperty(String key, Type fallback) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Type.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("[WARN] " + key + " 配置无效，使用 " + fallback + ": " + value);
+            return fallback;
+        }
+    }
+}
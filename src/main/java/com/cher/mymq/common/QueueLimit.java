@@ -0,0 +1,108 @@
+package com.cher.mymq.common;
+
+/**
+ * 队列容量上限及队列已满时的处理方式：
+ * <ul>
+ *   <li>REJECT —— 拒绝新消息，返回错误（默认）</li>
+ *   <li>DROP_OLDEST —— 丢弃最旧的消息直到放得下新消息，丢弃视为已消费</li>
+ *   <li>BACKPRESSURE —— 接受消息，但队列达到上限后暂停读取该生产者的后续命令，直到队列有空间</li>
+ * </ul>
+ * 字符串形式为逗号分隔的 {@code maxMessages=10000,maxBytes=67108864,overflow=BACKPRESSURE}，
+ * 键不区分大小写，省略的上限表示不限制。
+ */
+public final class QueueLimit {
+    public enum Overflow {
+        REJECT, DROP_OLDEST, BACKPRESSURE
+    }
+
+    public static final QueueLimit UNLIMITED = new QueueLimit(-1, -1, Overflow.REJECT);
+
+    // 负数表示不限制
+    private final long maxMessages;
+    private final long maxBytes;
+    private final Overflow overflow;
+
+    public QueueLimit(long maxMessages, long maxBytes, Overflow overflow) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflow = overflow;
+    }
+
+    /**
+     * 解析上限字符串
+     *
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static QueueLimit parse(String spec) {
+        long maxMessages = -1;
+        long maxBytes = -1;
+        Overflow overflow = Overflow.REJECT;
+        for (String item : spec.split(",")) {
+            if (item.isBlank()) {
+                continue;
+            }
+            int eq = item.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("无效的队列上限: " + spec);
+            }
+            String key = item.substring(0, eq).trim();
+            String value = item.substring(eq + 1).trim();
+            try {
+                if (key.equalsIgnoreCase("maxMessages")) {
+                    maxMessages = Long.parseLong(value);
+                } else if (key.equalsIgnoreCase("maxBytes")) {
+                    maxBytes = Long.parseLong(value);
+                } else if (key.equalsIgnoreCase("overflow")) {
+                    overflow = Overflow.valueOf(value.toUpperCase());
+                } else {
+                    throw new IllegalArgumentException("未知的队列上限配置项: " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的队列上限: " + item);
+            }
+        }
+        return new QueueLimit(maxMessages, maxBytes, overflow);
+    }
+
+    public boolean isBounded() {
+        return maxMessages >= 0 || maxBytes >= 0;
+    }
+
+    /**
+     * 当前有 messages 条、共 bytes 字节的队列能否再放入 length 字节的消息
+     */
+    public boolean accepts(long messages, long bytes, int length) {
+        return accepts(messages, bytes, 1, length);
+    }
+
+    /**
+     * 当前有 messages 条、共 bytes 字节的队列能否再放入 count 条、共 length 字节的消息（批量发布）
+     */
+    public boolean accepts(long messages, long bytes, int count, long length) {
+        return (maxMessages < 0 || messages + count <= maxMessages) && (maxBytes < 0 || bytes + length <= maxBytes);
+    }
+
+    /**
+     * 队列是否还没有达到上限
+     */
+    public boolean hasSpace(long messages, long bytes) {
+        return (maxMessages < 0 || messages < maxMessages) && (maxBytes < 0 || bytes < maxBytes);
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    @Override
+    public String toString() {
+        return "maxMessages=" + maxMessages + ",maxBytes=" + maxBytes + ",overflow=" + overflow;
+    }
+}
@@ -0,0 +1,61 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 队列容量上限：服务端默认上限，以及按队列的覆盖。
+ *
+ * 从系统属性读取：-Dmymq.queue.limit=maxMessages=10000,overflow=DROP_OLDEST 设置默认上限，
+ * -Dmymq.queue.limit.queue.&lt;队列名&gt;=maxBytes=1048576,overflow=BACKPRESSURE 覆盖单个队列（格式见 {@link QueueLimit}）。
+ * 按队列的覆盖在启动时一次读入。
+ */
+public class QueueLimitConfig {
+    public static final String PROPERTY = "mymq.queue.limit";
+    public static final String QUEUE_PROPERTY_PREFIX = "mymq.queue.limit.queue.";
+
+    private final QueueLimit defaultLimit;
+    private final ConcurrentHashMap<String, QueueLimit> queueLimits = new ConcurrentHashMap<>();
+
+    public QueueLimitConfig(QueueLimit defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    public static QueueLimitConfig fromSystemProperties() {
+        QueueLimitConfig config = new QueueLimitConfig(readProperty(PROPERTY, QueueLimit.UNLIMITED));
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(QUEUE_PROPERTY_PREFIX)) {
+                config.setQueueLimit(key.substring(QUEUE_PROPERTY_PREFIX.length()),
+                        readProperty(key, config.defaultLimit));
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 显式设置某个队列的上限（优先于系统属性）
+     */
+    public void setQueueLimit(String queueName, QueueLimit limit) {
+        queueLimits.put(queueName, limit);
+    }
+
+    public QueueLimit forQueue(String queueName) {
+        return queueLimits.getOrDefault(queueName, defaultLimit);
+    }
+
+    public QueueLimit getDefaultLimit() {
+        return defaultLimit;
+    }
+
+    private static QueueLimit readProperty(String key, QueueLimit fallback) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return QueueLimit.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.out.println("[WARN] " + key + " 配置无效，使用 " + fallback + ": " + e.getMessage());
+            return fallback;
+        }
+    }
+}
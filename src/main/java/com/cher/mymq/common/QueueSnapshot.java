@@ -0,0 +1,188 @@
+package com.cher.mymq.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 队列快照：某一日志位置上所有队列的内容。
+ *
+ * 启动时先加载最新快照，再只重放该位置之后的日志，重启耗时只与存活数据和日志尾部有关。
+ * 文件格式：魔数、版本、日志位置（版本 2 起为位置个数加各分区位置）、队列数，
+ * 每个队列为名称、消费位置（版本 3 起）加消息列表（每条为长度加 UTF-8 字节），末尾附 CRC32 校验和。
+ * 写入时先写临时文件并刷盘，再原子替换，崩溃时旧快照仍然完整。
+ */
+public class QueueSnapshot {
+    private static final int MAGIC = 0x4D514E53; // "MQNS"
+    private static final int VERSION = 3;
+
+    // 快照对应的日志位置，重放从该位置开始（含义由各服务端的日志实现决定：字节偏移或记录序号）；
+    // 日志分区时每个分区一个位置
+    private final long[] logPositions;
+    // 队列名 -> 按顺序排列的消息原始字节
+    private final Map<String, List<byte[]>> queues;
+    // 队列名 -> 已消费的消息数（即快照中第一条消息的序号），没有记录的队列为 0
+    private final Map<String, Long> queueOffsets;
+
+    public QueueSnapshot(long[] logPositions, Map<String, List<byte[]>> queues, Map<String, Long> queueOffsets) {
+        this.logPositions = logPositions;
+        this.queues = queues;
+        this.queueOffsets = queueOffsets;
+    }
+
+    public long getLogPosition() {
+        return logPositions[0];
+    }
+
+    public long[] getLogPositions() {
+        return logPositions;
+    }
+
+    /**
+     * 由字符串消息构造单个日志位置的快照（消息按 UTF-8 编码）
+     */
+    public static QueueSnapshot ofStrings(long logPosition, Map<String, List<String>> contents) {
+        Map<String, List<byte[]>> queues = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : contents.entrySet()) {
+            List<byte[]> messages = new ArrayList<>(entry.getValue().size());
+            for (String message : entry.getValue()) {
+                messages.add(message.getBytes(StandardCharsets.UTF_8));
+            }
+            queues.put(entry.getKey(), messages);
+        }
+        return new QueueSnapshot(new long[]{logPosition}, queues, Collections.emptyMap());
+    }
+
+    public Map<String, List<byte[]>> getQueues() {
+        return queues;
+    }
+
+    public long getQueueOffset(String queueName) {
+        return queueOffsets.getOrDefault(queueName, 0L);
+    }
+
+    public long getMessageCount() {
+        long count = 0;
+        for (List<byte[]> messages : queues.values()) {
+            count += messages.size();
+        }
+        return count;
+    }
+
+    /**
+     * 把快照写入指定文件（临时文件 + 原子替换）
+     */
+    public void writeTo(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        Path tmp = Paths.get(filePath + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(logPositions.length);
+            for (long logPosition : logPositions) {
+                out.writeLong(logPosition);
+            }
+            out.writeInt(queues.size());
+            for (Map.Entry<String, List<byte[]>> entry : queues.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(getQueueOffset(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (byte[] message : entry.getValue()) {
+                    out.writeInt(message.length);
+                    out.write(message);
+                }
+            }
+            out.flush();
+            long checksum = checked.getChecksum().getValue();
+            out.writeLong(checksum);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照文件
+     *
+     * @return 快照；文件不存在时返回 null
+     * @throws IOException 读取失败或校验和不匹配
+     */
+    public static QueueSnapshot readFrom(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (InputStream fileIn = Files.newInputStream(path)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileIn, 64 * 1024), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("快照文件格式错误: " + filePath);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            long[] logPositions = new long[version == 1 ? 1 : in.readInt()];
+            for (int i = 0; i < logPositions.length; i++) {
+                logPositions[i] = in.readLong();
+            }
+            int queueCount = in.readInt();
+            Map<String, List<byte[]>> queues = new LinkedHashMap<>();
+            Map<String, Long> queueOffsets = new HashMap<>();
+            for (int i = 0; i < queueCount; i++) {
+                String name = readString(in);
+                if (version >= 3) {
+                    queueOffsets.put(name, in.readLong());
+                }
+                int messageCount = in.readInt();
+                List<byte[]> messages = new ArrayList<>(messageCount);
+                for (int j = 0; j < messageCount; j++) {
+                    messages.add(readBytes(in));
+                }
+                queues.put(name, messages);
+            }
+            long expected = checked.getChecksum().getValue();
+            long actual = in.readLong();
+            if (expected != actual) {
+                throw new IOException("快照文件校验失败: " + filePath);
+            }
+            return new QueueSnapshot(logPositions, queues, queueOffsets);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,32 @@
+package com.cher.mymq.common;
+
+import java.util.function.Consumer;
+
+/**
+ * 一个连接暂停读取的原因计数：队列已满、命令积压等原因各自暂停和恢复读取，所有原因都恢复后才重新读取。
+ * pause 与 resume 成对调用，可以在任意线程上调用
+ */
+public class ReadPause {
+    private final Consumer<Boolean> setReading;
+    // 尚未恢复的暂停次数，由 this 保护
+    private int pauses;
+
+    /**
+     * @param setReading 开始（true）或停止（false）读取该连接，在持有本对象的锁时调用，不能阻塞
+     */
+    public ReadPause(Consumer<Boolean> setReading) {
+        this.setReading = setReading;
+    }
+
+    public synchronized void pause() {
+        if (pauses++ == 0) {
+            setReading.accept(false);
+        }
+    }
+
+    public synchronized void resume() {
+        if (--pauses == 0) {
+            setReading.accept(true);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.cher.mymq.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 推送式订阅（SUBSCRIBE queueName credits）：服务端在额度内把队列中的消息逐条推送给订阅者，
+ * 每推送一条消耗一个额度，订阅者处理后通过 CREDIT queueName n 补充。
+ *
+ * 队列为空时与长轮询 CONSUME 一样登记在队列上（见 {@link CompactQueue#wakeConsumer()}），
+ * 有新消息时在发布线程上继续推送。连接不可写（出站缓冲超过高水位）时暂停推送，
+ * 连接处理器在恢复可写后调用 {@link #drain()}，慢订阅者不会让出站缓冲无限增长。
+ * 同一订阅在任一时刻只由一个线程推送，消息按出队顺序写出。
+ *
+ * @param <R> 服务端的 CONSUME 响应类型
+ */
+public class Subscription<R> {
+    public static final String SUBSCRIBE = "SUBSCRIBE";
+    public static final String CREDIT = "CREDIT";
+    public static final String UNSUBSCRIBE = "UNSUBSCRIBE";
+    // 推送的消息为一行 DELIVER queueName message，与命令的响应区分
+    public static final String DELIVER_PREFIX = "DELIVER ";
+
+    private final Supplier<R> attempt;
+    private final Predicate<R> isEmpty;
+    private final Predicate<R> isMessage;
+    private final Supplier<? extends CompactQueue<?>> queue;
+    private final Consumer<R> deliver;
+    private final BooleanSupplier writable;
+    private final Runnable flush;
+
+    private final AtomicLong credits = new AtomicLong();
+    // 推送的排他标记兼计数：非 0 时有线程正在推送，其他线程只增加计数，由推送线程再检查一轮
+    private final AtomicInteger wip = new AtomicInteger();
+    // 登记在空队列上等待新消息的等待者，没有时为 null
+    private volatile ConsumeWaiter parked;
+    private volatile boolean closed;
+
+    /**
+     * @param attempt   执行一次普通 CONSUME
+     * @param isEmpty   响应是否表示队列为空
+     * @param isMessage 响应是否为取到的消息（其他响应是错误，推送后结束订阅）
+     * @param queue     取得当前的队列（不存在时返回 null）
+     * @param deliver   写出一条响应（不需要立即刷出）
+     * @param writable  连接当前是否可写
+     * @param flush     一轮推送结束后刷出已写出的响应
+     */
+    public Subscription(Supplier<R> attempt, Predicate<R> isEmpty, Predicate<R> isMessage,
+                        Supplier<? extends CompactQueue<?>> queue, Consumer<R> deliver,
+                        BooleanSupplier writable, Runnable flush) {
+        this.attempt = attempt;
+        this.isEmpty = isEmpty;
+        this.isMessage = isMessage;
+        this.queue = queue;
+        this.deliver = deliver;
+        this.writable = writable;
+        this.flush = flush;
+    }
+
+    /**
+     * 解析 SUBSCRIBE / CREDIT 命令中的额度
+     *
+     * @throws IllegalArgumentException 不是正整数时抛出
+     */
+    public static long parseCredits(String value) {
+        long credits;
+        try {
+            credits = value == null ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            credits = 0;
+        }
+        if (credits <= 0) {
+            throw new IllegalArgumentException("无效的额度: " + value);
+        }
+        return credits;
+    }
+
+    /**
+     * 增加推送额度并立即尝试推送
+     */
+    public void addCredits(long n) {
+        credits.addAndGet(n);
+        drain();
+    }
+
+    public long getCredits() {
+        return credits.get();
+    }
+
+    /**
+     * 在额度内、连接可写时推送队列中的消息；队列为空时登记等待新消息
+     */
+    public void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            deliverAvailable();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void deliverAvailable() {
+        boolean delivered = false;
+        boolean waiting = false;
+        while (!closed && credits.get() > 0 && writable.getAsBoolean()) {
+            ConsumeWaiter current = parked;
+            if (current != null && !current.isFinished()) {
+                // 已在等待新消息
+                waiting = true;
+                break;
+            }
+            R result = attempt.get();
+            if (isEmpty.test(result)) {
+                CompactQueue<?> target = queue.get();
+                if (target == null) {
+                    // 队列刚被删除，重新执行得到错误响应
+                    continue;
+                }
+                ConsumeWaiter waiter = new ConsumeWaiter(this::drain, () -> { });
+                if (target.park(waiter)) {
+                    parked = waiter;
+                    waiting = true;
+                    break;
+                }
+                // 登记前已有新消息或队列已删除，立即重试
+                continue;
+            }
+            deliver.accept(result);
+            delivered = true;
+            if (!isMessage.test(result)) {
+                close();
+                break;
+            }
+            credits.decrementAndGet();
+        }
+        if (delivered) {
+            flush.run();
+        }
+        if (!waiting) {
+            // 额度用完或连接不可写时队列中可能还有消息，交给其他等待者
+            CompactQueue<?> target = queue.get();
+            if (target != null && target.hasMessages()) {
+                target.wakeConsumer();
+            }
+        }
+    }
+
+    /**
+     * 结束订阅（UNSUBSCRIBE、连接关闭或队列删除），撤销在队列上的登记
+     */
+    public void close() {
+        closed = true;
+        ConsumeWaiter waiter = parked;
+        if (waiter != null) {
+            waiter.expire();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,41 @@
+package com.cher.mymq.distributed.master;
+
+import com.cher.mymq.common.LogScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 按 {@link LogRecord} 二进制格式切分记录的日志扫描器，交给回调的是校验通过的记录体（不含记录头）
+ */
+class BinaryLogScanner extends LogScanner {
+
+    BinaryLogScanner(String label, long totalBytes) {
+        super(label, totalBytes);
+    }
+
+    @Override
+    protected int frame(RecordHandler handler, byte[] bytes, int limit, boolean endOfFile) throws IOException {
+        ByteBuffer view = ByteBuffer.wrap(bytes, 0, limit);
+        int start = 0;
+        while (limit - start >= LogRecord.HEADER_SIZE) {
+            int length = view.getInt(start);
+            if (length < LogRecord.BODY_PREFIX_SIZE || length > LogRecord.MAX_BODY_SIZE) {
+                throw new IOException("日志记录长度非法: " + length);
+            }
+            int bodyStart = start + LogRecord.HEADER_SIZE;
+            if (limit - bodyStart < length) {
+                break;
+            }
+            if (LogRecord.checksum(bytes, bodyStart, length) != view.getInt(start + 4)) {
+                throw new IOException("日志记录校验失败");
+            }
+            emit(handler, bytes, bodyStart, bodyStart + length);
+            start = bodyStart + length;
+        }
+        if (endOfFile && start < limit) {
+            throw new IOException("日志末尾存在不完整记录: " + (limit - start) + " 字节");
+        }
+        return start;
+    }
+}
@@ -1,42 +1,42 @@
 package com.cher.mymq.distributed.master;
 
-import io.netty.channel.Channel;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class IndexedLogReader {
-    // 存储每一行的文件偏移量（第0行为起点）
-    private final List<Long> lineOffsets = new ArrayList<>();
-    private final String logFilePath;
+    // 按起始序号排序的只读日志段，每段只加载稀疏索引
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+    private final String logDir;
 
-    public IndexedLogReader(String logFilePath) throws Exception {
-        this.logFilePath = logFilePath;
+    public IndexedLogReader(String logDir) throws Exception {
+        this.logDir = logDir;
         buildIndex();
     }
 
-    // 构建文件索引
+    // 以只读映射方式打开日志目录中的所有段
     private void buildIndex() throws Exception {
-        try (RandomAccessFile file = new RandomAccessFile(logFilePath, "r")) {
-            long offset = 0;
-            String line;
-            lineOffsets.add(offset);
-            while ((line = file.readLine()) != null) {
-                offset = file.getFilePointer();
-                lineOffsets.add(offset);
-            }
+        Path dir = Paths.get(logDir);
+        List<Long> baseOffsets = PersistentLogger.listBaseOffsets(dir);
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            long base = baseOffsets.get(i);
+            long recordCount = i < baseOffsets.size() - 1 ? baseOffsets.get(i + 1) - base : -1;
+            segments.put(base, LogSegment.openSealed(dir, base, recordCount,
+                    PersistentLogger.DEFAULT_INDEX_INTERVAL_BYTES));
         }
     }
 
     // 根据行号读取日志行（行号从0开始）
     public String readLine(int lineNumber) throws Exception {
-        if (lineNumber < 0 || lineNumber >= lineOffsets.size() - 1) {
+        if (lineNumber < 0) {
             return null;
         }
-        try (RandomAccessFile file = new RandomAccessFile(logFilePath, "r")) {
-            file.seek(lineOffsets.get(lineNumber));
-            return file.readLine();
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry((long) lineNumber);
+        if (entry == null) {
+            return null;
         }
+        return entry.getValue().read(lineNumber - entry.getKey());
     }
 }
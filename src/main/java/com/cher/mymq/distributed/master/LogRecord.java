@@ -0,0 +1,145 @@
+package com.cher.mymq.distributed.master;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * 日志记录的二进制格式（版本 {@link #VERSION}）：
+ * <pre>
+ *   int    length     —— 记录体字节数（type 起至 payload 末尾）
+ *   int    crc32c     —— 记录体的 CRC32C
+ *   byte   type       —— PUBLISH / CONSUME / CREATE / DROP / OFFSET
+ *   short  queueLen   —— 队列名字节数
+ *   byte[] queue      —— 队列名（UTF-8）
+ *   byte[] payload    —— PUBLISH 为消息内容，OFFSET 为十进制的消费位置（UTF-8）
+ * </pre>
+ * OFFSET 记录队列已消费的消息数，取代逐条写入的 CONSUME（旧日志中的 CONSUME 仍可重放）。
+ * 长度前缀使消息中可以包含任意字节（包括换行符），CRC 用于识别崩溃时写了一半的记录。
+ * 日志段文件以 {@link #SEGMENT_HEADER_SIZE} 字节的文件头（魔数 + 版本）开始。
+ */
+final class LogRecord {
+    static final int SEGMENT_MAGIC = 0x4D514C47;
+    static final short VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+
+    // 记录头：length + crc
+    static final int HEADER_SIZE = 8;
+    // 记录体中 type + queueLen 的长度
+    static final int BODY_PREFIX_SIZE = 3;
+    // 单条记录体的上限，用于在恢复时识别损坏的长度字段
+    static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    static final byte PUBLISH = 1;
+    static final byte CONSUME = 2;
+    static final byte CREATE = 3;
+    static final byte DROP = 4;
+    static final byte OFFSET = 5;
+
+    private static final String[] ACTIONS = {null, "PUBLISH", "CONSUME", "CREATE", "DROP", "OFFSET"};
+
+    private LogRecord() {
+    }
+
+    /**
+     * 命令名对应的记录类型，未知命令返回 0
+     */
+    static byte typeOf(String action) {
+        for (byte type = 1; type < ACTIONS.length; type++) {
+            if (ACTIONS[type].equalsIgnoreCase(action)) {
+                return type;
+            }
+        }
+        return 0;
+    }
+
+    static String actionOf(byte type) {
+        return type > 0 && type < ACTIONS.length ? ACTIONS[type] : null;
+    }
+
+    /**
+     * 编码一条完整记录（含记录头）
+     *
+     * @param payload 消息内容的原始字节，没有时传 null
+     */
+    static byte[] encode(byte type, String queueName, byte[] payload) {
+        byte[] queue = queueName.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = payload == null ? 0 : payload.length;
+        int bodyLength = BODY_PREFIX_SIZE + queue.length + payloadLength;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buffer.putInt(bodyLength).putInt(0)
+                .put(type).putShort((short) queue.length).put(queue);
+        if (payload != null) {
+            buffer.put(payload);
+        }
+        byte[] record = buffer.array();
+        buffer.putInt(4, checksum(record, HEADER_SIZE, bodyLength));
+        return record;
+    }
+
+    /**
+     * 把文本命令（旧版日志中的一行）编码为记录，无法识别时返回 null
+     */
+    static byte[] fromCommand(String command) {
+        String[] parts = command.trim().split(" ", 3);
+        if (parts.length < 2) {
+            return null;
+        }
+        byte type = typeOf(parts[0]);
+        if (type == 0 || (hasPayload(type) && parts.length < 3)) {
+            return null;
+        }
+        return encode(type, parts[1], hasPayload(type) ? parts[2].getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    static boolean hasPayload(byte type) {
+        return type == PUBLISH || type == OFFSET;
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    static int checksum(ByteBuffer body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    static byte type(byte[] body, int offset) {
+        return body[offset];
+    }
+
+    static int queueLength(byte[] body, int offset) {
+        return ((body[offset + 1] & 0xFF) << 8) | (body[offset + 2] & 0xFF);
+    }
+
+    static String queueName(byte[] body, int offset) {
+        return new String(body, offset + BODY_PREFIX_SIZE, queueLength(body, offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 记录体中消息内容的原始字节（复制一份），没有时返回 null
+     */
+    static byte[] payloadBytes(byte[] body, int offset, int length) {
+        if (!hasPayload(type(body, offset))) {
+            return null;
+        }
+        int start = offset + BODY_PREFIX_SIZE + queueLength(body, offset);
+        return Arrays.copyOfRange(body, start, offset + length);
+    }
+
+    /**
+     * 把记录体还原成文本命令，用于向从节点复制（消息经 {@link MasterReplicaHandler#escapeMessage} 转义）
+     */
+    static String toCommand(byte[] body, int offset, int length) {
+        String action = actionOf(type(body, offset));
+        String queueName = queueName(body, offset);
+        byte[] message = payloadBytes(body, offset, length);
+        return message == null ? action + " " + queueName
+                : action + " " + queueName + " " + new String(MasterReplicaHandler.escapeMessage(message), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,606 @@
+package com.cher.mymq.distributed.master;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 日志段：一个数据文件（.log）加一个稀疏索引文件（.index）。
+ *
+ * 文件名为段内第一条记录的全局序号（20 位补零）。数据文件以文件头开始，之后是 {@link LogRecord} 格式的记录。
+ * 索引项固定 8 字节：段内相对序号(int) + 文件位置(int)，每写入约 indexIntervalBytes 字节记录一项，
+ * 因此按序号定位只需一次二分查找，再按长度前缀跳过少量记录。
+ *
+ * 活跃段由刷盘线程追加写入：预先映射写入位置之后的一段窗口，记录直接复制进映射内存，
+ * 窗口写满时再按较大的步长重新映射，因此小记录的追加只是一次内存复制，不需要系统调用。
+ * 映射会把文件预先扩展到窗口末尾，文件中数据之后是全零的预分配区域（记录长度为 0 即为数据末尾），
+ * 封存或关闭时截掉。索引项先登记在内存中，数据刷盘之后才写入索引文件；
+ * 封存后的段关闭写通道，数据文件和索引文件都以只读方式内存映射。
+ * 封存时另写一个时间文件（.timestamp，内容为封存时间的毫秒数），保留时间从封存时算起，不依赖数据文件的修改时间。
+ */
+public class LogSegment {
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+    static final String TIMESTAMP_SUFFIX = ".timestamp";
+    private static final int INDEX_ENTRY_SIZE = 8;
+    // 默认的追加映射窗口大小
+    static final int DEFAULT_APPEND_WINDOW_BYTES = 16 * 1024 * 1024;
+
+    // 追加映射窗口：从文件位置 start 开始的一段可写映射
+    private static class AppendWindow {
+        final MappedByteBuffer buffer;
+        final long start;
+
+        AppendWindow(MappedByteBuffer buffer, long start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+        long end() {
+            return start + buffer.capacity();
+        }
+    }
+
+    private final long baseOffset;
+    private final Path logPath;
+    private final Path indexPath;
+    private final Path timestampPath;
+    private final int indexIntervalBytes;
+
+    // 活跃段的读写通道，封存后关闭
+    private FileChannel channel;
+    private FileChannel indexChannel;
+    // 活跃段的追加映射窗口及其大小，封存后置空
+    private volatile AppendWindow window;
+    private int windowBytes;
+    // 已写入（不一定可见）和已刷盘的数据末尾位置，只由刷盘线程访问
+    private long writePosition;
+    private long forcedPosition;
+    // 重新映射扩展了文件长度，下次刷盘时需要同时刷新文件元数据
+    private boolean fileExtended;
+    // 封存后的只读映射
+    private volatile MappedByteBuffer sealedLog;
+
+    // 活跃段的索引保存在堆内（段大小有上限，索引也有上限），封存后替换为索引文件的映射
+    private volatile ByteBuffer index;
+    private volatile int indexEntries;
+    private long lastIndexedPosition;
+    // 已写入索引文件的项数
+    private int indexFileEntries;
+
+    // 已提交、对读者可见的记录数和字节数：要求刷盘的批次刷盘后才提交，
+    // ASYNC / SYNC_INTERVAL 的批次写入映射窗口后即提交（可能尚未刷盘）
+    private volatile long recordCount;
+    private volatile long size;
+    // 封存时间（毫秒），活跃段为 -1
+    private volatile long sealedMillis = -1;
+
+    private LogSegment(Path dir, long baseOffset, int indexIntervalBytes) {
+        this.baseOffset = baseOffset;
+        this.logPath = dir.resolve(fileName(baseOffset) + LOG_SUFFIX);
+        this.indexPath = dir.resolve(fileName(baseOffset) + INDEX_SUFFIX);
+        this.timestampPath = dir.resolve(fileName(baseOffset) + TIMESTAMP_SUFFIX);
+        this.indexIntervalBytes = indexIntervalBytes;
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d", baseOffset);
+    }
+
+    /**
+     * 打开（或创建）活跃段：加载索引，校验其中的项，再从最后一个索引项扫描到数据末尾，
+     * 统计记录数并截掉崩溃时写了一半的记录和预分配区域
+     *
+     * @param windowBytes 追加映射窗口的大小
+     */
+    static LogSegment openActive(Path dir, long baseOffset, int indexIntervalBytes, int windowBytes) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOffset, indexIntervalBytes);
+        segment.windowBytes = Math.max(LogRecord.HEADER_SIZE, windowBytes);
+        segment.channel = FileChannel.open(segment.logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.indexChannel = FileChannel.open(segment.indexPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.recoverActive();
+        return segment;
+    }
+
+    /**
+     * 数据文件是否为旧版的文本格式（按行存储的命令）。二进制段以魔数开头，其首字节不会是命令的首字母。
+     */
+    static boolean isTextFormat(Path logPath) throws IOException {
+        try (FileChannel logChannel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            ByteBuffer first = ByteBuffer.allocate(1);
+            return logChannel.read(first, 0) > 0 && first.get(0) != (byte) (LogRecord.SEGMENT_MAGIC >>> 24);
+        }
+    }
+
+    private static void checkHeader(ByteBuffer header, Path logPath) throws IOException {
+        if (header.getInt(0) != LogRecord.SEGMENT_MAGIC) {
+            throw new IOException("日志段文件头非法: " + logPath.getFileName());
+        }
+        if (header.getShort(4) != LogRecord.VERSION) {
+            throw new IOException("不支持的日志段版本 " + header.getShort(4) + ": " + logPath.getFileName());
+        }
+    }
+
+    /**
+     * 以只读映射方式打开已封存的段。从最后一个索引项按长度前缀跳到数据末尾，
+     * 确定段的实际大小（文件可能带有未截掉的预分配区域）
+     *
+     * @param recordCount 段内记录数；传入 -1 时按跳过的记录统计
+     */
+    static LogSegment openSealed(Path dir, long baseOffset, long recordCount, int indexIntervalBytes) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOffset, indexIntervalBytes);
+        long fileSize;
+        try (FileChannel logChannel = FileChannel.open(segment.logPath, StandardOpenOption.READ)) {
+            fileSize = logChannel.size();
+            segment.size = fileSize;
+            segment.sealedLog = logChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        }
+        if (fileSize < LogRecord.SEGMENT_HEADER_SIZE) {
+            throw new IOException("日志段文件过短: " + segment.logPath.getFileName());
+        }
+        checkHeader(segment.sealedLog, segment.logPath);
+        if (Files.exists(segment.indexPath)) {
+            try (FileChannel idxChannel = FileChannel.open(segment.indexPath, StandardOpenOption.READ)) {
+                segment.index = idxChannel.map(FileChannel.MapMode.READ_ONLY, 0, idxChannel.size());
+                segment.indexEntries = segment.countValidEntries(segment.index, (int) (idxChannel.size() / INDEX_ENTRY_SIZE));
+            }
+        } else {
+            segment.index = ByteBuffer.allocate(0);
+        }
+        int last = segment.indexEntries - 1;
+        long rel = segment.relAt(last);
+        long position = segment.positionAt(last);
+        while (fileSize - position >= LogRecord.HEADER_SIZE) {
+            int length = segment.sealedLog.getInt((int) position);
+            if (length < LogRecord.BODY_PREFIX_SIZE || length > fileSize - position - LogRecord.HEADER_SIZE) {
+                break;
+            }
+            position += LogRecord.HEADER_SIZE + length;
+            rel++;
+        }
+        segment.size = position;
+        segment.recordCount = recordCount >= 0 ? recordCount : rel;
+        segment.sealedMillis = segment.readSealTime();
+        return segment;
+    }
+
+    private void recoverActive() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < LogRecord.SEGMENT_HEADER_SIZE) {
+            // 新段（或文件头写了一半的新段）：重新写入文件头
+            ByteBuffer header = ByteBuffer.allocate(LogRecord.SEGMENT_HEADER_SIZE);
+            header.putInt(LogRecord.SEGMENT_MAGIC).putShort(LogRecord.VERSION).putShort((short) 0).flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            indexChannel.truncate(0);
+            fileSize = LogRecord.SEGMENT_HEADER_SIZE;
+        }
+        checkHeader(region(0, LogRecord.SEGMENT_HEADER_SIZE), logPath);
+        this.size = fileSize;
+
+        // 加载索引文件，丢弃超出数据文件范围或不单调的项（索引在数据之后写入，崩溃时可能不完整）
+        int fileEntries = (int) (indexChannel.size() / INDEX_ENTRY_SIZE);
+        ByteBuffer loaded = ByteBuffer.allocate(Math.max(64, fileEntries + 16) * INDEX_ENTRY_SIZE);
+        loaded.limit(fileEntries * INDEX_ENTRY_SIZE);
+        while (loaded.hasRemaining()) {
+            if (indexChannel.read(loaded, loaded.position()) < 0) {
+                break;
+            }
+        }
+        loaded.clear();
+        int valid = countValidEntries(loaded, fileEntries);
+        indexChannel.truncate((long) valid * INDEX_ENTRY_SIZE);
+        this.index = loaded;
+        this.indexEntries = valid;
+        this.indexFileEntries = valid;
+
+        // 索引项只指向已刷盘的记录，因此只需从最后一个索引项开始，
+        // 按长度前缀逐条跳到末尾（通常只有一个索引间隔），遇到长度越界或 CRC 不符即为崩溃时写了一半的尾部
+        long rel = relAt(valid - 1);
+        long pos = positionAt(valid - 1);
+        lastIndexedPosition = pos;
+        ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, pos, fileSize - pos);
+        long validEnd = pos;
+        boolean torn = false;
+        while (tail.remaining() >= LogRecord.HEADER_SIZE) {
+            int recordStart = tail.position();
+            int length = tail.getInt(recordStart);
+            // 长度为 0 是预分配区域，说明已到数据末尾；其他非法值是崩溃时写了一半的记录
+            torn = length != 0;
+            if (length < LogRecord.BODY_PREFIX_SIZE || length > LogRecord.MAX_BODY_SIZE
+                    || length > tail.remaining() - LogRecord.HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer body = tail.slice(recordStart + LogRecord.HEADER_SIZE, length);
+            if (LogRecord.checksum(body) != tail.getInt(recordStart + 4)) {
+                break;
+            }
+            long position = pos + recordStart;
+            if (indexEntries == 0 || position - lastIndexedPosition >= indexIntervalBytes) {
+                appendIndexEntry(rel, position);
+            }
+            rel++;
+            tail.position(recordStart + LogRecord.HEADER_SIZE + length);
+            validEnd = pos + tail.position();
+            torn = false;
+        }
+        if (validEnd < fileSize) {
+            while (!torn && tail.remaining() > 0 && tail.remaining() < LogRecord.HEADER_SIZE) {
+                torn = tail.get() != 0;
+            }
+            if (torn) {
+                System.out.println("[WARN] 日志段 " + logPath.getFileName() + " 尾部存在不完整记录，已截断 "
+                        + (fileSize - validEnd) + " 字节");
+            }
+        }
+        this.recordCount = rel;
+        this.size = validEnd;
+        truncatePreallocated();
+        // 扫描到的尾部可能只在页缓存中（进程崩溃而非掉电），先刷盘再写入补齐的索引项
+        channel.force(true);
+        flushIndex();
+        this.writePosition = validEnd;
+        this.forcedPosition = validEnd;
+    }
+
+    private int countValidEntries(ByteBuffer entries, int count) {
+        int valid = 0;
+        long prevRel = -1;
+        long prevPos = -1;
+        for (int i = 0; i < count; i++) {
+            long rel = entries.getInt(i * INDEX_ENTRY_SIZE);
+            long pos = entries.getInt(i * INDEX_ENTRY_SIZE + 4);
+            if (rel <= prevRel || pos <= prevPos || pos >= size) {
+                break;
+            }
+            prevRel = rel;
+            prevPos = pos;
+            valid++;
+        }
+        return valid;
+    }
+
+    /**
+     * 把一批记录复制到追加映射窗口（不刷盘，对读者不可见）
+     */
+    void write(List<byte[]> records) throws IOException {
+        long position = writePosition;
+        for (byte[] record : records) {
+            AppendWindow current = window;
+            if (current == null || position + record.length > current.end()) {
+                current = remap(position, record.length);
+            }
+            current.buffer.put((int) (position - current.start), record);
+            position += record.length;
+        }
+        writePosition = position;
+    }
+
+    /**
+     * 从 position 开始重新映射一个窗口；旧窗口中尚未刷盘的部分先刷出，之后不再引用它
+     */
+    private AppendWindow remap(long position, int minBytes) throws IOException {
+        forceWindow();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(windowBytes, minBytes));
+        AppendWindow current = new AppendWindow(buffer, position);
+        window = current;
+        fileExtended = true;
+        return current;
+    }
+
+    // 刷出当前窗口中 [forcedPosition, writePosition) 范围内的数据。
+    // MappedByteBuffer.force 把 msync 失败包装成 UncheckedIOException，这里还原为 IOException，交给调用方按写入失败处理
+    private void forceWindow() throws IOException {
+        AppendWindow current = window;
+        if (current == null || writePosition <= forcedPosition) {
+            return;
+        }
+        long from = Math.max(forcedPosition, current.start);
+        if (writePosition > from) {
+            try {
+                current.buffer.force((int) (from - current.start), (int) (writePosition - from));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        forcedPosition = writePosition;
+    }
+
+    /**
+     * 丢弃已写入但未提交的数据（写入或刷盘失败后调用）：写入位置退回已提交的末尾，并把这段数据清零，
+     * 下一批从原位置覆盖写入，索引和记录数与文件保持一致；重启恢复遇到长度为 0 的位置即停止，
+     * 不会把调用方已被告知失败的记录当作有效记录重放
+     */
+    void abort() {
+        long from = size;
+        long to = writePosition;
+        writePosition = from;
+        forcedPosition = Math.min(forcedPosition, from);
+        // 写入中途重新映射过时，新窗口从已提交的末尾之后开始，下次写入需要重新映射
+        AppendWindow current = window;
+        if (current != null && current.start > from) {
+            window = null;
+        }
+        if (to <= from) {
+            return;
+        }
+        try {
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(to - from, 64 * 1024));
+            long position = from;
+            while (position < to) {
+                zeros.clear().limit((int) Math.min(zeros.capacity(), to - position));
+                position += channel.write(zeros, position);
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] 日志段 " + logPath.getFileName() + " 未提交的数据清零失败: " + e.getMessage());
+        }
+    }
+
+    void force() throws IOException {
+        forceWindow();
+        if (fileExtended) {
+            channel.force(true);
+            fileExtended = false;
+        }
+    }
+
+    /**
+     * 数据写入后调用（要求刷盘的批次在刷盘后调用）：在内存中登记稀疏索引项，并让这批记录对读者可见。
+     * 索引项在下一次刷盘后的 {@link #flushIndex} 时才写入索引文件。
+     */
+    void commit(List<byte[]> records) throws IOException {
+        long rel = recordCount;
+        long position = size;
+        for (byte[] record : records) {
+            if (indexEntries == 0 || position - lastIndexedPosition >= indexIntervalBytes) {
+                appendIndexEntry(rel, position);
+            }
+            rel++;
+            position += record.length;
+        }
+        size = position;
+        recordCount = rel;
+    }
+
+    private void appendIndexEntry(long rel, long position) {
+        int entries = indexEntries;
+        ByteBuffer current = index;
+        if ((entries + 1) * INDEX_ENTRY_SIZE > current.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(current.capacity() * 2);
+            for (int i = 0; i < entries * INDEX_ENTRY_SIZE; i++) {
+                grown.put(i, current.get(i));
+            }
+            index = grown;
+            current = grown;
+        }
+        current.putInt(entries * INDEX_ENTRY_SIZE, (int) rel);
+        current.putInt(entries * INDEX_ENTRY_SIZE + 4, (int) position);
+        lastIndexedPosition = position;
+        indexEntries = entries + 1;
+    }
+
+    /**
+     * 数据刷盘后调用：把内存中新登记的索引项写入索引文件，保证索引文件只指向已持久化的记录
+     */
+    void flushIndex() throws IOException {
+        int entries = indexEntries;
+        if (indexFileEntries == entries) {
+            return;
+        }
+        ByteBuffer pending = index.duplicate();
+        pending.limit(entries * INDEX_ENTRY_SIZE).position(indexFileEntries * INDEX_ENTRY_SIZE);
+        long position = (long) indexFileEntries * INDEX_ENTRY_SIZE;
+        while (pending.hasRemaining()) {
+            position += indexChannel.write(pending, position);
+        }
+        indexFileEntries = entries;
+    }
+
+    /**
+     * 封存活跃段：刷盘后改为只读映射，并关闭写通道
+     */
+    void seal() throws IOException {
+        force();
+        flushIndex();
+        indexChannel.force(true);
+        window = null;
+        truncatePreallocated();
+        sealedLog = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) indexEntries * INDEX_ENTRY_SIZE);
+        channel.close();
+        indexChannel.close();
+        channel = null;
+        indexChannel = null;
+        sealedMillis = System.currentTimeMillis();
+        writeSealTime();
+    }
+
+    /**
+     * 读取封存时间。没有时间文件（旧版本封存的段、或封存后写入前退出）时按现在封存处理并补写，
+     * 这类段最多多保留一个保留时间，不会提前删除
+     */
+    private long readSealTime() {
+        try {
+            if (Files.exists(timestampPath)) {
+                return Long.parseLong(new String(Files.readAllBytes(timestampPath), StandardCharsets.US_ASCII).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("[WARN] 日志段 " + logPath.getFileName() + " 的封存时间无法读取: " + e.getMessage());
+        }
+        long now = System.currentTimeMillis();
+        sealedMillis = now;
+        writeSealTime();
+        return now;
+    }
+
+    // 时间文件丢失只会推迟删除，写入失败时不影响封存
+    private void writeSealTime() {
+        try {
+            Files.write(timestampPath, Long.toString(sealedMillis).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            System.out.println("[WARN] 日志段 " + logPath.getFileName() + " 的封存时间写入失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 截掉数据之后的预分配区域。某些平台上文件仍被映射时不允许截断，此时保留该区域，
+     * 重新打开时会按记录长度识别数据末尾
+     */
+    private void truncatePreallocated() {
+        try {
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] 日志段 " + logPath.getFileName() + " 预分配区域截断失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取段内相对序号为 rel 的记录，还原为文本命令
+     */
+    String read(long rel) throws IOException {
+        if (rel < 0 || rel >= recordCount) {
+            return null;
+        }
+        int entry = floorEntry(rel);
+        long end = entry + 1 < indexEntries ? positionAt(entry + 1) : size;
+        ByteBuffer buffer = region(positionAt(entry), end);
+        for (long i = relAt(entry); i < rel; i++) {
+            skipRecord(buffer);
+        }
+        int length = buffer.getInt();
+        buffer.getInt();
+        byte[] body = new byte[length];
+        buffer.get(body);
+        return LogRecord.toCommand(body, 0, length);
+    }
+
+    /**
+     * 段内相对序号为 rel 的记录在文件中的起始位置；rel 不小于记录数时返回段末尾
+     */
+    long positionOf(long rel) throws IOException {
+        if (rel <= 0) {
+            return LogRecord.SEGMENT_HEADER_SIZE;
+        }
+        if (rel >= recordCount) {
+            return size;
+        }
+        int entry = floorEntry(rel);
+        long start = positionAt(entry);
+        long end = entry + 1 < indexEntries ? positionAt(entry + 1) : size;
+        ByteBuffer buffer = region(start, end);
+        for (long i = relAt(entry); i < rel; i++) {
+            skipRecord(buffer);
+        }
+        return start + buffer.position();
+    }
+
+    // 二分查找不大于 rel 的最后一个索引项，没有索引项时返回 -1
+    private int floorEntry(long rel) {
+        int low = -1;
+        int high = indexEntries - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (relAt(mid) <= rel) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // 按长度前缀跳过缓冲区当前位置的一条记录
+    private static void skipRecord(ByteBuffer buffer) {
+        int length = buffer.getInt(buffer.position());
+        buffer.position(buffer.position() + LogRecord.HEADER_SIZE + length);
+    }
+
+    private ByteBuffer region(long start, long end) throws IOException {
+        MappedByteBuffer mapped = sealedLog;
+        if (mapped != null) {
+            return mapped.slice((int) start, (int) (end - start));
+        }
+        AppendWindow current = window;
+        if (current != null && start >= current.start && end <= current.end()) {
+            // 已提交的记录在当前窗口内，直接读映射内存
+            return current.buffer.slice((int) (start - current.start), (int) (end - start));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // entry 为 -1 时表示段的开头
+    private long relAt(int entry) {
+        return entry < 0 ? 0 : index.getInt(entry * INDEX_ENTRY_SIZE);
+    }
+
+    private long positionAt(int entry) {
+        return entry < 0 ? LogRecord.SEGMENT_HEADER_SIZE : index.getInt(entry * INDEX_ENTRY_SIZE + 4);
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            force();
+            window = null;
+            truncatePreallocated();
+            channel.close();
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * 关闭并删除数据文件、索引文件和时间文件（保留策略清理封存段时使用）
+     */
+    void delete() throws IOException {
+        close();
+        sealedLog = null;
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+        Files.deleteIfExists(timestampPath);
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * 封存时间（毫秒），活跃段返回 -1
+     */
+    long getSealedMillis() {
+        return sealedMillis;
+    }
+
+    Path getLogPath() {
+        return logPath;
+    }
+}
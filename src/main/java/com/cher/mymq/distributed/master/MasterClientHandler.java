@@ -1,20 +1,68 @@
 package com.cher.mymq.distributed.master;
 
+import com.cher.mymq.common.BinaryFrame;
+import com.cher.mymq.common.CommandExecutor;
+import com.cher.mymq.common.CommandParser;
+import com.cher.mymq.common.OrderedExecutor;
+import com.cher.mymq.common.PublishBatch;
+import com.cher.mymq.common.ReadPause;
+import com.cher.mymq.common.Subscription;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 处理客户端命令。每行命令以原始字节接收，只把命令名和队列名解码为字符串，
+ * 消息内容直接以字节数组交给业务逻辑，CONSUME / CONSUMEBATCH 取到的消息也按原始字节写回。
+ * 批量发布帧（见 {@link PublishBatch}）在 I/O 线程上逐行收齐后作为一个任务执行。
+ * 协商为二进制协议的连接收到 {@link BinaryFrame}，按同样的流程执行，响应带回请求的关联 ID。
+ * 同一连接的命令经 {@link OrderedExecutor} 按到达顺序执行，响应顺序与请求一致。
+ * 订阅（见 {@link Subscription}）按连接记录，连接不可写时暂停推送，恢复可写后继续。
+ */
+public class MasterClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
+    private static final byte[] MESSAGE_PREFIX =
+            MessageQueueBusinessLogic.Result.MESSAGE_PREFIX.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEWLINE = {'\n'};
+    private static final byte[] DELIVER_PREFIX = Subscription.DELIVER_PREFIX.getBytes(StandardCharsets.UTF_8);
 
-public class MasterClientHandler extends SimpleChannelInboundHandler<String> {
     private final MessageQueueBusinessLogic businessLogic;
-    // 工作线程池，防止业务处理阻塞 I/O 线程
-    private final ExecutorService workerPool = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors()
-    );
+    // 所有连接共享的命令执行方式，防止业务处理阻塞 I/O 线程
+    private final CommandExecutor commandExecutor;
+    // 拆分命令行的解析器，只在 I/O 线程上使用
+    private final CommandParser parser = new CommandParser();
+    // 该连接提交任务的执行器，以及按到达顺序逐个执行命令的执行器（响应顺序与请求一致，客户端可以流水线发送），
+    // 在处理器加入 pipeline 时创建
+    private Executor workers;
+    private OrderedExecutor commands;
+    // 该连接的读取暂停（命令积压、队列已满等原因），全部恢复后才继续读取
+    private ReadPause readPause;
+
+    // 正在接收的批量发布帧（每个连接一个处理器实例，只在 I/O 线程上访问），没有时为 null
+    private PublishBatch<byte[]> publishBatch;
+    // 该连接上的推送式订阅，按队列名索引
+    private final Map<String, Subscription<MessageQueueBusinessLogic.Result>> subscriptions = new ConcurrentHashMap<>();
 
-    public MasterClientHandler(MessageQueueBusinessLogic businessLogic) {
+    public MasterClientHandler(MessageQueueBusinessLogic businessLogic, CommandExecutor commandExecutor) {
         this.businessLogic = businessLogic;
+        this.commandExecutor = commandExecutor;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        workers = commandExecutor.forConnection(ctx.executor());
+        readPause = new ReadPause(reading -> ctx.channel().config().setAutoRead(reading));
+        commands = commandExecutor.newOrderedExecutor(ctx.executor(),
+                () -> ctx.writeAndFlush(CommandExecutor.BUSY + "\n"), readPause::pause, readPause::resume);
     }
 
     @Override
@@ -23,13 +71,272 @@ public class MasterClientHandler extends SimpleChannelInboundHandler<String> {
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        final String command = msg.trim();
-        // 异步处理客户端命令
-        workerPool.submit(() -> {
-            String response = businessLogic.applyCommand(command, true);
-            ctx.writeAndFlush(response + "\n");
-        });
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        subscriptions.values().forEach(Subscription::close);
+        subscriptions.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && !subscriptions.isEmpty()) {
+            // 出站缓冲已降到低水位以下，恢复推送；出队可能等待刷盘，不在 I/O 线程上执行
+            try {
+                workers.execute(() -> subscriptions.values().forEach(Subscription::drain));
+            } catch (RejectedExecutionException e) {
+                // 命令队列已满，下一次补充额度或恢复可写时再推送
+                System.out.println("[WARN] 恢复订阅推送被拒绝: " + e.getMessage());
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        // msg 在本方法返回后释放，提交到线程池之前先拆出命令各部分
+        int start = msg.readerIndex();
+        int end = msg.writerIndex();
+        // 与 String.trim() 一致，去掉两端的空白和控制字符（包括 \r）
+        while (start < end && (msg.getByte(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (msg.getByte(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        if (publishBatch != null) {
+            addToBatch(ctx, msg, start, end);
+            return;
+        }
+        if (!parser.parse(msg, start, end)) {
+            // 错误响应也排在之前命令的响应之后
+            commands.execute(() -> ctx.writeAndFlush("ERROR: 无效命令格式\n"));
+            return;
+        }
+        CommandParser.Action action = parser.action();
+        if (action == CommandParser.Action.PUBLISHBATCH) {
+            // PUBLISHBATCH n：之后的 n 行是批量发布的消息
+            int countStart = start + PublishBatch.ACTION.length() + 1;
+            try {
+                publishBatch = PublishBatch.start(msg.toString(countStart, end - countStart, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                commands.execute(() -> ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n"));
+            }
+            return;
+        }
+        // 命令名不创建字符串，队列名取自名称缓存，只有消息内容复制为字节数组
+        dispatch(ctx, action, parser.queueName(), parser.payloadBytes(), result -> respond(ctx, result), true);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof BinaryFrame) {
+            // 协商为二进制协议的连接（见 ProtocolNegotiator），帧已由 BinaryFrameDecoder 拆好
+            BinaryFrame frame = (BinaryFrame) msg;
+            int correlationId = frame.getCorrelationId();
+            CommandParser.Action action = frame.getAction();
+            String error = null;
+            if (action == null) {
+                error = "ERROR: 未知的操作码 " + frame.getOpcode();
+            } else if (!frame.hasValidQueueName()) {
+                error = "ERROR: 无效的队列名";
+            }
+            if (error != null) {
+                String response = error;
+                commands.execute(() -> ctx.writeAndFlush(BinaryFrame.response(correlationId, response)));
+                return;
+            }
+            dispatch(ctx, action, frame.getQueueName(), frame.getPayload(),
+                    result -> respondBinary(ctx, correlationId, result), false);
+            return;
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * 异步处理客户端命令，同一连接的命令按顺序执行
+     *
+     * @param reply         写出该命令的响应
+     * @param subscriptions 是否处理订阅相关命令（推送只支持文本协议）
+     */
+    private void dispatch(ChannelHandlerContext ctx, CommandParser.Action action, String queueName, byte[] payload,
+                          Consumer<MessageQueueBusinessLogic.Result> reply, boolean subscriptions) {
+        commands.submit(done -> {
+            if (payload != null && action == CommandParser.Action.CONSUME) {
+                // CONSUME queueName timeoutMs：长轮询，队列为空时登记后立即返回，不占用工作线程；
+                // 响应后才执行该连接的下一条命令
+                long timeoutMillis;
+                try {
+                    timeoutMillis = Long.parseLong(new String(payload, StandardCharsets.US_ASCII).trim());
+                } catch (NumberFormatException e) {
+                    reply.accept(MessageQueueBusinessLogic.Result.of("ERROR: 无效的等待时间"));
+                    done.run();
+                    return;
+                }
+                businessLogic.consume(queueName, timeoutMillis, result -> {
+                    reply.accept(result);
+                    done.run();
+                });
+                return;
+            }
+            try {
+                if (subscriptions && handleSubscription(ctx, action, queueName, payload)) {
+                    return;
+                }
+                MessageQueueBusinessLogic.Result result = businessLogic.execute(action, queueName, payload, true);
+                if (result.isQueueFull()) {
+                    // 队列已达到上限：暂停读取该生产者的后续命令，队列有空间后恢复
+                    readPause.pause();
+                    businessLogic.whenSpaceAvailable(queueName, readPause::resume);
+                }
+                reply.accept(result);
+            } finally {
+                done.run();
+            }
+        }, () -> reply.accept(MessageQueueBusinessLogic.Result.of(CommandExecutor.BUSY)));
+    }
+
+    /**
+     * 订阅相关命令：
+     *   SUBSCRIBE queueName credits —— 订阅队列，服务端在额度内推送 DELIVER queueName message
+     *   CREDIT queueName n —— 补充额度，成功时不响应
+     *   UNSUBSCRIBE queueName —— 取消订阅
+     *
+     * @return 不是订阅相关命令时返回 false
+     */
+    private boolean handleSubscription(ChannelHandlerContext ctx, CommandParser.Action action, String queueName,
+                                       byte[] payload) {
+        switch (action) {
+            case SUBSCRIBE: {
+                long credits;
+                try {
+                    credits = Subscription.parseCredits(payload == null ? null : new String(payload, StandardCharsets.US_ASCII));
+                } catch (IllegalArgumentException e) {
+                    ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n");
+                    return true;
+                }
+                Subscription<MessageQueueBusinessLogic.Result> existing = subscriptions.get(queueName);
+                if (existing != null && !existing.isClosed()) {
+                    ctx.writeAndFlush("ERROR: 已订阅该队列\n");
+                    return true;
+                }
+                Subscription<MessageQueueBusinessLogic.Result> subscription = businessLogic.subscribe(queueName,
+                        result -> deliver(ctx, queueName, result), () -> ctx.channel().isWritable(), ctx::flush);
+                if (subscription == null) {
+                    ctx.writeAndFlush("ERROR: 队列不存在\n");
+                    return true;
+                }
+                subscriptions.put(queueName, subscription);
+                ctx.writeAndFlush("OK: 已订阅 " + queueName + "\n");
+                subscription.addCredits(credits);
+                return true;
+            }
+            case CREDIT: {
+                Subscription<MessageQueueBusinessLogic.Result> subscription = subscriptions.get(queueName);
+                if (subscription == null || subscription.isClosed()) {
+                    ctx.writeAndFlush("ERROR: 未订阅该队列\n");
+                    return true;
+                }
+                try {
+                    subscription.addCredits(Subscription.parseCredits(
+                            payload == null ? null : new String(payload, StandardCharsets.US_ASCII)));
+                } catch (IllegalArgumentException e) {
+                    ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n");
+                }
+                return true;
+            }
+            case UNSUBSCRIBE: {
+                Subscription<MessageQueueBusinessLogic.Result> subscription = subscriptions.remove(queueName);
+                if (subscription == null) {
+                    ctx.writeAndFlush("ERROR: 未订阅该队列\n");
+                    return true;
+                }
+                subscription.close();
+                ctx.writeAndFlush("OK: 已取消订阅 " + queueName + "\n");
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // 推送一条消息（按行转义），刷出由订阅在一轮推送结束后统一进行；队列被删除时推送错误并结束订阅
+    private static void deliver(ChannelHandlerContext ctx, String queueName, MessageQueueBusinessLogic.Result result) {
+        if (result.getMessage() != null) {
+            ctx.write(Unpooled.wrappedBuffer(DELIVER_PREFIX, (queueName + " ").getBytes(StandardCharsets.UTF_8),
+                    MasterReplicaHandler.escapeMessage(result.getMessage()), NEWLINE));
+        } else {
+            ctx.write("ERROR: 订阅的队列 " + queueName + " 已不存在\n");
+        }
+    }
+
+    /**
+     * 批量发布帧中的一行 queueName message，收齐后整帧提交给工作线程池
+     */
+    private void addToBatch(ChannelHandlerContext ctx, ByteBuf msg, int start, int end) {
+        int queueEnd = msg.indexOf(start, end, (byte) ' ');
+        boolean complete;
+        if (queueEnd < 0) {
+            complete = publishBatch.reject(PublishBatch.INVALID_LINE);
+        } else {
+            byte[] payload = new byte[end - queueEnd - 1];
+            msg.getBytes(queueEnd + 1, payload);
+            complete = publishBatch.add(msg.toString(start, queueEnd - start, StandardCharsets.UTF_8), payload);
+        }
+        if (complete) {
+            PublishBatch<byte[]> batch = publishBatch;
+            publishBatch = null;
+            commands.execute(() -> publishBatch(ctx, batch));
+        }
+    }
+
+    private void publishBatch(ChannelHandlerContext ctx, PublishBatch<byte[]> batch) {
+        MessageQueueBusinessLogic.Result result = businessLogic.publishBatch(batch);
+        if (result.isQueueFull()) {
+            // 批次中的队列达到上限：暂停读取，批次涉及的队列都有空间后恢复
+            readPause.pause();
+            AtomicInteger waiting = new AtomicInteger(batch.getMessages().size());
+            for (String queueName : batch.getMessages().keySet()) {
+                businessLogic.whenSpaceAvailable(queueName, () -> {
+                    if (waiting.decrementAndGet() == 0) {
+                        readPause.resume();
+                    }
+                });
+            }
+        }
+        respond(ctx, result);
+    }
+
+    /**
+     * 文本协议的响应。消息可能来自二进制协议（可以包含换行符和任意字节），
+     * 按 {@link MasterReplicaHandler#escapeMessage} 转义后写成一行（反斜杠同样转义，客户端按同一规则还原）
+     */
+    private static void respond(ChannelHandlerContext ctx, MessageQueueBusinessLogic.Result result) {
+        List<byte[]> messages = result.getMessages();
+        if (messages != null) {
+            // CONSUMEBATCH：首行 MESSAGES: n，随后每条消息一行，整帧一次写出
+            byte[][] frame = new byte[messages.size() * 2 + 2][];
+            frame[0] = result.getStatus().getBytes(StandardCharsets.UTF_8);
+            frame[1] = NEWLINE;
+            for (int i = 0; i < messages.size(); i++) {
+                frame[i * 2 + 2] = MasterReplicaHandler.escapeMessage(messages.get(i));
+                frame[i * 2 + 3] = NEWLINE;
+            }
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(frame));
+        } else if (result.getMessage() != null) {
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(MESSAGE_PREFIX, MasterReplicaHandler.escapeMessage(result.getMessage()), NEWLINE));
+        } else {
+            ctx.writeAndFlush(result.getStatus() + "\n");
+        }
+    }
+
+    private static void respondBinary(ChannelHandlerContext ctx, int correlationId, MessageQueueBusinessLogic.Result result) {
+        if (result.getMessages() != null) {
+            ctx.writeAndFlush(BinaryFrame.messages(correlationId, result.getMessages()));
+        } else if (result.getMessage() != null) {
+            ctx.writeAndFlush(BinaryFrame.message(correlationId, result.getMessage()));
+        } else {
+            ctx.writeAndFlush(BinaryFrame.response(correlationId, result.getStatus()));
+        }
     }
 
     @Override
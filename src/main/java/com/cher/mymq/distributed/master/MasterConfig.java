@@ -0,0 +1,172 @@
+package com.cher.mymq.distributed.master;
+
+import com.cher.mymq.common.DurabilityConfig;
+import com.cher.mymq.common.DurabilityPolicy;
+import com.cher.mymq.common.QueueBackendConfig;
+import com.cher.mymq.common.QueueLimit;
+import com.cher.mymq.common.QueueLimitConfig;
+
+/**
+ * 主节点（以及复用同一业务逻辑的从节点）的配置项，默认值可以通过 -Dmymq.* 系统属性覆盖
+ */
+public class MasterConfig {
+    // 分段日志目录
+    private final String logDir;
+    // 日志组提交：单批最多记录数、凑批最长等待时间（微秒）
+    private int groupCommitMaxBatchSize = PersistentLogger.DEFAULT_MAX_BATCH_SIZE;
+    private long groupCommitMaxLingerMicros = PersistentLogger.DEFAULT_MAX_LINGER_MICROS;
+    // 单个日志段的大小上限（字节）
+    private long segmentBytes = PersistentLogger.DEFAULT_SEGMENT_BYTES;
+    // 日志分区数，队列按名称哈希分到各分区，各分区独立写入和刷盘
+    private int logPartitions = 1;
+    // 消费位置写入日志的间隔（毫秒），0 表示每次消费都立即写入
+    private long offsetCommitIntervalMillis = 1000;
+    // 日志保留策略：每个分区的大小上限（字节）、段封存后的保留时间（毫秒），负数表示不限制，默认都不删除；
+    // 只有已被快照覆盖、其中的消息都已消费、且所有在线从节点都已确认的段才会被删除
+    private long retentionBytes = -1;
+    private long retentionMillis = -1;
+    private long retentionCheckIntervalSeconds = 60;
+    // 快照间隔（秒）
+    private long snapshotIntervalSeconds = 60;
+    // 启动重放的并行线程数，1 表示按原有方式串行重放
+    private int replayThreads = Runtime.getRuntime().availableProcessors();
+    // 持久化策略：默认策略及按队列的覆盖
+    private DurabilityConfig durability = new DurabilityConfig(DurabilityPolicy.SYNC_EACH);
+    // 队列存储结构：默认实现及按队列的覆盖
+    private QueueBackendConfig queueBackends = new QueueBackendConfig(QueueBackendConfig.Type.LINKED);
+    // 队列容量上限及已满时的处理方式：默认上限及按队列的覆盖
+    private QueueLimitConfig queueLimits = new QueueLimitConfig(QueueLimit.UNLIMITED);
+
+    public MasterConfig(String logDir) {
+        this.logDir = logDir;
+    }
+
+    /**
+     * 以默认值为基础，读取 -Dmymq.* 系统属性覆盖对应配置
+     */
+    public static MasterConfig fromSystemProperties(String logDir) {
+        MasterConfig config = new MasterConfig(logDir);
+        config.groupCommitMaxBatchSize = Integer.getInteger("mymq.groupCommit.maxBatchSize", config.groupCommitMaxBatchSize);
+        config.groupCommitMaxLingerMicros = Long.getLong("mymq.groupCommit.maxLingerMicros", config.groupCommitMaxLingerMicros);
+        config.segmentBytes = Long.getLong("mymq.log.segmentBytes", config.segmentBytes);
+        config.logPartitions = Integer.getInteger("mymq.log.partitions", config.logPartitions);
+        config.offsetCommitIntervalMillis = Long.getLong("mymq.offset.commitIntervalMillis", config.offsetCommitIntervalMillis);
+        config.retentionBytes = Long.getLong("mymq.retention.bytes", config.retentionBytes);
+        config.retentionMillis = Long.getLong("mymq.retention.ms", config.retentionMillis);
+        config.retentionCheckIntervalSeconds = Long.getLong("mymq.retention.checkIntervalSeconds", config.retentionCheckIntervalSeconds);
+        config.snapshotIntervalSeconds = Long.getLong("mymq.snapshot.intervalSeconds", config.snapshotIntervalSeconds);
+        config.replayThreads = Integer.getInteger("mymq.replay.threads", config.replayThreads);
+        config.durability = DurabilityConfig.fromSystemProperties();
+        config.queueBackends = QueueBackendConfig.fromSystemProperties();
+        config.queueLimits = QueueLimitConfig.fromSystemProperties();
+        return config;
+    }
+
+    public String getLogDir() {
+        return logDir;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public long getGroupCommitMaxLingerMicros() {
+        return groupCommitMaxLingerMicros;
+    }
+
+    public void setGroupCommitMaxLingerMicros(long groupCommitMaxLingerMicros) {
+        this.groupCommitMaxLingerMicros = groupCommitMaxLingerMicros;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    public int getLogPartitions() {
+        return logPartitions;
+    }
+
+    public void setLogPartitions(int logPartitions) {
+        this.logPartitions = logPartitions;
+    }
+
+    public long getOffsetCommitIntervalMillis() {
+        return offsetCommitIntervalMillis;
+    }
+
+    public void setOffsetCommitIntervalMillis(long offsetCommitIntervalMillis) {
+        this.offsetCommitIntervalMillis = offsetCommitIntervalMillis;
+    }
+
+    public long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    public void setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    public void setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    public long getRetentionCheckIntervalSeconds() {
+        return retentionCheckIntervalSeconds;
+    }
+
+    public void setRetentionCheckIntervalSeconds(long retentionCheckIntervalSeconds) {
+        this.retentionCheckIntervalSeconds = retentionCheckIntervalSeconds;
+    }
+
+    public long getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public void setSnapshotIntervalSeconds(long snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    public int getReplayThreads() {
+        return replayThreads;
+    }
+
+    public void setReplayThreads(int replayThreads) {
+        this.replayThreads = replayThreads;
+    }
+
+    public DurabilityConfig getDurability() {
+        return durability;
+    }
+
+    public void setDurability(DurabilityConfig durability) {
+        this.durability = durability;
+    }
+
+    public QueueBackendConfig getQueueBackends() {
+        return queueBackends;
+    }
+
+    public void setQueueBackends(QueueBackendConfig queueBackends) {
+        this.queueBackends = queueBackends;
+    }
+
+    public QueueLimitConfig getQueueLimits() {
+        return queueLimits;
+    }
+
+    public void setQueueLimits(QueueLimitConfig queueLimits) {
+        this.queueLimits = queueLimits;
+    }
+}
@@ -1,22 +1,160 @@
 package com.cher.mymq.distributed.master;
 
+import com.cher.mymq.common.BinaryFrame;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 public class MasterReplicaHandler extends SimpleChannelInboundHandler<String> {
+    // 复制行的最大字节数：二进制协议的消息可以达到帧上限，转义后最多变为 4 倍（\xHH）
+    public static final int MAX_LINE_LENGTH = (int) Math.min(Integer.MAX_VALUE, BinaryFrame.MAX_FRAME_LENGTH * 4L + 1024);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 按行传输的消息（复制行、文本协议的 CONSUME / CONSUMEBATCH / DELIVER）的转义：反斜杠、换行、回车分别写为 \\、\n、\r，
+     * 不是合法 UTF-8 的字节写为 \xHH。二进制协议发布的消息可以包含任意字节，转义后仍是一行合法的 UTF-8 文本
+     *
+     * @return 不需要转义时返回原数组
+     */
+    public static byte[] escapeMessage(byte[] message) {
+        int i = 0;
+        while (i < message.length) {
+            int valid = validUtf8Length(message, i);
+            if (valid == 0 || (valid == 1 && needsEscape(message[i]))) {
+                break;
+            }
+            i += valid;
+        }
+        if (i == message.length) {
+            return message;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(message.length + 16);
+        out.write(message, 0, i);
+        while (i < message.length) {
+            int valid = validUtf8Length(message, i);
+            if (valid == 0) {
+                out.write('\\');
+                out.write('x');
+                out.write(HEX[(message[i] >> 4) & 0xF]);
+                out.write(HEX[message[i] & 0xF]);
+                i++;
+            } else if (valid == 1 && needsEscape(message[i])) {
+                out.write('\\');
+                out.write(message[i] == '\\' ? '\\' : message[i] == '\n' ? 'n' : 'r');
+                i++;
+            } else {
+                out.write(message, i, valid);
+                i += valid;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 还原 {@link #escapeMessage} 转义的消息
+     */
+    public static byte[] unescapeMessage(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (message.indexOf('\\') < 0) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b != '\\' || i + 1 == bytes.length) {
+                out.write(b);
+                continue;
+            }
+            byte next = bytes[++i];
+            if (next == 'x' && i + 2 < bytes.length) {
+                out.write(Character.digit(bytes[i + 1], 16) << 4 | Character.digit(bytes[i + 2], 16));
+                i += 2;
+            } else {
+                out.write(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean needsEscape(byte b) {
+        return b == '\\' || b == '\n' || b == '\r';
+    }
+
+    // 从 i 开始的一个合法 UTF-8 字符的字节数，不合法时返回 0
+    private static int validUtf8Length(byte[] bytes, int i) {
+        int lead = bytes[i] & 0xFF;
+        if (lead < 0x80) {
+            return 1;
+        }
+        int length;
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            // 排除超长编码和代理区
+            if (lead == 0xE0) {
+                min = 0xA0;
+            } else if (lead == 0xED) {
+                max = 0x9F;
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                min = 0x90;
+            } else if (lead == 0xF4) {
+                max = 0x8F;
+            }
+        } else {
+            return 0;
+        }
+        if (i + length > bytes.length) {
+            return 0;
+        }
+        int second = bytes[i + 1] & 0xFF;
+        if (second < min || second > max) {
+            return 0;
+        }
+        for (int k = 2; k < length; k++) {
+            if ((bytes[i + k] & 0xC0) != 0x80) {
+                return 0;
+            }
+        }
+        return length;
+    }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         // 当从节点连接时，将该 Channel 加入全局 ChannelGroup
-        MasterServer.getReplicaChannels().putIfAbsent(ctx.channel(), 1);
+        MasterServer.getReplicaChannels().putIfAbsent(ctx.channel(), MasterServer.newReplicaState());
         System.out.println("[Master] 从节点连接建立: " + ctx.channel().remoteAddress());
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 断开的从节点不再阻止日志段删除
+        MasterServer.getReplicaChannels().remove(ctx.channel());
+        System.out.println("[Master] 从节点连接断开: " + ctx.channel().remoteAddress());
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        // 主节点不需要处理从节点发来的数据（通常仅用于心跳等用途），所以可直接忽略
+        // 从节点回复 "ACK 分区 序号"，表示该分区中序号不大于它的记录都已应用
+        String[] parts = msg.trim().split(" ");
+        if (parts.length == 3 && "ACK".equals(parts[0])) {
+            MasterServer.ReplicaState replica = MasterServer.getReplicaChannels().get(ctx.channel());
+            if (replica != null) {
+                try {
+                    replica.acknowledge(Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    System.out.println("[WARN] 无效的从节点确认: " + msg);
+                }
+            }
+        }
     }
 
     @Override
@@ -1,5 +1,9 @@
 package com.cher.mymq.distributed.master;
 
+import com.cher.mymq.common.BinaryFrameEncoder;
+import com.cher.mymq.common.CommandExecutor;
+import com.cher.mymq.common.ProtocolNegotiator;
+import com.cher.mymq.common.QueueSnapshot;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.group.ChannelGroup;
@@ -14,25 +18,68 @@ import io.netty.util.CharsetUtil;
 import io.netty.util.concurrent.GlobalEventExecutor;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class MasterServer {
     private static final int CLIENT_PORT = 9999;
     private static final int REPLICA_PORT = 8888;
-    private static final String LOG_FILE_PATH = "messagequeue_01.log";
-    // 全局 ChannelGroup 保存所有从节点连接
-    private static final ConcurrentMap<Channel, Integer> replicaChannels = new ConcurrentHashMap<>();
+    private static final String LOG_DIR = "messagequeue_01";
+    // 日志组提交、分段、快照、重放等配置，可通过 -Dmymq.* 系统属性覆盖
+    private static final MasterConfig CONFIG = MasterConfig.fromSystemProperties(LOG_DIR);
+    // 日志统计输出间隔（秒）
+    private static final int LOG_STATS_INTERVAL_SECONDS = 60;
+    // 全局 ChannelGroup 保存所有从节点连接及其复制进度
+    private static final ConcurrentMap<Channel, ReplicaState> replicaChannels = new ConcurrentHashMap<>();
     // 共享的业务逻辑对象
-    private static final MessageQueueBusinessLogic businessLogic = new MessageQueueBusinessLogic(LOG_FILE_PATH);
+    private static final MessageQueueBusinessLogic businessLogic = new MessageQueueBusinessLogic(CONFIG);
+    // 所有客户端连接共享的命令执行方式（-Dmymq.executor.*）
+    private static final CommandExecutor commandExecutor = CommandExecutor.fromSystemProperties("Master");
+
+    /**
+     * 从节点的复制进度：每个分区下一条待发送记录的序号（从 1 开始，只由复制线程访问），
+     * 以及从节点确认已应用的记录数（由 ACK 更新，保留策略据此判断哪些段可以删除）
+     */
+    public static class ReplicaState {
+        final int[] cursors;
+        final AtomicLongArray acked;
+        // 日志开头的段已被删除，需要先同步快照（只由复制线程访问）
+        boolean needsSnapshot;
+
+        ReplicaState(int[] cursors) {
+            this.cursors = cursors;
+            this.acked = new AtomicLongArray(cursors.length);
+            for (int i = 0; i < cursors.length; i++) {
+                acked.set(i, cursors[i] - 1L);
+            }
+        }
+
+        void acknowledge(int partition, long count) {
+            acked.accumulateAndGet(partition, count, Math::max);
+        }
+    }
 
     public static void main(String[] args) throws Exception {
         // 启动复制线程，确保消息严格按顺序发送到从节点
         startReplicationThread();
+        // 周期性输出组提交统计（批大小、fsync 耗时）
+        startLogStatsReporter();
+        // 后台周期性生成队列快照，缩短重启时的日志重放
+        businessLogic.startSnapshotTask(CONFIG.getSnapshotIntervalSeconds());
+        // 后台周期性把各队列的消费位置批量写入日志
+        businessLogic.startOffsetCommitTask(CONFIG.getOffsetCommitIntervalMillis());
+        // 后台按保留策略删除不再需要的日志段
+        startRetentionTask(CONFIG.getRetentionCheckIntervalSeconds());
 
         // 启动客户端服务
         EventLoopGroup bossGroup1 = new NioEventLoopGroup(1);
@@ -44,11 +91,13 @@ public class MasterServer {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
                         ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast(new LineBasedFrameDecoder(1024));
-                        pipeline.addLast(new StringDecoder(CharsetUtil.UTF_8));
+                        // 按客户端的第一个字节选择文本行或二进制帧（见 BinaryFrame）
+                        pipeline.addLast(new ProtocolNegotiator(List.of(() -> new LineBasedFrameDecoder(1024))));
+                        // 客户端命令按原始字节交给处理器，消息内容不经过字符串解码
                         pipeline.addLast(new StringEncoder(CharsetUtil.UTF_8));
+                        pipeline.addLast(new BinaryFrameEncoder());
                         // 客户端处理器
-                        pipeline.addLast(new MasterClientHandler(businessLogic));
+                        pipeline.addLast(new MasterClientHandler(businessLogic, commandExecutor));
                     }
                 });
         ChannelFuture clientFuture = clientBootstrap.bind(CLIENT_PORT).sync();
@@ -78,6 +127,7 @@ public class MasterServer {
         clientFuture.channel().closeFuture().sync();
         replicaFuture.channel().closeFuture().sync();
 
+        commandExecutor.shutdown();
         bossGroup1.shutdownGracefully();
         workerGroup1.shutdownGracefully();
         bossGroup2.shutdownGracefully();
@@ -91,15 +141,29 @@ public class MasterServer {
         new Thread(() -> {
 
             while (true) {
-                replicaChannels.forEach((channel, cursor) -> {
-                    try {
-                        String line = businessLogic.getLogger().readLine(cursor);
-                        if (line != null) {
-                            channel.writeAndFlush(line + '\n');
-                            replicaChannels.compute(channel, (ch, cur) -> (cur == null ? 0 : cur + 1));
+                replicaChannels.forEach((channel, replica) -> {
+                    if (replica.needsSnapshot) {
+                        sendSnapshot(channel, replica);
+                    }
+                    int[] cursors = replica.cursors;
+                    // 各分区分别按顺序发送，同一队列的命令只在一个分区中，顺序不受分区交错的影响；
+                    // 每行带上分区号和记录序号，从节点应用后据此回复 ACK
+                    for (int partition = 0; partition < cursors.length; partition++) {
+                        try {
+                            String line = businessLogic.getLogger().readLine(partition, cursors[partition]);
+                            if (line != null) {
+                                channel.writeAndFlush(partition + " " + cursors[partition] + " " + line + '\n');
+                                cursors[partition]++;
+                            } else if (cursors[partition] <= businessLogic.getLogger().firstOffset(partition)) {
+                                // 从节点确认的位置会阻止段删除，正常不会走到这里；跳到保留的第一条记录，并记录缺失的范围
+                                long firstOffset = businessLogic.getLogger().firstOffset(partition);
+                                System.out.println("[WARN] 分区 " + partition + " 中序号 " + cursors[partition] + " 到 " + firstOffset
+                                        + " 的记录已按保留策略删除，从节点 " + channel.remoteAddress() + " 将缺少这部分数据");
+                                cursors[partition] = (int) firstOffset + 1;
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
-                    } catch (IOException e) {
-                        e.printStackTrace();
                     }
                 });
 
@@ -107,8 +171,110 @@ public class MasterServer {
         }, "ReplicationThread").start();
     }
 
+    /**
+     * 日志开头的段已被删除时，新连接的从节点先同步最近一次快照：逐个队列发送 CREATE、OFFSET（对齐消费位置）
+     * 和其中的消息，序号都记为所在分区的快照位置，再从快照位置的下一条记录继续复制。
+     * 快照位置之后的记录都还保留：段只有被快照覆盖后才会删除，该从节点连接后又按它确认的位置阻止删除
+     */
+    private static void sendSnapshot(Channel channel, ReplicaState replica) {
+        replica.needsSnapshot = false;
+        QueueSnapshot snapshot;
+        try {
+            snapshot = businessLogic.readSnapshot();
+        } catch (IOException e) {
+            System.err.println("[ERROR] 读取快照失败: " + e.getMessage());
+            snapshot = null;
+        }
+        PartitionedLog log = businessLogic.getLogger();
+        if (snapshot == null || snapshot.getLogPositions().length != replica.cursors.length) {
+            System.out.println("[WARN] 日志开头的段已删除且没有可用的快照，从节点 " + channel.remoteAddress() + " 将缺少这部分数据");
+            return;
+        }
+        long[] positions = snapshot.getLogPositions();
+        for (Map.Entry<String, List<byte[]>> entry : snapshot.getQueues().entrySet()) {
+            String queueName = entry.getKey();
+            int partition = log.partitionOf(queueName);
+            String prefix = partition + " " + positions[partition] + " ";
+            channel.write(prefix + "CREATE " + queueName + '\n');
+            channel.write(prefix + "OFFSET " + queueName + " " + snapshot.getQueueOffset(queueName) + '\n');
+            for (byte[] message : entry.getValue()) {
+                channel.write(prefix + "PUBLISH " + queueName + " "
+                        + new String(MasterReplicaHandler.escapeMessage(message), StandardCharsets.UTF_8) + '\n');
+            }
+        }
+        channel.flush();
+        for (int i = 0; i < positions.length; i++) {
+            replica.cursors[i] = (int) positions[i] + 1;
+        }
+        System.out.println("[Master] 已向从节点 " + channel.remoteAddress() + " 同步快照: 日志位置 " + Arrays.toString(positions)
+                + "，队列 " + snapshot.getQueues().size() + " 个，消息 " + snapshot.getMessageCount() + " 条");
+    }
+
+    /**
+     * 定时删除日志段：只删除已被最近一次快照覆盖、其中的消息都已消费、且所有在线从节点都已确认的段，
+     * 再由保留策略（大小上限、保留时间）决定实际删除哪些
+     */
+    private static void startRetentionTask(long intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LogRetentionThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            long[] snapshotPositions = businessLogic.getSnapshotPositions();
+            if (businessLogic.getLogger() == null || snapshotPositions == null) {
+                return;
+            }
+            long[] safeOffsets = snapshotPositions.clone();
+            long[] unconsumedOffsets = businessLogic.getUnconsumedLogOffsets();
+            for (int i = 0; i < safeOffsets.length; i++) {
+                safeOffsets[i] = Math.min(safeOffsets[i], unconsumedOffsets[i]);
+            }
+            for (ReplicaState replica : replicaChannels.values()) {
+                for (int i = 0; i < safeOffsets.length; i++) {
+                    safeOffsets[i] = Math.min(safeOffsets[i], replica.acked.get(i));
+                }
+            }
+            try {
+                businessLogic.getLogger().deleteSegments(safeOffsets);
+            } catch (IOException e) {
+                System.err.println("[ERROR] 删除日志段失败: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 定时输出日志组提交的批大小与 fsync 耗时统计
+     */
+    private static void startLogStatsReporter() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LogStatsReporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            if (businessLogic.getLogger() != null) {
+                System.out.println("[Master] 日志组提交统计: " + businessLogic.getLogger().getStatsSummary());
+            }
+        }, LOG_STATS_INTERVAL_SECONDS, LOG_STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
     // 提供一个访问 ChannelGroup 的方法（MasterReplicaHandler 中使用）
-    public static ConcurrentMap<Channel, Integer> getReplicaChannels() {
+    public static ConcurrentMap<Channel, ReplicaState> getReplicaChannels() {
         return replicaChannels;
     }
+
+    // 新连接的从节点从每个分区保留的第一条记录开始同步；开头的段已被删除时先同步快照
+    public static ReplicaState newReplicaState() {
+        int[] cursors = new int[businessLogic.getLogger().partitionCount()];
+        boolean truncated = false;
+        for (int i = 0; i < cursors.length; i++) {
+            long firstOffset = businessLogic.getLogger().firstOffset(i);
+            cursors[i] = (int) firstOffset + 1;
+            truncated |= firstOffset > 0;
+        }
+        ReplicaState replica = new ReplicaState(cursors);
+        replica.needsSnapshot = truncated;
+        return replica;
+    }
 }
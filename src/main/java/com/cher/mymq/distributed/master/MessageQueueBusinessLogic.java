@@ -1,303 +1,1054 @@
 package com.cher.mymq.distributed.master;
 
-import com.cher.mymq.nio.MessageQueueServer;
+import com.cher.mymq.common.CommandParser;
+import com.cher.mymq.common.CompactQueue;
+import com.cher.mymq.common.ConsumeBatch;
+import com.cher.mymq.common.DurabilityConfig;
+import com.cher.mymq.common.LongPollConsumer;
+import com.cher.mymq.common.PublishBatch;
+import com.cher.mymq.common.QueueBackendConfig;
+import com.cher.mymq.common.QueueLimit;
+import com.cher.mymq.common.QueueLimitConfig;
+import com.cher.mymq.common.QueueSnapshot;
+import com.cher.mymq.common.Subscription;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class MessageQueueBusinessLogic {
-    // 封装队列和锁
-    public static class QueueHolder {
-        private final LinkedBlockingQueue<String> queue;
-        private final ReentrantReadWriteLock lock;
+    /**
+     * 队列及其消费位置。空闲队列只占容器本身的几十字节：存储结构按需创建、变空后在快照时释放，
+     * 消费位置用 VarHandle 原子更新，不再单独分配 AtomicLong；需要与日志保持顺序的操作对 QueueHolder 加 synchronized
+     *
+     * 记录日志的 PUBLISH 在队列锁内入队（保持与日志相同的顺序），但在记录持久化之前不可见：
+     * 只有序号小于 visibleCount 的消息能被取出，发布者等到组提交完成后才推进它（见 {@link #makeVisible}），
+     * 因此消费者不会拿到崩溃后会从日志中消失的消息
+     */
+    public static class QueueHolder extends CompactQueue<byte[]> {
+        private static final VarHandle CONSUMED_OFFSET;
+        private static final VarHandle QUEUED_BYTES;
+        private static final VarHandle VISIBLE_COUNT;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                CONSUMED_OFFSET = lookup.findVarHandle(QueueHolder.class, "consumedOffset", long.class);
+                QUEUED_BYTES = lookup.findVarHandle(QueueHolder.class, "queuedBytes", long.class);
+                VISIBLE_COUNT = lookup.findVarHandle(QueueHolder.class, "visibleCount", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // 消费位置：队列创建以来已消费的消息数，即队首消息的序号。出队前先用 CAS 认领一条消息（位置加一），
+        // 认领成功的调用方随后一定能取出一条消息
+        private volatile long consumedOffset;
+        // 可以被消费的消息数（序号上限）：不记录日志的写入立即推进，记录日志的 PUBLISH 持久化后推进
+        private volatile long visibleCount;
+        // 最近一次写入日志的消费位置（持有队列锁时修改，后台任务可以不加锁读取以跳过没有变化的队列）
+        private volatile long committedOffset;
+        // 队列中消息的总字节数，用于容量上限
+        private volatile long queuedBytes;
+        // 因队列已满而暂停的生产者的恢复回调（持有队列锁时修改），没有时为 null
+        private volatile List<Runnable> spaceWaiters;
+        // 队列创建以来放入的消息数，即下一条消息的序号（持有队列锁或在重放线程中修改）
+        private long publishedCount;
+        // 日志位置标记 {消息序号, 该消息所在日志位置的下限}，序号和位置都递增，相邻标记至少相隔 LOG_MARK_INTERVAL 条记录；
+        // 保留策略据此估计最旧的未消费消息在日志中的位置（持有队列锁时访问），没有时为 null
+        private ArrayDeque<long[]> logMarks;
+
+        public QueueHolder(QueueBackendConfig.Type type) {
+            this(type, 0);
+        }
+
+        public QueueHolder(QueueBackendConfig.Type type, long consumedOffset) {
+            super(type);
+            this.consumedOffset = consumedOffset;
+            this.committedOffset = consumedOffset;
+            this.publishedCount = consumedOffset;
+            this.visibleCount = consumedOffset;
+        }
+
+        /**
+         * 写入一条立即可见的消息（恢复、复制等不记录日志的写入）
+         */
+        @Override
+        public boolean offer(byte[] message) {
+            boolean offered = offerPending(message);
+            makeVisible(publishedCount);
+            return offered;
+        }
+
+        /**
+         * 写入一条暂不可见的消息，记录持久化后由调用方 {@link #makeVisible} 公开。调用方持有队列锁
+         */
+        boolean offerPending(byte[] message) {
+            // 先计入字节数，并发出队不会使其短暂为负
+            QUEUED_BYTES.getAndAdd(this, (long) message.length);
+            boolean offered = super.offer(message);
+            if (offered) {
+                publishedCount++;
+            }
+            return offered;
+        }
+
+        /**
+         * 让序号小于 count 的消息可以被消费，只前进不后退。同一队列的记录按序号顺序写入同一分区，
+         * 某条记录持久化时之前的记录也已写入，因此后完成的发布者可以一并公开前面的消息
+         */
+        void makeVisible(long count) {
+            long visible = visibleCount;
+            while (visible < count && !VISIBLE_COUNT.compareAndSet(this, visible, count)) {
+                visible = visibleCount;
+            }
+        }
+
+        /**
+         * 取出队首的一条可见消息，没有时返回 null
+         */
+        @Override
+        public byte[] poll() {
+            return claim(visibleCount) ? take() : null;
+        }
+
+        /**
+         * 取出队首消息，不论是否可见（DROP_OLDEST 丢弃、重放 OFFSET）。调用方持有队列锁或在重放线程中
+         */
+        byte[] dropHead() {
+            return claim(publishedCount) ? take() : null;
+        }
+
+        // 消费位置小于 limit 时认领队首的一条消息
+        private boolean claim(long limit) {
+            long consumed = consumedOffset;
+            while (consumed < limit) {
+                if (CONSUMED_OFFSET.compareAndSet(this, consumed, consumed + 1)) {
+                    return true;
+                }
+                consumed = consumedOffset;
+            }
+            return false;
+        }
+
+        // 认领的消息已经入队，出队一定成功
+        private byte[] take() {
+            byte[] message = super.poll();
+            QUEUED_BYTES.getAndAdd(this, (long) -message.length);
+            return message;
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return consumedOffset < visibleCount;
+        }
+
+        /**
+         * 丢弃消费位置 offset 之前的消息（重放 OFFSET 记录），位置只前进不后退
+         */
+        public void advanceTo(long offset) {
+            while (consumedOffset < offset && dropHead() != null) {
+                // 逐条出队
+            }
+            // 队列已空仍未到达该位置：之前的消息包含在同步给从节点的快照中，已被消费，直接对齐序号
+            if (consumedOffset < offset) {
+                consumedOffset = offset;
+                publishedCount = Math.max(publishedCount, offset);
+                makeVisible(publishedCount);
+            }
+        }
+
+        /**
+         * 登记序号为 messageSeq 的消息在日志中的位置下限。与上一个标记相隔不足 LOG_MARK_INTERVAL 条记录时不登记，
+         * 估计的位置最多提前这么多条记录。调用方持有队列锁
+         */
+        void markLogOffset(long messageSeq, long logOffset) {
+            if (logMarks == null) {
+                logMarks = new ArrayDeque<>();
+            }
+            long[] last = logMarks.peekLast();
+            if (last == null || logOffset - last[1] >= LOG_MARK_INTERVAL) {
+                logMarks.addLast(new long[]{messageSeq, logOffset});
+                dropConsumedMarks();
+            }
+        }
+
+        // 第二个标记的消息也已消费时，第一个标记不再是最紧的下限
+        private void dropConsumedMarks() {
+            long[] first = logMarks.pollFirst();
+            while (!logMarks.isEmpty() && logMarks.peekFirst()[0] <= consumedOffset) {
+                first = logMarks.pollFirst();
+            }
+            logMarks.addFirst(first);
+        }
+
+        /**
+         * 最旧的未消费消息在日志中的位置下限，没有未消费的消息时返回 Long.MAX_VALUE，
+         * 无法确定（消息没有标记）时返回 0。顺带丢弃已经用不到的标记。调用方持有队列锁
+         */
+        long firstUnconsumedLogOffset() {
+            long consumed = consumedOffset;
+            if (publishedCount <= consumed) {
+                logMarks = null;
+                return Long.MAX_VALUE;
+            }
+            if (logMarks == null || logMarks.isEmpty() || logMarks.peekFirst()[0] > consumed) {
+                return 0;
+            }
+            dropConsumedMarks();
+            return logMarks.peekFirst()[1];
+        }
+
+        public long getConsumedOffset() {
+            return consumedOffset;
+        }
+
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        // 调用方持有队列锁
+        void addSpaceWaiter(Runnable resume) {
+            List<Runnable> waiters = spaceWaiters;
+            if (waiters == null) {
+                waiters = new ArrayList<>();
+                spaceWaiters = waiters;
+            }
+            waiters.add(resume);
+        }
+
+        boolean hasSpaceWaiters() {
+            return spaceWaiters != null;
+        }
+
+        // 调用方持有队列锁
+        List<Runnable> takeSpaceWaiters() {
+            List<Runnable> waiters = spaceWaiters;
+            spaceWaiters = null;
+            return waiters == null ? List.of() : waiters;
+        }
+    }
+
+    /**
+     * 命令的执行结果：CONSUME 取到消息时 message 为消息的原始字节，完整响应为 status 加消息内容；
+     * CONSUMEBATCH 取到消息时 messages 为各条消息，完整响应见 {@link ConsumeBatch}；
+     * 其他情况只有响应文本 status
+     */
+    public static final class Result {
+        static final Result PUBLISHED = new Result("OK: 消息已发布", null, false);
+        // 消息已发布，但队列已达到上限（BACKPRESSURE），调用方应暂停读取该生产者的命令
+        static final Result PUBLISHED_QUEUE_FULL = new Result("OK: 消息已发布", null, true);
+        static final Result NO_MESSAGE = new Result("NO_MESSAGE", null, false);
+        public static final String MESSAGE_PREFIX = "MESSAGE: ";
+
+        private final String status;
+        private final byte[] message;
+        private final List<byte[]> messages;
+        private final boolean queueFull;
+
+        private Result(String status, byte[] message, boolean queueFull) {
+            this(status, message, null, queueFull);
+        }
+
+        private Result(String status, byte[] message, List<byte[]> messages, boolean queueFull) {
+            this.status = status;
+            this.message = message;
+            this.messages = messages;
+            this.queueFull = queueFull;
+        }
+
+        static Result of(String status) {
+            return new Result(status, null, false);
+        }
+
+        static Result of(String status, boolean queueFull) {
+            return new Result(status, null, queueFull);
+        }
+
+        static Result message(byte[] message) {
+            return new Result(MESSAGE_PREFIX, message, false);
+        }
+
+        static Result messages(List<byte[]> messages) {
+            return new Result(ConsumeBatch.PREFIX + messages.size(), null, messages, false);
+        }
 
-        public QueueHolder() {
-            this.queue = new LinkedBlockingQueue<>();
-            this.lock = new ReentrantReadWriteLock();
+        /**
+         * 队列已满，需要生产者等待，见 {@link MessageQueueBusinessLogic#whenSpaceAvailable(String, Runnable)}
+         */
+        public boolean isQueueFull() {
+            return queueFull;
         }
 
-        public boolean offer(String e) {
-            return queue.offer(e);
+        public String getStatus() {
+            return status;
         }
 
-        public String poll() {
-            return queue.poll();
+        public byte[] getMessage() {
+            return message;
         }
 
-        public ReentrantReadWriteLock.WriteLock writeLock() {
-            return lock.writeLock();
+        /**
+         * CONSUMEBATCH 取出的消息，其他命令为 null
+         */
+        public List<byte[]> getMessages() {
+            return messages;
+        }
+
+        @Override
+        public String toString() {
+            if (messages != null) {
+                StringBuilder response = new StringBuilder(status);
+                for (byte[] m : messages) {
+                    response.append('\n').append(new String(m, StandardCharsets.UTF_8));
+                }
+                return response.toString();
+            }
+            return message == null ? status : status + new String(message, StandardCharsets.UTF_8);
         }
     }
 
-    // 用于管理所有队列
+    // 用于管理所有队列。创建和删除不加全局锁，与 DROP 的竞争由队列自身的 dropped 标记处理
     private ConcurrentHashMap<String, QueueHolder> queues = new ConcurrentHashMap<>();
-    // 用于保护队列集合结构修改（CREATE/DROP）的全局锁
-    private final ReentrantLock structureLock = new ReentrantLock();
+    // 同一队列相邻两个日志位置标记之间至少相隔的记录数
+    private static final long LOG_MARK_INTERVAL = 1024;
 
-    // 持久化日志工具（可选，本示例略简化）
-    private PersistentLogger logger;
+    // 持久化日志工具（按队列分区，分区数为 1 时与单个日志相同）
+    private PartitionedLog logger;
 
-    public MessageQueueBusinessLogic(String logFilePath) {
+    // 快照屏障：记录日志的命令持有读锁，生成快照时短暂持有写锁复制队列内容并确定日志位置
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final String snapshotPath;
+    // 最近一次快照对应的各分区日志位置，没有新日志时跳过快照
+    private volatile long[] lastSnapshotPositions;
+
+    // 启动重放的并行线程数
+    private final int replayThreads;
+    // 持久化策略：默认策略及按队列的覆盖
+    private final DurabilityConfig durability;
+    // 消费位置写入日志的间隔（毫秒），0 表示每次消费立即写入
+    private final long offsetCommitIntervalMillis;
+    // 队列存储结构：默认实现及按队列的覆盖
+    private final QueueBackendConfig queueBackends;
+    // 队列容量上限：只对客户端命令生效，重放和复制的记录都已在主节点上通过检查
+    private final QueueLimitConfig queueLimits;
+    // 长轮询 CONSUME 的等待与超时
+    private final LongPollConsumer<Result> longPoll = new LongPollConsumer<>("LongPollTimer");
+
+    public MessageQueueBusinessLogic(String logDir) {
+        this(new MasterConfig(logDir));
+    }
+
+    public MessageQueueBusinessLogic(MasterConfig config) {
+        this.snapshotPath = Paths.get(config.getLogDir(), "queues.snapshot").toString();
+        this.replayThreads = config.getReplayThreads();
+        this.durability = config.getDurability();
+        this.offsetCommitIntervalMillis = config.getOffsetCommitIntervalMillis();
+        this.queueBackends = config.getQueueBackends();
+        this.queueLimits = config.getQueueLimits();
         try {
-            logger = new PersistentLogger(logFilePath);
-            loadPersistedData(logFilePath);
+            logger = new PartitionedLog(config);
+            loadPersistedData();
         } catch (IOException e) {
             System.err.println("[ERROR] 初始化日志失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public void loadPersistedData(String logFilePath) {
+    /**
+     * 加载最新快照，再只重放快照位置之后的日志
+     */
+    public void loadPersistedData() {
         System.out.println("[INFO] 正在加载持久化数据...");
+        long startTime = System.currentTimeMillis();
+        long[] fromOffsets = new long[logger.partitionCount()];
+        long snapshotMessages = 0;
         try {
-            List<String> commands = PersistentLogger.readLog(logFilePath);
-            for (String cmd : commands) {
-                // 重放命令时不再记录到日志，避免重复写入
-                String resp = applyCommand(cmd, false);
-                System.out.println("[INFO] 重放命令: " + cmd + " -> " + resp);
+            QueueSnapshot snapshot = QueueSnapshot.readFrom(snapshotPath);
+            if (snapshot != null && snapshot.getLogPositions().length != fromOffsets.length) {
+                throw new IOException("快照的分区数 " + snapshot.getLogPositions().length + " 与日志分区数 "
+                        + fromOffsets.length + " 不一致");
+            }
+            if (snapshot != null) {
+                for (Map.Entry<String, List<byte[]>> entry : snapshot.getQueues().entrySet()) {
+                    QueueHolder queue = new QueueHolder(queueBackends.typeOf(entry.getKey()),
+                            snapshot.getQueueOffset(entry.getKey()));
+                    for (byte[] message : entry.getValue()) {
+                        queue.offer(message);
+                    }
+                    queues.put(entry.getKey(), queue);
+                }
+                fromOffsets = snapshot.getLogPositions();
+                snapshotMessages = snapshot.getMessageCount();
+                lastSnapshotPositions = fromOffsets;
+                System.out.println("[INFO] 已加载快照: 日志位置 " + Arrays.toString(fromOffsets) + "，队列 " + snapshot.getQueues().size()
+                        + " 个，消息 " + snapshotMessages + " 条");
             }
-            System.out.println("[INFO] 持久化数据加载完毕");
+        } catch (IOException e) {
+            System.out.println("[WARN] 加载快照失败，将完整重放日志: " + e.getMessage());
+            queues.clear();
+            fromOffsets = new long[logger.partitionCount()];
+        }
+        for (int i = 0; i < fromOffsets.length; i++) {
+            if (fromOffsets[i] < logger.firstOffset(i)) {
+                System.out.println("[ERROR] 分区 " + i + " 中序号 " + logger.firstOffset(i)
+                        + " 之前的日志段已按保留策略删除，没有可用的快照时无法恢复这部分数据");
+            }
+        }
+        try {
+            // 流式扫描日志尾部，逐条解码重放，不再把整个日志读入内存
+            long replayed;
+            if (replayThreads > 1) {
+                // 按队列分发给多个线程并行重放；此时还没有客户端请求，跳过锁和逐条输出
+                ParallelReplayer replayer = new ParallelReplayer(replayThreads, this::replayRecord);
+                replayed = logger.scanLog(fromOffsets, replayer);
+                replayer.finish();
+            } else {
+                replayed = logger.scanLog(fromOffsets, (buffer, offset, length) -> {
+                    String action = LogRecord.actionOf(LogRecord.type(buffer, offset));
+                    String queueName = LogRecord.queueName(buffer, offset);
+                    // 重放命令时不再记录到日志，避免重复写入
+                    Result resp = execute(action == null ? "" : action, queueName,
+                            LogRecord.payloadBytes(buffer, offset, length), false);
+                    System.out.println("[INFO] 重放命令: " + action + " " + queueName + " -> " + resp.getStatus());
+                });
+            }
+            // 重放得到的消费位置都已在日志中；恢复出的消息不知道各自的日志位置，保守地从保留的第一条记录算起
+            queues.forEach((name, queue) -> {
+                queue.committedOffset = queue.getConsumedOffset();
+                queue.markLogOffset(queue.getConsumedOffset(), logger.firstOffset(logger.partitionOf(name)));
+            });
+            System.out.println("[INFO] 持久化数据加载完毕，快照消息 " + snapshotMessages + " 条，重放日志 "
+                    + replayed + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
         } catch (IOException e) {
             System.out.println("[ERROR] 加载持久化数据失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * 恢复期间的无锁重放：同一队列的记录只由一个线程按日志顺序执行，
+     * CREATE/DROP 由 {@link ParallelReplayer} 作为屏障串行执行，因此不需要加锁
+     */
+    private void replayRecord(byte type, String queueName, byte[] payload) {
+        switch (type) {
+            case LogRecord.PUBLISH:
+                queues.computeIfAbsent(queueName, k -> new QueueHolder(queueBackends.typeOf(k))).offer(payload);
+                break;
+            case LogRecord.CONSUME: {
+                QueueHolder queue = queues.get(queueName);
+                if (queue != null) {
+                    queue.poll();
+                }
+                break;
+            }
+            case LogRecord.OFFSET: {
+                QueueHolder queue = queues.get(queueName);
+                if (queue != null) {
+                    queue.advanceTo(Long.parseLong(new String(payload, StandardCharsets.US_ASCII)));
+                }
+                break;
+            }
+            case LogRecord.CREATE:
+                queues.computeIfAbsent(queueName, k -> new QueueHolder(queueBackends.typeOf(k)));
+                break;
+            case LogRecord.DROP:
+                queues.remove(queueName);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 生成一次快照：屏障内只复制内存中的队列内容，文件写入在屏障外进行，不阻塞后续请求
+     */
+    public void takeSnapshot() throws IOException {
+        if (logger == null) {
+            return;
+        }
+        long[] positions;
+        Map<String, List<byte[]>> contents = new LinkedHashMap<>();
+        Map<String, Long> offsets = new HashMap<>();
+        snapshotLock.writeLock().lock();
+        try {
+            positions = logger.appendedOffsets();
+            if (Arrays.equals(positions, lastSnapshotPositions)) {
+                return;
+            }
+            queues.forEach((name, queue) -> {
+                contents.put(name, queue.snapshot());
+                offsets.put(name, queue.getConsumedOffset());
+                // 已经变空的队列释放存储结构，只保留容器和消费位置
+                queue.compact();
+            });
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        // 快照只能覆盖已经持久化的日志：等待各分区中屏障之前的记录写入，再刷盘非 SYNC_EACH 的记录
+        logger.sync();
+        long startTime = System.currentTimeMillis();
+        QueueSnapshot snapshot = new QueueSnapshot(positions, contents, offsets);
+        snapshot.writeTo(snapshotPath);
+        lastSnapshotPositions = positions;
+        System.out.println("[INFO] 快照已写入: 日志位置 " + Arrays.toString(positions) + "，队列 " + contents.size() + " 个，消息 "
+                + snapshot.getMessageCount() + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * 启动后台快照任务
+     *
+     * @param intervalSeconds 快照间隔（秒）
+     */
+    public void startSnapshotTask(long intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SnapshotThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException e) {
+                System.err.println("[ERROR] 写入快照失败: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 启动后台任务，定期把各队列变化了的消费位置批量写入日志
+     *
+     * @param intervalMillis 写入间隔（毫秒），不大于 0 时不启动（每次消费立即写入）
+     */
+    public void startOffsetCommitTask(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OffsetCommitThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::commitOffsets, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 为消费位置有变化的队列各追加一条 OFFSET 记录，不等待刷盘。
+     * 崩溃时最近一个间隔内消费的消息会在恢复后重新投递。
+     */
+    public void commitOffsets() {
+        if (logger == null) {
+            return;
+        }
+        snapshotLock.readLock().lock();
+        try {
+            queues.forEach((name, queue) -> {
+                // 先不加锁跳过消费位置没有变化的队列，大量空闲队列时不必逐个加锁
+                if (queue.getConsumedOffset() == queue.committedOffset) {
+                    return;
+                }
+                synchronized (queue) {
+                    // 队列已被删除时不再写入，否则 OFFSET 可能排在 DROP 之后，作用到同名的新队列上
+                    if (queue.getConsumedOffset() != queue.committedOffset && !queue.isDropped()) {
+                        commitOffset(name, queue);
+                    }
+                }
+            });
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    // 调用方持有队列锁，保证 OFFSET 与同一队列的其他记录在日志中的顺序
+    private CompletableFuture<Void> commitOffset(String queueName, QueueHolder queue) {
+        long offset = queue.getConsumedOffset();
+        queue.committedOffset = offset;
+        return logger.append(LogRecord.OFFSET, queueName,
+                Long.toString(offset).getBytes(StandardCharsets.US_ASCII), durability.forQueue(queueName));
+    }
+
+    /**
+     * DROP_OLDEST：丢弃最旧的消息直到放得下 count 条、共 length 字节的新消息，丢弃视为消费，立即写入消费位置。
+     * 调用方持有队列锁
+     *
+     * @return 新消息本身超过上限（清空队列也放不下）时返回 false，此时不丢弃任何消息
+     */
+    private boolean dropOldest(String queueName, QueueHolder queue, QueueLimit limit, int count, long length) {
+        if (!limit.accepts(0, 0, count, length)) {
+            return false;
+        }
+        long dropped = 0;
+        while (!limit.accepts(queue.size(), queue.getQueuedBytes(), count, length)) {
+            // 尚未持久化的消息同样可以丢弃，丢弃记录（OFFSET）在日志中排在它们的 PUBLISH 之后
+            if (queue.dropHead() == null) {
+                break;
+            }
+            dropped++;
+        }
+        if (dropped > 0) {
+            if (logger != null) {
+                // 与随后的 PUBLISH 在同一分区，PUBLISH 刷盘时这条记录也已刷盘
+                commitOffset(queueName, queue);
+            }
+            System.out.println("[WARN] 队列 " + queueName + " 已满，丢弃最旧的消息 " + dropped + " 条");
+        }
+        return limit.accepts(queue.size(), queue.getQueuedBytes(), count, length);
+    }
+
+    /**
+     * 登记因队列已满而暂停的生产者：队列有空间或被删除时调用一次 resume；当前已有空间时立即调用
+     */
+    public void whenSpaceAvailable(String queueName, Runnable resume) {
+        QueueHolder queue = queues.get(queueName);
+        if (queue != null) {
+            synchronized (queue) {
+                if (!queue.isDropped() && !queueLimits.forQueue(queueName).hasSpace(queue.size(), queue.getQueuedBytes())) {
+                    queue.addSpaceWaiter(resume);
+                    return;
+                }
+            }
+        }
+        resume.run();
+    }
+
+    // 队列有空间或已被删除时恢复等待的生产者
+    private void signalSpace(String queueName, QueueHolder queue) {
+        List<Runnable> waiters;
+        synchronized (queue) {
+            if (!queue.isDropped() && !queueLimits.forQueue(queueName).hasSpace(queue.size(), queue.getQueuedBytes())) {
+                return;
+            }
+            waiters = queue.takeSpaceWaiters();
+        }
+        waiters.forEach(Runnable::run);
+    }
+
+    /**
+     * 取得队列，不存在时自动创建。不加全局锁，并发创建同名队列时只有一个生效
+     */
+    private QueueHolder getOrCreateQueue(String queueName) {
+        QueueHolder queue = queues.get(queueName);
+        if (queue != null) {
+            return queue;
+        }
+        return queues.computeIfAbsent(queueName, name -> {
+            System.out.println("[INFO] 自动创建队列: " + name);
+            return new QueueHolder(queueBackends.typeOf(name));
+        });
+    }
+
     /**
      * 解析并执行命令，返回操作响应
      *
      * 命令格式：
      *   PUBLISH queueName message
      *   CONSUME queueName
+     *   CONSUMEBATCH queueName maxCount [maxBytes]
      *   CREATE queueName
      *   DROP queueName
+     *   OFFSET queueName offset（仅来自日志重放和主从复制）
+     *
+     * CONSUME 只推进内存中的消费位置，位置由后台任务批量写入日志（见 {@link #commitOffsets}），
+     * 写入间隔为 0 时每次消费立即写入并等待刷盘。CONSUMEBATCH 在一次加锁内取出多条消息，整批只写入一条 OFFSET。
+     * 日志记录在持有锁时加入组提交批次（保证日志顺序与内存操作顺序一致），
+     * 释放锁之后再等待刷盘，使同一队列的并发请求也能合并到同一次 fsync 中。
+     * 队列的持久化策略不是 SYNC_EACH 时，只等待记录写入，不等待 fsync。
+     * PUBLISH 的消息在等待期间已入队但不可见，持久化（按队列的策略）后才能被 CONSUME、CONSUMEBATCH 和订阅取出。
      *
      * @param command 命令字符串
      * @param shouldLog 是否记录日志（恢复数据时为 false）
      * @return 操作结果响应
      */
     public String applyCommand(String command, boolean shouldLog) {
-        String[] parts = command.split(" ", 3);
-        if (parts.length < 2) {
+        CommandParser parser = CommandParser.local();
+        if (!parser.parse(command)) {
             return "ERROR: 无效命令格式";
         }
-        String action = parts[0].toUpperCase();
-        String queueName = parts[1];
+        // 执行前取出各部分，执行过程中同一线程可能再次使用该解析器
+        CommandParser.Action action = parser.action();
+        String queueName = parser.queueName();
+        return execute(action, queueName, parser.payloadBytes(), shouldLog).toString();
+    }
 
-        switch (action) {
-            case "PUBLISH": {
-                if (parts.length < 3) {
-                    return "ERROR: PUBLISH 命令需要消息";
-                }
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    structureLock.lock();
-                    try {
-                        if (!queues.containsKey(queueName)) {
-                            queues.put(queueName, new QueueHolder());
-                            System.out.println("[INFO] 自动创建队列: " + queueName);
+    /**
+     * 按命令名执行已拆分的命令，见 {@link #execute(CommandParser.Action, String, byte[], boolean)}
+     *
+     * @param action 命令名（不区分大小写）
+     */
+    public Result execute(String action, String queueName, byte[] payload, boolean shouldLog) {
+        return execute(CommandParser.Action.of(action), queueName, payload, shouldLog);
+    }
+
+    /**
+     * 执行已拆分的命令，消息内容以原始字节传入和返回，从连接、队列、日志到响应都不再转码
+     *
+     * @param action    命令
+     * @param queueName 队列名
+     * @param payload   命令的第三部分（PUBLISH 的消息、OFFSET 的位置）的原始字节，没有时为 null
+     * @param shouldLog 是否记录日志（恢复数据时为 false）
+     */
+    public Result execute(CommandParser.Action action, String queueName, byte[] payload, boolean shouldLog) {
+        // 需要等待刷盘的日志记录（不记录日志时为 null）
+        CompletableFuture<Void> durable = null;
+        // 写入了消息的队列，持久化后公开到序号 publishedUpTo 为止的消息，再唤醒在其上长轮询的消费者
+        QueueHolder published = null;
+        long publishedUpTo = 0;
+        Result response;
+        // 记录日志的命令需要经过快照屏障，保证快照与日志位置一致
+        if (shouldLog) {
+            snapshotLock.readLock().lock();
+        }
+        try {
+            switch (action) {
+                case PUBLISH: {
+                    if (payload == null) {
+                        return Result.of("ERROR: PUBLISH 命令需要消息");
+                    }
+                    QueueLimit limit = shouldLog ? queueLimits.forQueue(queueName) : QueueLimit.UNLIMITED;
+                    boolean queueFull = false;
+                    while (true) {
+                        QueueHolder queue = getOrCreateQueue(queueName);
+                        // offer 本身不加锁，这里的容器锁保证日志中 PUBLISH 的顺序与入队顺序一致：
+                        // 重放按日志顺序入队后再跳过 OFFSET 记录的条数，两者顺序不同会把未消费的消息当作已消费。
+                        // 容量检查和与 DROP 的竞争也依赖它。消费位置按间隔提交（默认）时 CONSUME 不取这把锁
+                        synchronized (queue) {
+                            // 队列刚被并发的 DROP 删除，改为写入重新创建的同名队列
+                            if (queue.isDropped()) {
+                                continue;
+                            }
+                            if (!limit.accepts(queue.size(), queue.getQueuedBytes(), payload.length)) {
+                                if (limit.getOverflow() == QueueLimit.Overflow.REJECT) {
+                                    return Result.of("ERROR: 队列已满");
+                                }
+                                if (limit.getOverflow() == QueueLimit.Overflow.DROP_OLDEST
+                                        && !dropOldest(queueName, queue, limit, 1, payload.length)) {
+                                    return Result.of("ERROR: 消息超过队列容量上限");
+                                }
+                            }
+                            if (shouldLog && logger != null) {
+                                queue.offerPending(payload);
+                                queue.markLogOffset(queue.publishedCount - 1, logger.nextOffset(queueName));
+                                durable = logger.append(LogRecord.PUBLISH, queueName, payload, durability.forQueue(queueName));
+                            } else {
+                                queue.offer(payload);
+                            }
+                            publishedUpTo = queue.publishedCount;
+                            // BACKPRESSURE：消息照常接受，队列达到上限后由调用方暂停该生产者
+                            queueFull = limit.getOverflow() == QueueLimit.Overflow.BACKPRESSURE
+                                    && !limit.hasSpace(queue.size(), queue.getQueuedBytes());
                         }
-                        queue = queues.get(queueName);
-                    } finally {
-                        structureLock.unlock();
+                        published = queue;
+                        break;
                     }
+                    System.out.println("[INFO] 消息已发布到队列 " + queueName + "（" + payload.length + " 字节）");
+                    response = queueFull ? Result.PUBLISHED_QUEUE_FULL : Result.PUBLISHED;
+                    break;
                 }
-                queue.writeLock().lock();
-                try {
-                    String message = parts[2];
-                    queue.offer(message);
-                    if (shouldLog && logger != null) {
-                        logger.log(command);
+                case CONSUME: {
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return Result.of("ERROR: 队列不存在");
+                    }
+                    byte[] consumed;
+                    if (shouldLog && logger != null && offsetCommitIntervalMillis <= 0) {
+                        synchronized (queue) {
+                            // 已被并发的 DROP 删除，不能再写入 OFFSET，否则重放时会作用到同名的新队列上
+                            if (queue.isDropped()) {
+                                return Result.of("ERROR: 队列不存在");
+                            }
+                            consumed = queue.poll();
+                            if (consumed != null) {
+                                durable = commitOffset(queueName, queue);
+                            }
+                        }
+                    } else {
+                        // 消费位置由后台批量写入日志，出队不写日志，只依赖存储结构自身的并发控制，不加队列锁
+                        consumed = queue.poll();
                     }
-                    System.out.println("[INFO] 消息已发布到队列 " + queueName + ": " + message);
-                    return "OK: 消息已发布";
-                } finally {
-                    queue.writeLock().unlock();
-                }
-            }
-            case "CONSUME": {
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    return "ERROR: 队列不存在";
-                }
-                queue.writeLock().lock();
-                try {
-                    String consumed = queue.poll();
                     if (consumed == null) {
-                        return "NO_MESSAGE";
+                        return Result.NO_MESSAGE;
                     }
-                    if (shouldLog && logger != null) {
-                        logger.log(command);
+                    if (queue.hasSpaceWaiters()) {
+                        signalSpace(queueName, queue);
                     }
-                    System.out.println("[INFO] 消息从队列 " + queueName + " 被消费: " + consumed);
-                    return "MESSAGE: " + consumed;
-                } finally {
-                    queue.writeLock().unlock();
+                    System.out.println("[INFO] 消息从队列 " + queueName + " 被消费（" + consumed.length + " 字节）");
+                    response = Result.message(consumed);
+                    break;
                 }
-            }
-            case "CREATE": {
-                structureLock.lock();
-                try {
-                    if (queues.containsKey(queueName)) {
-                        return "ERROR: 队列已存在";
+                case CONSUMEBATCH: {
+                    ConsumeBatch batch;
+                    try {
+                        batch = ConsumeBatch.parse(payload == null ? null : new String(payload, StandardCharsets.US_ASCII));
+                    } catch (IllegalArgumentException e) {
+                        return Result.of("ERROR: " + e.getMessage());
                     }
-                    queues.put(queueName, new QueueHolder());
-                    if (shouldLog && logger != null) {
-                        logger.log(command);
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return Result.of("ERROR: 队列不存在");
+                    }
+                    List<byte[]> consumed;
+                    if (shouldLog && logger != null && offsetCommitIntervalMillis <= 0) {
+                        synchronized (queue) {
+                            if (queue.isDropped()) {
+                                return Result.of("ERROR: 队列不存在");
+                            }
+                            consumed = queue.pollBatch(batch.getMaxCount(), batch.getMaxBytes(), m -> m.length);
+                            if (!consumed.isEmpty()) {
+                                // 整批只写入一条 OFFSET 记录
+                                durable = commitOffset(queueName, queue);
+                            }
+                        }
+                    } else {
+                        // 与 CONSUME 相同，消费位置由后台批量写入日志，不加队列锁
+                        consumed = queue.pollBatch(batch.getMaxCount(), batch.getMaxBytes(), m -> m.length);
+                    }
+                    if (consumed.isEmpty()) {
+                        return Result.NO_MESSAGE;
+                    }
+                    if (queue.hasSpaceWaiters()) {
+                        signalSpace(queueName, queue);
+                    }
+                    System.out.println("[INFO] 从队列 " + queueName + " 批量消费消息 " + consumed.size() + " 条");
+                    response = Result.messages(consumed);
+                    break;
+                }
+                case CREATE: {
+                    // 新队列在放入队列表之前先加锁，CREATE 写入日志之前其他操作无法使用它
+                    QueueHolder created = new QueueHolder(queueBackends.typeOf(queueName));
+                    synchronized (created) {
+                        if (queues.putIfAbsent(queueName, created) != null) {
+                            return Result.of("ERROR: 队列已存在");
+                        }
+                        if (shouldLog && logger != null) {
+                            durable = logger.append(LogRecord.CREATE, queueName, null, durability.forQueue(queueName));
+                        }
                     }
                     System.out.println("[INFO] 队列已创建: " + queueName);
-                    return "OK: 队列已创建";
-                } finally {
-                    structureLock.unlock();
+                    response = Result.of("OK: 队列已创建");
+                    break;
                 }
-            }
-            case "DROP": {
-                structureLock.lock();
-                try {
+                case DROP: {
                     QueueHolder queue = queues.get(queueName);
                     if (queue == null) {
-                        return "ERROR: 队列不存在";
+                        return Result.of("ERROR: 队列不存在");
                     }
-                    queue.writeLock().lock();
-                    try {
-                        queues.remove(queueName);
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return Result.of("ERROR: 队列不存在");
+                        }
+                        queue.markDropped();
+                        queues.remove(queueName, queue);
                         if (shouldLog && logger != null) {
-                            logger.log(command);
+                            durable = logger.append(LogRecord.DROP, queueName, null, durability.forQueue(queueName));
                         }
-                        System.out.println("[INFO] 队列已删除: " + queueName);
-                        return "OK: 队列已删除";
-                    } finally {
-                        queue.writeLock().unlock();
                     }
-                } finally {
-                    structureLock.unlock();
+                    // 队列已删除，恢复因它暂停的生产者和在其上长轮询的消费者
+                    signalSpace(queueName, queue);
+                    queue.wakeAllConsumers();
+                    System.out.println("[INFO] 队列已删除: " + queueName);
+                    response = Result.of("OK: 队列已删除");
+                    break;
+                }
+                case OFFSET: {
+                    // 客户端不能直接修改消费位置
+                    if (shouldLog || payload == null) {
+                        return Result.of("ERROR: 未知命令");
+                    }
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return Result.of("ERROR: 队列不存在");
+                    }
+                    long offset;
+                    try {
+                        offset = Long.parseLong(new String(payload, StandardCharsets.US_ASCII).trim());
+                    } catch (NumberFormatException e) {
+                        return Result.of("ERROR: 无效的消费位置");
+                    }
+                    synchronized (queue) {
+                        queue.advanceTo(offset);
+                        queue.committedOffset = queue.getConsumedOffset();
+                        response = Result.of("OK: 消费位置 " + queue.committedOffset);
+                    }
+                    break;
+                }
+                case STATS: {
+                    // 队列的填充情况，不写日志
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return Result.of("ERROR: 队列不存在");
+                    }
+                    QueueLimit limit = queueLimits.forQueue(queueName);
+                    return Result.of("OK: messages=" + queue.size() + " bytes=" + queue.getQueuedBytes()
+                            + " maxMessages=" + limit.getMaxMessages() + " maxBytes=" + limit.getMaxBytes()
+                            + " overflow=" + limit.getOverflow() + " consumedOffset=" + queue.getConsumedOffset());
                 }
+                default:
+                    return Result.of("ERROR: 未知命令");
+            }
+        } finally {
+            if (shouldLog) {
+                snapshotLock.readLock().unlock();
             }
-            default:
-                return "ERROR: 未知命令";
         }
+        // 锁已释放，等待本条记录所在批次刷盘后再响应
+        if (durable != null) {
+            logger.awaitDurable(durable);
+        }
+        // 消息持久化后才可见，再交给长轮询的消费者。写入失败时消息仍留在内存中（与内存操作不回滚一致），同样公开
+        if (published != null) {
+            published.makeVisible(publishedUpTo);
+            published.wakeConsumer();
+        }
+        return response;
     }
 
-    public PersistentLogger getLogger() {
-        return logger;
-    }
-
-    // 简单的持久化日志实现（写入文件）
-    public static class PersistentLogger {
-        private java.nio.channels.FileChannel channel;
-        private Path logFilePath;
-
-        // 保存每一行起始的字节偏移
-        private final List<Long> lineOffsets = new ArrayList<>();
-
-        // 使用读写锁，允许多个并发读取，同时写入操作独占锁
-        private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-
-        public PersistentLogger(String filePath) throws IOException {
-            this.logFilePath = Paths.get(filePath);
-            channel = java.nio.channels.FileChannel.open(logFilePath,
-                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
-            loadLineOffsets();
+    /**
+     * 批量发布（见 {@link PublishBatch}）：逐个队列加锁，该队列的消息全部写入或因容量上限全部拒绝，
+     * 整组作为一个整体加入组提交（一次写入、一次 fsync）；各队列都加入批次后再统一等待刷盘，只返回一个响应。
+     * 不同队列之间互不影响，某个队列被拒绝时其他队列的消息照常发布
+     */
+    public Result publishBatch(PublishBatch<byte[]> batch) {
+        if (batch.getError() != null) {
+            return Result.of("ERROR: " + batch.getError());
         }
-
-        private void loadLineOffsets() throws IOException {
-            long fileSize = channel.size();
-            // 如果文件为空，就不需要处理
-            if (fileSize == 0) {
-                return;
-            }
-            // 使用内存映射，注意映射的范围不能超过文件大小
-            MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
-            // 第一行的起始偏移量固定为0
-            lineOffsets.add(0L);
-            for (long pos = 0; pos < fileSize; pos++) {
-                // mappedBuffer.get(int index) 需要 int 类型索引，因此强制转换
-                byte b = mappedBuffer.get((int) pos);
-                // 假设日志每行以 '\n' 结尾
-                if (b == (byte) '\n') {
-                    // 如果不是文件末尾，则下一个字节就是新行的起始偏移
-                    if (pos + 1 < fileSize) {
-                        lineOffsets.add(pos + 1);
+        List<CompletableFuture<Void>> durables = new ArrayList<>();
+        // 写入了消息的队列及条数，持久化后公开到 publishedUpTo 中的序号为止，再唤醒在其上长轮询的消费者
+        Map<QueueHolder, Integer> published = new LinkedHashMap<>();
+        Map<QueueHolder, Long> publishedUpTo = new HashMap<>();
+        List<String> errors = new ArrayList<>();
+        int publishedCount = 0;
+        boolean queueFull = false;
+        snapshotLock.readLock().lock();
+        try {
+            for (Map.Entry<String, List<byte[]>> entry : batch.getMessages().entrySet()) {
+                String queueName = entry.getKey();
+                List<byte[]> messages = entry.getValue();
+                long length = 0;
+                for (byte[] message : messages) {
+                    length += message.length;
+                }
+                QueueLimit limit = queueLimits.forQueue(queueName);
+                while (true) {
+                    QueueHolder queue = getOrCreateQueue(queueName);
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            continue;
+                        }
+                        if (!limit.accepts(queue.size(), queue.getQueuedBytes(), messages.size(), length)) {
+                            if (limit.getOverflow() == QueueLimit.Overflow.REJECT) {
+                                errors.add(queueName + " 队列已满");
+                                break;
+                            }
+                            if (limit.getOverflow() == QueueLimit.Overflow.DROP_OLDEST
+                                    && !dropOldest(queueName, queue, limit, messages.size(), length)) {
+                                errors.add(queueName + " 消息超过队列容量上限");
+                                break;
+                            }
+                        }
+                        long firstSeq = queue.publishedCount;
+                        for (byte[] message : messages) {
+                            queue.offerPending(message);
+                        }
+                        publishedUpTo.put(queue, queue.publishedCount);
+                        if (logger != null) {
+                            queue.markLogOffset(firstSeq, logger.nextOffset(queueName));
+                            durables.add(logger.appendAll(LogRecord.PUBLISH, queueName, messages, durability.forQueue(queueName)));
+                        }
+                        queueFull |= limit.getOverflow() == QueueLimit.Overflow.BACKPRESSURE
+                                && !limit.hasSpace(queue.size(), queue.getQueuedBytes());
                     }
+                    published.put(queue, messages.size());
+                    publishedCount += messages.size();
+                    System.out.println("[INFO] 批量发布到队列 " + queueName + " 消息 " + messages.size() + " 条（" + length + " 字节）");
+                    break;
                 }
             }
-            lineOffsets.add(fileSize);
+        } finally {
+            snapshotLock.readLock().unlock();
         }
-
-        public void log(String record) {
-            rwLock.writeLock().lock();
-
-            try {
-                String line = record + "\n";
-                ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
-
-                while (buffer.hasRemaining()) {
-                    channel.write(buffer, channel.size());
-                }
-                channel.force(true);
-                // 记录新行的起始位置，即当前文件大小
-                lineOffsets.add(channel.size());
-
-            } catch (IOException e) {
-                System.err.println("[ERROR] 写入日志失败：" + e.getMessage());
-            } finally {
-                rwLock.writeLock().unlock();
-            }
+        // 同一批次的各组记录通常由同一次 fsync 持久化
+        for (CompletableFuture<Void> durable : durables) {
+            logger.awaitDurable(durable);
         }
-
-        public void close() {
-            try {
-                channel.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        publishedUpTo.forEach(QueueHolder::makeVisible);
+        published.forEach(QueueHolder::wakeConsumers);
+        if (!errors.isEmpty()) {
+            return Result.of("ERROR: 已发布 " + publishedCount + " 条消息，失败: " + String.join(", ", errors));
         }
+        return Result.of("OK: 已发布 " + publishedCount + " 条消息", queueFull);
+    }
 
-        // 快速读取第 n 行 (n从1开始计数)
-        public String readLine(int n) throws IOException {
-            rwLock.readLock().lock();
-            try {
-                if(n < 1 || n >= lineOffsets.size()) {
-                    return null;
-                }
-                // 获取当前行的起始偏移
-                long start = lineOffsets.get(n - 1);
-                long end;
-                if(n < lineOffsets.size() - 1) {
-                    // 下一个行的起始偏移减去当前偏移就是这一行的字节数
-                    end = lineOffsets.get(n) - 1; // 去除换行符
-                } else {
-                    // 如果是最后一行，则到文件末尾
-                    end = channel.size();
-                }
-                int length = (int)(end - start);
-                ByteBuffer buffer = ByteBuffer.allocate(length);
-                channel.read(buffer, start);
-                buffer.flip();
-                return new String(buffer.array(), "UTF-8").trim();
-            } finally {
-                rwLock.readLock().unlock();
-            }
+    /**
+     * 长轮询 CONSUME：队列为空时不占用线程等待，有新消息发布后立即消费，超过 timeoutMillis 仍没有消息时响应 NO_MESSAGE。
+     * respond 只调用一次，可能在发布消息的线程或超时线程上调用
+     */
+    public void consume(String queueName, long timeoutMillis, Consumer<Result> respond) {
+        longPoll.consume(() -> execute(CommandParser.Action.CONSUME, queueName, null, true), result -> result == Result.NO_MESSAGE,
+                () -> queues.get(queueName), timeoutMillis, respond);
+    }
 
+    /**
+     * 推送式订阅（见 {@link Subscription}）：额度内把队列中的消息逐条出队并交给 deliver，与 CONSUME 一样推进消费位置。
+     * 订阅创建时没有额度，由调用方 addCredits 开始推送
+     *
+     * @return 队列不存在时返回 null
+     */
+    public Subscription<Result> subscribe(String queueName, Consumer<Result> deliver, BooleanSupplier writable, Runnable flush) {
+        if (!queues.containsKey(queueName)) {
+            return null;
         }
+        return new Subscription<>(() -> execute(CommandParser.Action.CONSUME, queueName, null, true), result -> result == Result.NO_MESSAGE,
+                result -> result.getMessage() != null, () -> queues.get(queueName), deliver, writable, flush);
+    }
 
-        public static List<String> readLog(String filePath) throws IOException {
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                return Collections.emptyList();
+    /**
+     * 最近一次快照对应的各分区日志位置，还没有快照时返回 null；位置之前的记录已不再需要重放
+     */
+    public long[] getSnapshotPositions() {
+        return lastSnapshotPositions;
+    }
+
+    /**
+     * 读取最近一次写入的快照，没有时返回 null
+     */
+    public QueueSnapshot readSnapshot() throws IOException {
+        return QueueSnapshot.readFrom(snapshotPath);
+    }
+
+    /**
+     * 各分区中最旧的未消费消息所在日志位置的下限（按日志位置标记估计，见 {@link QueueHolder#firstUnconsumedLogOffset}），
+     * 分区中没有未消费的消息时为 Long.MAX_VALUE；保留策略不会删除这之后的记录
+     */
+    public long[] getUnconsumedLogOffsets() {
+        long[] offsets = new long[logger.partitionCount()];
+        Arrays.fill(offsets, Long.MAX_VALUE);
+        queues.forEach((name, queue) -> {
+            int partition = logger.partitionOf(name);
+            synchronized (queue) {
+                offsets[partition] = Math.min(offsets[partition], queue.firstUnconsumedLogOffset());
             }
-            return Files.readAllLines(path, StandardCharsets.UTF_8);
-        }
+        });
+        return offsets;
+    }
+
+    public PartitionedLog getLogger() {
+        return logger;
     }
 }
@@ -0,0 +1,166 @@
+package com.cher.mymq.distributed.master;
+
+import com.cher.mymq.common.LogScanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 启动时的并行日志重放。
+ *
+ * 只有同一队列内的记录需要保持顺序，因此扫描线程只读取记录类型和队列名字节，
+ * 按队列名哈希把记录交给固定的工作线程，解码和执行都在工作线程上完成。
+ * CREATE/DROP 作为屏障：先等所有工作线程处理完之前的记录，再在扫描线程上执行。
+ * 记录按批移交，每个工作线程的待处理批次有上限，内存占用不随日志大小增长。
+ */
+class ParallelReplayer implements LogScanner.RecordHandler {
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_PENDING_BATCHES = 16;
+    private static final Object POISON = new Object();
+
+    /**
+     * 无锁执行一条记录；同一队列的记录只会在同一个线程上按日志顺序调用
+     */
+    interface RecordApplier {
+        void apply(byte type, String queueName, byte[] payload);
+    }
+
+    private final RecordApplier applier;
+    private final Worker[] workers;
+    private volatile Throwable failure;
+
+    ParallelReplayer(int threads, RecordApplier applier) {
+        this.applier = applier;
+        this.workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+    }
+
+    @Override
+    public void onRecord(byte[] buffer, int offset, int length) {
+        byte type = LogRecord.type(buffer, offset);
+        if (type != LogRecord.PUBLISH && type != LogRecord.CONSUME && type != LogRecord.OFFSET) {
+            // 结构变更在所有队列之间串行执行
+            barrier();
+            applySafely(buffer, offset, length);
+            return;
+        }
+        int nameStart = offset + LogRecord.BODY_PREFIX_SIZE;
+        int nameEnd = nameStart + LogRecord.queueLength(buffer, offset);
+        int hash = 0;
+        for (int i = nameStart; i < nameEnd; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        workers[(hash & 0x7fffffff) % workers.length].add(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    /**
+     * 等待所有已分发的记录执行完毕，然后停止工作线程
+     *
+     * @throws IOException 有记录执行失败时抛出
+     */
+    void finish() throws IOException {
+        barrier();
+        for (Worker worker : workers) {
+            worker.put(POISON);
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待重放线程结束时被中断", e);
+            }
+        }
+        if (failure != null) {
+            throw new IOException("并行重放失败: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void barrier() {
+        CountDownLatch latch = new CountDownLatch(workers.length);
+        for (Worker worker : workers) {
+            worker.flush();
+            worker.put(latch);
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void applySafely(byte[] body, int offset, int length) {
+        try {
+            applier.apply(LogRecord.type(body, offset), LogRecord.queueName(body, offset),
+                    LogRecord.payloadBytes(body, offset, length));
+        } catch (RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private class Worker {
+        final Thread thread;
+        final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+        // 扫描线程正在填充的批次
+        List<byte[]> current = new ArrayList<>(BATCH_SIZE);
+
+        Worker(int id) {
+            thread = new Thread(this::run, "ReplayWorker-" + id);
+            thread.setDaemon(true);
+        }
+
+        void add(byte[] record) {
+            current.add(record);
+            if (current.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!current.isEmpty()) {
+                put(current);
+                current = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        void put(Object item) {
+            try {
+                batches.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void run() {
+            while (true) {
+                Object item;
+                try {
+                    item = batches.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item == POISON) {
+                    return;
+                }
+                if (item instanceof CountDownLatch) {
+                    ((CountDownLatch) item).countDown();
+                    continue;
+                }
+                for (byte[] record : (List<byte[]>) item) {
+                    applySafely(record, 0, record.length);
+                }
+            }
+        }
+    }
+}
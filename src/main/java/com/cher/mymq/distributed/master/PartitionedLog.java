@@ -0,0 +1,178 @@
+package com.cher.mymq.distributed.master;
+
+import com.cher.mymq.common.DurabilityPolicy;
+import com.cher.mymq.common.LogScanner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按队列分区的日志：每个分区是一个独立的 {@link PersistentLogger}（各自的段文件、刷盘线程和锁），
+ * 队列按名称哈希固定到一个分区，热点队列不再拖慢其他分区上的队列。
+ *
+ * 同一队列的所有记录（包括 CREATE/DROP）都在同一分区内按顺序保存，而不同队列的命令互不影响，
+ * 因此重放时各分区之间不需要保持顺序。分区数为 1 时直接使用日志目录，与未分区时的布局相同；
+ * 大于 1 时各分区位于 partition-NN 子目录。分区数记录在 partitions 文件中，之后的启动以它为准，
+ * 避免修改配置后同一队列的历史分散到不同分区。
+ */
+public class PartitionedLog {
+    private static final String PARTITIONS_FILE = "partitions";
+
+    private final PersistentLogger[] partitions;
+    // 保留策略：每个分区的大小上限（字节）与保留时间（毫秒），负数表示不限制
+    private final long retentionBytes;
+    private final long retentionMillis;
+
+    public PartitionedLog(MasterConfig config) throws IOException {
+        this.retentionBytes = config.getRetentionBytes();
+        this.retentionMillis = config.getRetentionMillis();
+        Path dir = Paths.get(config.getLogDir());
+        Files.createDirectories(dir);
+        int count = resolvePartitionCount(dir, Math.max(1, config.getLogPartitions()));
+        partitions = new PersistentLogger[count];
+        for (int i = 0; i < count; i++) {
+            String partitionDir = count == 1 ? config.getLogDir() : dir.resolve(String.format("partition-%02d", i)).toString();
+            partitions[i] = new PersistentLogger(partitionDir, config.getGroupCommitMaxBatchSize(),
+                    config.getGroupCommitMaxLingerMicros(), config.getSegmentBytes(),
+                    PersistentLogger.DEFAULT_INDEX_INTERVAL_BYTES);
+        }
+    }
+
+    private static int resolvePartitionCount(Path dir, int configured) throws IOException {
+        Path file = dir.resolve(PARTITIONS_FILE);
+        int stored = -1;
+        if (Files.exists(file)) {
+            stored = Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } else if (!PersistentLogger.listBaseOffsets(dir).isEmpty()
+                || Files.exists(Paths.get(dir + LogSegment.LOG_SUFFIX))) {
+            // 分区功能之前写入的日志
+            stored = 1;
+        }
+        if (stored > 0) {
+            if (stored != configured) {
+                System.out.println("[WARN] 日志目录已按 " + stored + " 个分区写入，忽略配置的分区数 " + configured);
+            }
+            return stored;
+        }
+        Files.write(file, String.valueOf(configured).getBytes(StandardCharsets.UTF_8));
+        return configured;
+    }
+
+    public int partitionCount() {
+        return partitions.length;
+    }
+
+    public int partitionOf(String queueName) {
+        return (queueName.hashCode() & 0x7fffffff) % partitions.length;
+    }
+
+    /**
+     * 把记录加入队列所在分区的待提交批次，见 {@link PersistentLogger#append}
+     */
+    public CompletableFuture<Void> append(byte type, String queueName, byte[] payload, DurabilityPolicy policy) {
+        return partitions[partitionOf(queueName)].append(type, queueName, payload, policy);
+    }
+
+    /**
+     * 把同一队列的一组记录整体加入所在分区的待提交批次，见 {@link PersistentLogger#appendAll}
+     */
+    public CompletableFuture<Void> appendAll(byte type, String queueName, List<byte[]> payloads, DurabilityPolicy policy) {
+        return partitions[partitionOf(queueName)].appendAll(type, queueName, payloads, policy);
+    }
+
+    public void awaitDurable(CompletableFuture<Void> durable) {
+        partitions[0].awaitDurable(durable);
+    }
+
+    /**
+     * 队列所在分区中对读者可见的记录数：此后 append 的记录在该分区中的序号（从 0 开始）都不小于它
+     */
+    public long nextOffset(String queueName) {
+        return partitions[partitionOf(queueName)].nextOffset();
+    }
+
+    /**
+     * 各分区已加入批次的记录总数，仅在没有并发 append 时（如快照屏障内）是精确的日志位置
+     */
+    public long[] appendedOffsets() {
+        long[] offsets = new long[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            offsets[i] = partitions[i].appendedOffset();
+        }
+        return offsets;
+    }
+
+    /**
+     * 等待各分区此前加入批次的记录全部写入，再全部刷盘
+     */
+    public void sync() throws IOException {
+        for (PersistentLogger partition : partitions) {
+            partition.awaitDurable(partition.lastAppended());
+        }
+        for (PersistentLogger partition : partitions) {
+            partition.sync();
+        }
+    }
+
+    /**
+     * 依次扫描各分区从 fromOffsets[i]（含）开始的记录
+     *
+     * @return 扫描到的记录总数
+     */
+    public long scanLog(long[] fromOffsets, LogScanner.RecordHandler handler) throws IOException {
+        long total = 0;
+        for (int i = 0; i < partitions.length; i++) {
+            total += partitions[i].scanLog(fromOffsets[i], handler);
+        }
+        return total;
+    }
+
+    /**
+     * 读取分区 partition 中的第 n 条记录（n 从 1 开始计数）
+     */
+    public String readLine(int partition, int n) throws IOException {
+        return partitions[partition].readLine(n);
+    }
+
+    /**
+     * 按保留策略删除各分区中全部记录都在 safeOffsets[i] 之前的旧段，见 {@link PersistentLogger#deleteSegments}
+     *
+     * @return 删除的段数
+     */
+    public int deleteSegments(long[] safeOffsets) throws IOException {
+        int deleted = 0;
+        for (int i = 0; i < partitions.length; i++) {
+            deleted += partitions[i].deleteSegments(safeOffsets[i], retentionBytes, retentionMillis);
+        }
+        return deleted;
+    }
+
+    public long firstOffset(int partition) {
+        return partitions[partition].firstOffset();
+    }
+
+    public String getStatsSummary() {
+        if (partitions.length == 1) {
+            return partitions[0].getStatsSummary();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < partitions.length; i++) {
+            if (i > 0) {
+                builder.append("; ");
+            }
+            builder.append("分区").append(i).append(": ").append(partitions[i].getStatsSummary());
+        }
+        return builder.toString();
+    }
+
+    public void close() {
+        for (PersistentLogger partition : partitions) {
+            partition.close();
+        }
+    }
+}
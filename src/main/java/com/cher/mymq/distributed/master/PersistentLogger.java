@@ -0,0 +1,667 @@
+package com.cher.mymq.distributed.master;
+
+import com.cher.mymq.common.DurabilityPolicy;
+import com.cher.mymq.common.FlushTracker;
+import com.cher.mymq.common.LogScanner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 分段滚动的持久化日志，支持组提交。
+ *
+ * 日志目录下每个段由 {@link LogSegment} 管理：活跃段写满 segmentBytes 后被封存并只读映射，
+ * 之后的记录写入新段。记录按全局序号编号，读取第 n 条只需定位段、查稀疏索引再跳过少量记录。
+ * 记录以 {@link LogRecord} 二进制格式存储，旧版文本格式的日志在启动时自动转换。
+ *
+ * 每条记录带有持久化策略：批次中有 SYNC_EACH 记录时整批 fsync 后才释放调用方；
+ * 否则写入后立即释放，SYNC_INTERVAL 记录由刷盘线程在截止时间前 fsync，ASYNC 记录不主动 fsync。
+ */
+public class PersistentLogger {
+    // 组提交默认配置：单批最多记录数、最长等待时间（微秒，0 表示不额外等待）
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_MAX_LINGER_MICROS = 0;
+    // 分段默认配置：单段大小、稀疏索引间隔（字节）
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL_BYTES = 4096;
+    // 段内位置用 int 记录，单段大小需留出一个批次的余量
+    private static final long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024;
+    // 文本格式日志段转换期间的存放目录，转换完成后加上 .migrated 后缀保留
+    private static final String TEXT_SEGMENTS_DIR = "text-segments";
+
+    private final Path logDir;
+    private final long segmentBytes;
+    private final int indexIntervalBytes;
+
+    // 所有段，按起始序号排序；最后一个为活跃段
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private volatile LogSegment activeSegment;
+
+    // 使用读写锁，允许多个并发读取，段滚动时独占
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    // 组提交：调用方把记录放入待提交队列，由刷盘线程批量写入并只 fsync 一次
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final LinkedBlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final Thread flushThread;
+    private volatile boolean closed = false;
+    // 已加入批次（含尚未刷盘）的记录总数，以及最近一条加入批次的记录，供快照确定日志位置
+    private final AtomicLong appendedOffset = new AtomicLong();
+    private volatile CompletableFuture<Void> lastAppended = CompletableFuture.completedFuture(null);
+
+    // 最早需要定时刷盘的时间（纳秒），没有待刷盘的 SYNC_INTERVAL 记录时为 Long.MAX_VALUE，只由刷盘线程访问
+    private long flushDeadlineNanos = Long.MAX_VALUE;
+    private final FlushTracker flushTracker = new FlushTracker();
+
+    // 统计：批次数、记录数、最大批大小、fsync 次数、总耗时与最大耗时
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong maxBatchRecords = new AtomicLong();
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong fsyncNanosTotal = new AtomicLong();
+    private final AtomicLong fsyncNanosMax = new AtomicLong();
+
+    // 等待写入的记录，按持久化策略写入（或刷盘）后通过 future 释放调用方；bytes 为 null 表示立即刷盘的请求。
+    // batch 不为 null 时是一组连续的记录（批量发布），整组进入同一批次
+    private static class PendingRecord {
+        final byte[] bytes;
+        final List<byte[]> batch;
+        final DurabilityPolicy policy;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingRecord(byte[] bytes, DurabilityPolicy policy) {
+            this(bytes, null, policy);
+        }
+
+        PendingRecord(byte[] bytes, List<byte[]> batch, DurabilityPolicy policy) {
+            this.bytes = bytes;
+            this.batch = batch;
+            this.policy = policy;
+        }
+    }
+
+    public PersistentLogger(String logDir) throws IOException {
+        this(logDir, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LINGER_MICROS);
+    }
+
+    public PersistentLogger(String logDir, int maxBatchSize, long maxLingerMicros) throws IOException {
+        this(logDir, maxBatchSize, maxLingerMicros, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_INTERVAL_BYTES);
+    }
+
+    /**
+     * @param logDir             日志目录
+     * @param maxBatchSize       单次组提交最多包含的记录数
+     * @param maxLingerMicros    凑批的最长等待时间（微秒），0 表示只合并已到达的记录
+     * @param segmentBytes       单个日志段的大小上限，超过后滚动到新段
+     * @param indexIntervalBytes 稀疏索引的间隔，越小定位越快、索引越大
+     */
+    public PersistentLogger(String logDir, int maxBatchSize, long maxLingerMicros,
+                            long segmentBytes, int indexIntervalBytes) throws IOException {
+        this.logDir = Paths.get(logDir);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxLingerMicros));
+        this.segmentBytes = Math.min(Math.max(1, segmentBytes), MAX_SEGMENT_BYTES);
+        this.indexIntervalBytes = Math.max(1, indexIntervalBytes);
+        Files.createDirectories(this.logDir);
+        List<Path> textSegments = moveTextSegments();
+        loadSegments();
+        for (Path textSegment : textSegments) {
+            appendTextLog(textSegment);
+        }
+        if (!textSegments.isEmpty()) {
+            Path textDir = this.logDir.resolve(TEXT_SEGMENTS_DIR);
+            Files.move(textDir, Paths.get(textDir + ".migrated"));
+            System.out.println("[INFO] 文本格式日志段已转换为二进制格式，共 " + nextOffset() + " 条记录");
+        }
+        migrateLegacyLog();
+        appendedOffset.set(nextOffset());
+        flushThread = new Thread(this::flushLoop, "LogFlushThread");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * 扫描日志目录，封存段只读映射，最后一段作为活跃段打开
+     */
+    private void loadSegments() throws IOException {
+        List<Long> baseOffsets = listBaseOffsets(logDir);
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            long base = baseOffsets.get(i);
+            LogSegment segment;
+            if (i < baseOffsets.size() - 1) {
+                segment = LogSegment.openSealed(logDir, base, baseOffsets.get(i + 1) - base, indexIntervalBytes);
+            } else {
+                segment = LogSegment.openActive(logDir, base, indexIntervalBytes, appendWindowBytes());
+            }
+            segments.put(base, segment);
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, LogSegment.openActive(logDir, 0, indexIntervalBytes, appendWindowBytes()));
+        }
+        activeSegment = segments.lastEntry().getValue();
+    }
+
+    // 追加映射窗口不超过段大小，避免小段预分配过多空间
+    private int appendWindowBytes() {
+        return (int) Math.min(LogSegment.DEFAULT_APPEND_WINDOW_BYTES, segmentBytes + indexIntervalBytes);
+    }
+
+    static List<Long> listBaseOffsets(Path dir) throws IOException {
+        List<Long> baseOffsets = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + LogSegment.LOG_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length())));
+            }
+        }
+        baseOffsets.sort(Long::compare);
+        return baseOffsets;
+    }
+
+    /**
+     * 把旧版文本格式的日志段移到 text-segments 目录，返回其中按顺序排列的数据文件，稍后逐条重新追加。
+     * 如果该目录已存在，说明上次转换中途退出，丢弃已转换的部分后重新转换。
+     */
+    private List<Path> moveTextSegments() throws IOException {
+        Path textDir = logDir.resolve(TEXT_SEGMENTS_DIR);
+        List<Long> baseOffsets = listBaseOffsets(logDir);
+        if (Files.isDirectory(textDir)) {
+            for (long base : baseOffsets) {
+                Files.deleteIfExists(logDir.resolve(LogSegment.fileName(base) + LogSegment.LOG_SUFFIX));
+                Files.deleteIfExists(logDir.resolve(LogSegment.fileName(base) + LogSegment.INDEX_SUFFIX));
+                Files.deleteIfExists(logDir.resolve(LogSegment.fileName(base) + LogSegment.TIMESTAMP_SUFFIX));
+            }
+        } else {
+            if (baseOffsets.isEmpty()
+                    || !LogSegment.isTextFormat(logDir.resolve(LogSegment.fileName(baseOffsets.get(0)) + LogSegment.LOG_SUFFIX))) {
+                return new ArrayList<>();
+            }
+            System.out.println("[INFO] 检测到文本格式的日志段，正在转换为二进制格式...");
+            Files.createDirectories(textDir);
+            for (long base : baseOffsets) {
+                Path index = logDir.resolve(LogSegment.fileName(base) + LogSegment.INDEX_SUFFIX);
+                Files.move(logDir.resolve(LogSegment.fileName(base) + LogSegment.LOG_SUFFIX),
+                        textDir.resolve(LogSegment.fileName(base) + LogSegment.LOG_SUFFIX));
+                Files.deleteIfExists(index);
+            }
+        }
+        List<Path> textSegments = new ArrayList<>();
+        for (long base : listBaseOffsets(textDir)) {
+            textSegments.add(textDir.resolve(LogSegment.fileName(base) + LogSegment.LOG_SUFFIX));
+        }
+        return textSegments;
+    }
+
+    /**
+     * 兼容旧版本的单文件日志（与目录同名的 .log 文件）：逐条追加到分段日志后改名保留
+     */
+    private void migrateLegacyLog() throws IOException {
+        Path legacy = Paths.get(logDir.toString() + LogSegment.LOG_SUFFIX);
+        if (!Files.isRegularFile(legacy) || nextOffset() > 0) {
+            return;
+        }
+        System.out.println("[INFO] 正在迁移旧版日志文件: " + legacy);
+        appendTextLog(legacy);
+        Files.move(legacy, Paths.get(legacy + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("[INFO] 旧版日志迁移完毕，共 " + nextOffset() + " 条记录");
+    }
+
+    /**
+     * 流式读取文本格式的日志文件，把每行命令编码为二进制记录后批量追加（在刷盘线程启动前调用）
+     */
+    private void appendTextLog(Path textLog) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        long[] batchBytes = {0};
+        LogScanner scanner = new LogScanner("日志转换", Files.size(textLog));
+        scanner.scan(textLog, 0, -1, (buffer, offset, length) -> {
+            String command = new String(buffer, offset, length, StandardCharsets.UTF_8);
+            byte[] record = LogRecord.fromCommand(command);
+            if (record == null) {
+                System.out.println("[WARN] 跳过无法识别的日志行: " + command);
+                return;
+            }
+            batch.add(record);
+            batchBytes[0] += record.length;
+            if (batchBytes[0] >= indexIntervalBytes * 16L) {
+                appendBatch(batch, true);
+                batch.clear();
+                batchBytes[0] = 0;
+            }
+        });
+        if (!batch.isEmpty()) {
+            appendBatch(batch, true);
+        }
+        scanner.finish();
+    }
+
+    /**
+     * 写入一条记录，并阻塞到该记录随所在批次刷盘后返回
+     */
+    public void log(byte type, String queueName, byte[] payload) {
+        awaitDurable(append(type, queueName, payload, DurabilityPolicy.SYNC_EACH));
+    }
+
+    /**
+     * 把记录加入待提交批次，立即返回；调用方可先释放队列锁，再通过 {@link #awaitDurable} 等待刷盘。
+     * 同一线程先后 append 的记录，在日志中的顺序与 append 顺序一致。
+     *
+     * @param type      记录类型，见 {@link LogRecord}
+     * @param queueName 队列名
+     * @param payload   消息内容的原始字节，没有时传 null
+     * @param policy    持久化策略，决定返回的 future 在写入后还是刷盘后完成
+     */
+    public CompletableFuture<Void> append(byte type, String queueName, byte[] payload, DurabilityPolicy policy) {
+        PendingRecord pendingRecord = new PendingRecord(LogRecord.encode(type, queueName, payload), policy);
+        if (closed) {
+            pendingRecord.durable.completeExceptionally(new IOException("日志已关闭"));
+        } else {
+            appendedOffset.incrementAndGet();
+            pending.offer(pendingRecord);
+            lastAppended = pendingRecord.durable;
+        }
+        return pendingRecord.durable;
+    }
+
+    /**
+     * 把同一队列的一组同类型记录作为整体加入待提交批次：整组在日志中连续，一次写入，最多一次 fsync
+     *
+     * @see #append
+     */
+    public CompletableFuture<Void> appendAll(byte type, String queueName, List<byte[]> payloads, DurabilityPolicy policy) {
+        List<byte[]> records = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            records.add(LogRecord.encode(type, queueName, payload));
+        }
+        PendingRecord pendingRecord = new PendingRecord(null, records, policy);
+        if (closed) {
+            pendingRecord.durable.completeExceptionally(new IOException("日志已关闭"));
+        } else {
+            appendedOffset.addAndGet(records.size());
+            pending.offer(pendingRecord);
+            lastAppended = pendingRecord.durable;
+        }
+        return pendingRecord.durable;
+    }
+
+    /**
+     * 立即刷盘：等待此前加入批次的所有记录写入并 fsync
+     */
+    public void sync() throws IOException {
+        PendingRecord request = new PendingRecord(null, DurabilityPolicy.SYNC_EACH);
+        if (closed) {
+            return;
+        }
+        pending.offer(request);
+        try {
+            request.durable.join();
+        } catch (CompletionException e) {
+            throw new IOException("日志刷盘失败", e.getCause());
+        }
+    }
+
+    /**
+     * 已加入批次的记录总数（含尚未刷盘的记录）。仅在没有并发 append 时（如快照屏障内）是精确的日志位置。
+     */
+    public long appendedOffset() {
+        return appendedOffset.get();
+    }
+
+    /**
+     * 最近一条加入批次的记录的 future；批次按顺序写入，它完成时之前的记录也都已写入（SYNC_EACH 时已持久化）
+     */
+    public CompletableFuture<Void> lastAppended() {
+        return lastAppended;
+    }
+
+    /**
+     * 等待记录刷盘，失败时与原有实现一致只输出错误
+     */
+    public void awaitDurable(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            System.err.println("[ERROR] 写入日志失败：" + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * 刷盘线程：取出一批记录一次写入，按批次中最严格的持久化策略决定是否 fsync，然后释放这一批的所有调用方；
+     * 空闲时检查 SYNC_INTERVAL 记录的刷盘截止时间
+     */
+    private void flushLoop() {
+        List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+        List<byte[]> records = new ArrayList<>(maxBatchSize);
+        while (!closed || !pending.isEmpty()) {
+            try {
+                long waitNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(100), flushDeadlineNanos - System.nanoTime());
+                PendingRecord first = waitNanos > 0 ? pending.poll(waitNanos, TimeUnit.NANOSECONDS) : pending.poll();
+                if (first == null) {
+                    if (System.nanoTime() >= flushDeadlineNanos) {
+                        forceActive();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingRecord next = pending.poll();
+                    if (next == null) {
+                        long lingerNanos = deadline - System.nanoTime();
+                        if (lingerNanos <= 0) {
+                            break;
+                        }
+                        next = pending.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+                boolean sync = false;
+                long intervalNanos = Long.MAX_VALUE;
+                for (PendingRecord record : batch) {
+                    if (record.bytes != null) {
+                        records.add(record.bytes);
+                        flushTracker.written(record.policy, record.bytes.length);
+                    } else if (record.batch != null) {
+                        for (byte[] bytes : record.batch) {
+                            records.add(bytes);
+                            flushTracker.written(record.policy, bytes.length);
+                        }
+                    }
+                    switch (record.policy.getMode()) {
+                        case SYNC_EACH:
+                            sync = true;
+                            break;
+                        case SYNC_INTERVAL:
+                            intervalNanos = Math.min(intervalNanos,
+                                    TimeUnit.MILLISECONDS.toNanos(record.policy.getIntervalMillis()));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                try {
+                    appendBatch(records, sync || System.nanoTime() >= flushDeadlineNanos);
+                    if (intervalNanos != Long.MAX_VALUE && flushDeadlineNanos == Long.MAX_VALUE) {
+                        flushDeadlineNanos = System.nanoTime() + intervalNanos;
+                    }
+                    for (PendingRecord record : batch) {
+                        record.durable.complete(null);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 只让这一批失败，刷盘线程继续运行，否则之后所有等待持久化的调用方都会一直阻塞
+                    for (PendingRecord record : batch) {
+                        record.durable.completeExceptionally(e);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[ERROR] 日志定时刷盘失败：" + e.getMessage());
+                // 已取出但尚未处理的记录同样按失败返回（已完成的 future 不受影响）
+                for (PendingRecord record : batch) {
+                    record.durable.completeExceptionally(e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+                records.clear();
+            }
+        }
+        try {
+            forceActive();
+        } catch (IOException e) {
+            System.err.println("[ERROR] 关闭日志时刷盘失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 把一批记录写入活跃段，sync 为 true 时 fsync 一次；活跃段已满时先滚动到新段。
+     * 需要刷盘的批次在刷盘成功后才登记索引，保证复制线程只会读到已持久化的记录；
+     * 不需要刷盘的批次（ASYNC、SYNC_INTERVAL 未到期）写入后即对读者可见，与其持久化保证一致。
+     * 写入或刷盘失败时丢弃这一批未提交的数据，之后的批次从原位置重新写入
+     */
+    private void appendBatch(List<byte[]> records, boolean sync) throws IOException {
+        if (!records.isEmpty()) {
+            LogSegment segment = activeSegment;
+            if (segment.getSize() >= segmentBytes && segment.getRecordCount() > 0) {
+                roll();
+            }
+        }
+        LogSegment segment = activeSegment;
+        try {
+            if (!records.isEmpty()) {
+                segment.write(records);
+                if (!sync) {
+                    segment.commit(records);
+                }
+                recordBatch(records.size());
+            }
+            if (sync) {
+                forceActive();
+                if (!records.isEmpty()) {
+                    segment.commit(records);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            segment.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * fsync 活跃段，再把新登记的索引项写入索引文件，保证索引文件只指向已持久化的记录
+     */
+    private void forceActive() throws IOException {
+        long[] flushing = flushTracker.beginFlush();
+        LogSegment segment = activeSegment;
+        long fsyncStart = System.nanoTime();
+        segment.force();
+        recordFsync(System.nanoTime() - fsyncStart);
+        segment.flushIndex();
+        flushTracker.endFlush(flushing);
+        flushDeadlineNanos = Long.MAX_VALUE;
+    }
+
+    private void roll() throws IOException {
+        // 封存前先刷盘，旧段中未刷盘的记录随之持久化
+        forceActive();
+        rwLock.writeLock().lock();
+        try {
+            LogSegment old = activeSegment;
+            old.seal();
+            long base = old.getBaseOffset() + old.getRecordCount();
+            LogSegment segment = LogSegment.openActive(logDir, base, indexIntervalBytes, appendWindowBytes());
+            segments.put(base, segment);
+            activeSegment = segment;
+            System.out.println("[INFO] 日志段已滚动: " + old.getLogPath().getFileName() + " -> "
+                    + segment.getLogPath().getFileName());
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private void recordBatch(int batchSize) {
+        batchCount.incrementAndGet();
+        recordCount.addAndGet(batchSize);
+        maxBatchRecords.accumulateAndGet(batchSize, Math::max);
+    }
+
+    private void recordFsync(long nanos) {
+        fsyncCount.incrementAndGet();
+        fsyncNanosTotal.addAndGet(nanos);
+        fsyncNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : recordCount.get() / (double) batches;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchRecords.get();
+    }
+
+    public long getFsyncCount() {
+        return fsyncCount.get();
+    }
+
+    public double getAverageFsyncMillis() {
+        long fsyncs = fsyncCount.get();
+        return fsyncs == 0 ? 0 : fsyncNanosTotal.get() / (double) fsyncs / 1_000_000;
+    }
+
+    public FlushTracker getFlushTracker() {
+        return flushTracker;
+    }
+
+    public double getMaxFsyncMillis() {
+        return fsyncNanosMax.get() / 1_000_000.0;
+    }
+
+    public String getStatsSummary() {
+        return String.format("批次数=%d, 记录数=%d, 平均批大小=%.2f, 最大批大小=%d, fsync次数=%d, 平均fsync(ms)=%.3f, 最大fsync(ms)=%.3f, 段数=%d, %s",
+                getBatchCount(), getRecordCount(), getAverageBatchSize(), getMaxBatchSize(), getFsyncCount(),
+                getAverageFsyncMillis(), getMaxFsyncMillis(), segments.size(), flushTracker.getSummary());
+    }
+
+    /**
+     * 按保留策略删除最旧的封存段：只删除全部记录都在 safeOffset 之前的段，
+     * 并且日志总大小超过 retentionBytes 或段封存已超过 retentionMillis（负数表示不限制）。
+     * 只在移出段表时短暂持有写锁，不影响刷盘线程追加活跃段。
+     *
+     * @return 删除的段数
+     */
+    public int deleteSegments(long safeOffset, long retentionBytes, long retentionMillis) throws IOException {
+        long totalBytes = 0;
+        for (LogSegment segment : segments.values()) {
+            totalBytes += segment.getSize();
+        }
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        for (LogSegment segment : segments.values()) {
+            if (segment == activeSegment || segment.getBaseOffset() + segment.getRecordCount() > safeOffset) {
+                break;
+            }
+            boolean overSize = retentionBytes >= 0 && totalBytes > retentionBytes;
+            boolean expired = retentionMillis >= 0 && now - segment.getSealedMillis() >= retentionMillis;
+            if (!overSize && !expired) {
+                break;
+            }
+            rwLock.writeLock().lock();
+            try {
+                segments.remove(segment.getBaseOffset());
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+            segment.delete();
+            totalBytes -= segment.getSize();
+            deleted++;
+            System.out.println("[INFO] 日志段已按保留策略删除: " + segment.getLogPath().getFileName()
+                    + (overSize ? "（超过大小上限）" : "（超过保留时间）"));
+        }
+        return deleted;
+    }
+
+    /**
+     * 保留的最早一条记录的全局序号
+     */
+    public long firstOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * 下一条记录的全局序号（从 0 开始），即对读者可见的记录总数
+     */
+    public long nextOffset() {
+        LogSegment segment = activeSegment;
+        return segment.getBaseOffset() + segment.getRecordCount();
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            flushThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // 快速读取第 n 条记录并还原为文本命令 (n从1开始计数)
+    public String readLine(int n) throws IOException {
+        rwLock.readLock().lock();
+        try {
+            long offset = n - 1L;
+            if (offset < 0) {
+                return null;
+            }
+            Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+            if (entry == null) {
+                return null;
+            }
+            return entry.getValue().read(offset - entry.getKey());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从全局序号 fromOffset（含）开始，按顺序流式扫描各日志段中的记录，回调收到的是记录体（见 {@link LogRecord}）。
+     * 每次只在内存中保留一个读取块，占用与日志总大小无关。
+     *
+     * @return 扫描到的记录数
+     */
+    public long scanLog(long fromOffset, LogScanner.RecordHandler handler) throws IOException {
+        Long firstBase = segments.floorKey(Math.max(0, fromOffset));
+        if (firstBase == null) {
+            firstBase = segments.firstKey();
+        }
+        List<LogSegment> toScan = new ArrayList<>(segments.tailMap(firstBase, true).values());
+        long[] startPositions = new long[toScan.size()];
+        long totalBytes = 0;
+        for (int i = 0; i < toScan.size(); i++) {
+            LogSegment segment = toScan.get(i);
+            startPositions[i] = segment.positionOf(fromOffset - segment.getBaseOffset());
+            totalBytes += segment.getSize() - startPositions[i];
+        }
+        LogScanner scanner = new BinaryLogScanner("日志重放", totalBytes);
+        for (int i = 0; i < toScan.size(); i++) {
+            LogSegment segment = toScan.get(i);
+            scanner.scan(segment.getLogPath(), startPositions[i], segment.getSize(), handler);
+        }
+        scanner.finish();
+        return scanner.getRecordCount();
+    }
+}
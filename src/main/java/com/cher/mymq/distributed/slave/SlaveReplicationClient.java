@@ -1,5 +1,6 @@
 package com.cher.mymq.distributed.slave;
 
+import com.cher.mymq.distributed.master.MasterReplicaHandler;
 import com.cher.mymq.distributed.master.MessageQueueBusinessLogic;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
@@ -16,9 +17,9 @@ public class SlaveReplicationClient {
     private static final String MASTER_HOST = "localhost";
     private static final int MASTER_PORT = 8888;
 
-    private static final String LOG_FILE_PATH = "messagequeue_02.log";
+    private static final String LOG_DIR = "messagequeue_02";
     // 本地业务逻辑对象
-    private static final MessageQueueBusinessLogic businessLogic = new MessageQueueBusinessLogic(LOG_FILE_PATH);
+    private static final MessageQueueBusinessLogic businessLogic = new MessageQueueBusinessLogic(LOG_DIR);
 
     private static final EventLoopGroup group = new NioEventLoopGroup();
     private static final Bootstrap bootstrap = new Bootstrap();
@@ -38,7 +39,8 @@ public class SlaveReplicationClient {
                     @Override
                     protected void initChannel(Channel ch) {
                         ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast(new LineBasedFrameDecoder(1024));
+                        // 二进制协议发布的消息可能超过 1 KB
+                        pipeline.addLast(new LineBasedFrameDecoder(MasterReplicaHandler.MAX_LINE_LENGTH));
                         pipeline.addLast(new StringDecoder(CharsetUtil.UTF_8));
                         pipeline.addLast(new StringEncoder(CharsetUtil.UTF_8));
                         pipeline.addLast(new SlaveReplicationHandler(businessLogic));
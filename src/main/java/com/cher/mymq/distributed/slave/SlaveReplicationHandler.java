@@ -1,5 +1,6 @@
 package com.cher.mymq.distributed.slave;
 
+import com.cher.mymq.distributed.master.MasterReplicaHandler;
 import com.cher.mymq.distributed.master.MessageQueueBusinessLogic;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -13,11 +14,29 @@ public class SlaveReplicationHandler extends SimpleChannelInboundHandler<String>
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        String command = msg.trim();
+        // 复制行格式：分区 序号 命令
+        String[] parts = msg.trim().split(" ", 3);
+        if (parts.length < 3) {
+            System.out.println("[WARN] 无效的复制数据: " + msg);
+            return;
+        }
+        String[] commandParts = parts[2].split(" ", 3);
+        if (commandParts.length < 2) {
+            System.out.println("[WARN] 无效的复制数据: " + msg);
+            return;
+        }
+        // 消息部分在复制行中经过转义（可能包含换行或任意字节），还原为原始字节后直接执行，不再拼回文本命令
+        byte[] payload = commandParts.length < 3 ? null : MasterReplicaHandler.unescapeMessage(commandParts[2]);
         // 从节点在同步模式下，不写日志（shouldLog = false）
-        String response = businessLogic.applyCommand(command, false);
-        System.out.println("[Slave] 同步命令: " + command + " -> " + response);
-        // 可选：回复心跳或状态
+        MessageQueueBusinessLogic.Result response = businessLogic.execute(commandParts[0], commandParts[1], payload, false);
+        System.out.println("[Slave] 同步命令: " + parts[2] + " -> " + response.getStatus());
+        // 确认已应用，主节点据此判断哪些日志段可以删除；同一次读取中的确认一起发送
+        ctx.write("ACK " + parts[0] + " " + parts[1] + "\n");
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        ctx.flush();
     }
 
     @Override
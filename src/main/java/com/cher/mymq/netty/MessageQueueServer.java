@@ -1,49 +1,64 @@
 package com.cher.mymq.netty;
 
+import com.cher.mymq.common.CommandParser;
+import com.cher.mymq.common.CompactQueue;
+import com.cher.mymq.common.ConsumeBatch;
+import com.cher.mymq.common.DurabilityConfig;
+import com.cher.mymq.common.DurabilityPolicy;
+import com.cher.mymq.common.LogFlusher;
+import com.cher.mymq.common.LogScanner;
+import com.cher.mymq.common.LongPollConsumer;
+import com.cher.mymq.common.PublishBatch;
+import com.cher.mymq.common.QueueBackendConfig;
+import com.cher.mymq.common.QueueSnapshot;
+import com.cher.mymq.common.Subscription;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class MessageQueueServer {
     private static final String LOG_FILE = "messagequeue.log";
+    private static final String SNAPSHOT_FILE = "messagequeue.snapshot";
+    public static final String MESSAGE_PREFIX = "MESSAGE: ";
 
-    // 封装队列和锁
-    public static class QueueHolder {
-        private final LinkedBlockingQueue<String> queue;
-        private final ReentrantReadWriteLock lock;
-
-        public QueueHolder() {
-            this.queue = new LinkedBlockingQueue<>();
-            this.lock = new ReentrantReadWriteLock();
-        }
-
-        public boolean offer(String e) {
-            return queue.offer(e);
-        }
-
-        public String poll() {
-            return queue.poll();
-        }
-
-        public ReentrantReadWriteLock.WriteLock writeLock() {
-            return lock.writeLock();
+    // 空闲队列只占容器本身，存储结构按需创建、变空后在快照时释放（见 CompactQueue）；
+    // 需要与日志保持顺序的操作对 QueueHolder 加 synchronized，不再为每个队列分配读写锁
+    public static class QueueHolder extends CompactQueue<String> {
+        public QueueHolder(QueueBackendConfig.Type type) {
+            super(type);
         }
     }
 
     // 用于管理所有队列
     private ConcurrentHashMap<String, QueueHolder> queues = new ConcurrentHashMap<>();
-    // 用于保护队列集合结构修改（CREATE/DROP）的全局锁
-    private final ReentrantLock structureLock = new ReentrantLock();
 
     // 持久化日志工具
     private PersistentLogger logger;
+    // 持久化策略：服务端默认策略及按队列的覆盖（-Dmymq.durability / -Dmymq.durability.queue.<队列名>）
+    private final DurabilityConfig durability = DurabilityConfig.fromSystemProperties();
+    // 队列存储结构：默认实现及按队列的覆盖（-Dmymq.queue.backend / -Dmymq.queue.backend.queue.<队列名>）
+    private final QueueBackendConfig queueBackends = QueueBackendConfig.fromSystemProperties();
+    // 长轮询 CONSUME 的等待与超时
+    private final LongPollConsumer<String> longPoll = new LongPollConsumer<>("LongPollTimer");
+
+    // 快照屏障：记录日志的命令持有读锁，生成快照时短暂持有写锁复制队列内容并确定日志位置
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // 最近一次快照对应的日志位置（字节偏移），没有新日志时跳过快照
+    private volatile long lastSnapshotPosition = -1;
 
     public MessageQueueServer() {
         try {
@@ -54,12 +69,133 @@ public class MessageQueueServer {
         }
     }
 
+    /**
+     * 执行客户端命令，通过 respond 返回响应。CONSUME queueName timeoutMs 为长轮询：
+     * 队列为空时不占用线程等待，有新消息发布或超时后才响应；其他命令与 applyCommand 相同
+     */
+    public void handleCommand(String command, Consumer<String> respond) {
+        CommandParser parser = CommandParser.local();
+        if (parser.parse(command) && parser.action() == CommandParser.Action.CONSUME && parser.hasPayload()) {
+            long timeoutMillis;
+            try {
+                timeoutMillis = parser.payloadAsLong();
+            } catch (NumberFormatException e) {
+                respond.accept("ERROR: 无效的等待时间");
+                return;
+            }
+            consume(parser.queueName(), timeoutMillis, respond);
+            return;
+        }
+        respond.accept(applyCommand(command, true));
+    }
+
+    /**
+     * 执行已拆分的命令（二进制协议的帧直接调用，不再拼回文本命令重新解析），其他与 handleCommand 相同
+     *
+     * @param payload 命令的第三部分，没有时为 null
+     */
+    public void handle(CommandParser.Action action, String queueName, String payload, Consumer<String> respond) {
+        if (action == CommandParser.Action.CONSUME && payload != null) {
+            long timeoutMillis;
+            try {
+                timeoutMillis = Long.parseLong(payload.trim());
+            } catch (NumberFormatException e) {
+                respond.accept("ERROR: 无效的等待时间");
+                return;
+            }
+            consume(queueName, timeoutMillis, respond);
+            return;
+        }
+        respond.accept(execute(action, queueName, payload, null, true));
+    }
+
+    // 长轮询 CONSUME，见 handleCommand
+    private void consume(String queueName, long timeoutMillis, Consumer<String> respond) {
+        longPoll.consume(() -> execute(CommandParser.Action.CONSUME, queueName, null, null, true), "NO_MESSAGE"::equals,
+                () -> queues.get(queueName), timeoutMillis, respond);
+    }
+
+    /**
+     * 推送式订阅（见 {@link Subscription}）：额度内把队列中的消息逐条出队并交给 deliver，与 CONSUME 一样记录日志。
+     * 订阅创建时没有额度，由调用方 addCredits 开始推送
+     *
+     * @return 队列不存在时返回 null
+     */
+    public Subscription<String> subscribe(String queueName, Consumer<String> deliver, BooleanSupplier writable, Runnable flush) {
+        if (!queues.containsKey(queueName)) {
+            return null;
+        }
+        return new Subscription<>(() -> applyCommand("CONSUME " + queueName, true), "NO_MESSAGE"::equals,
+                result -> result.startsWith(MESSAGE_PREFIX), () -> queues.get(queueName), deliver, writable, flush);
+    }
+
+    /**
+     * 批量发布（见 {@link PublishBatch}）：逐个队列加锁，该队列的消息全部写入后一次写入日志（最多一次 fsync），
+     * 整批只返回一个响应
+     */
+    public String publishBatch(PublishBatch<String> batch) {
+        if (batch.getError() != null) {
+            return "ERROR: " + batch.getError();
+        }
+        int published = 0;
+        // 写入了消息的队列及条数，释放快照屏障后再唤醒在其上长轮询的消费者
+        Map<QueueHolder, Integer> toWake = new LinkedHashMap<>();
+        snapshotLock.readLock().lock();
+        try {
+            for (Map.Entry<String, List<String>> entry : batch.getMessages().entrySet()) {
+                String queueName = entry.getKey();
+                List<String> messages = entry.getValue();
+                // 日志中仍是逐条的 PUBLISH 记录，重放不需要区分
+                List<String> records = new ArrayList<>(messages.size());
+                for (String message : messages) {
+                    records.add("PUBLISH " + queueName + " " + message);
+                }
+                while (true) {
+                    QueueHolder queue = getOrCreateQueue(queueName);
+                    synchronized (queue) {
+                        // 队列刚被并发的 DROP 删除，改为写入重新创建的同名队列
+                        if (queue.isDropped()) {
+                            continue;
+                        }
+                        for (String message : messages) {
+                            queue.offer(message);
+                        }
+                        logger.logAll(records, durability.forQueue(queueName));
+                    }
+                    toWake.merge(queue, messages.size(), Integer::sum);
+                    break;
+                }
+                published += messages.size();
+                System.out.println("[INFO] 批量发布到队列 " + queueName + " 消息 " + messages.size() + " 条");
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        toWake.forEach(QueueHolder::wakeConsumers);
+        return "OK: 已发布 " + published + " 条消息";
+    }
+
+    /**
+     * 取得队列，不存在时自动创建。不加全局锁，并发创建同名队列时只有一个生效
+     */
+    private QueueHolder getOrCreateQueue(String queueName) {
+        QueueHolder queue = queues.get(queueName);
+        if (queue != null) {
+            return queue;
+        }
+        return queues.computeIfAbsent(queueName, name -> {
+            System.out.println("[INFO] 自动创建队列: " + name);
+            return new QueueHolder(queueBackends.typeOf(name));
+        });
+    }
+
     /**
      * 解析并执行命令，返回操作响应
      *
      * 命令格式：
      *   PUBLISH queueName message
      *   CONSUME queueName
+     *   CONSUMEBATCH queueName maxCount [maxBytes]
      *   CREATE queueName
      *   DROP queueName
      *
@@ -68,169 +204,337 @@ public class MessageQueueServer {
      * @return 操作结果响应
      */
     public String applyCommand(String command, boolean shouldLog) {
-        String[] parts = command.split(" ", 3);
-        if (parts.length < 2) {
+        // 逐字符解析，不拆分字符串；嵌套执行（唤醒长轮询）会重用同一解析器，执行前先取出各部分
+        CommandParser parser = CommandParser.local();
+        if (!parser.parse(command)) {
             return "ERROR: 无效的命令格式";
         }
-        String action = parts[0].toUpperCase();
-        String queueName = parts[1];
+        return execute(parser.action(), parser.queueName(), parser.payload(), command, shouldLog);
+    }
 
-        switch (action) {
-            case "PUBLISH" -> {
-                if (parts.length < 3) {
-                    return "ERROR: PUBLISH 命令需要消息内容";
-                }
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    // 自动创建队列
-                    structureLock.lock();
-                    try {
-                        if (!queues.containsKey(queueName)) {
-                            queues.put(queueName, new QueueHolder());
-                            System.out.println("[INFO] 自动创建队列: " + queueName);
+    /**
+     * 执行已拆分的命令
+     *
+     * @param payload 命令的第三部分，没有时为 null
+     * @param command 原始文本命令，写入日志时原样使用；为 null 时（二进制协议）在写入日志时才由各部分拼出
+     */
+    private String execute(CommandParser.Action action, String queueName, String payload, String command, boolean shouldLog) {
+        // 唤醒长轮询的消费者：被唤醒的 CONSUME 在当前线程上执行，放到释放快照屏障之后
+        Runnable wake = null;
+        // 记录日志的命令需要经过快照屏障，保证快照与日志位置一致
+        if (shouldLog) {
+            snapshotLock.readLock().lock();
+        }
+        try {
+            switch (action) {
+                case PUBLISH -> {
+                    String message = payload;
+                    if (message == null) {
+                        return "ERROR: PUBLISH 命令需要消息内容";
+                    }
+                    while (true) {
+                        QueueHolder queue = getOrCreateQueue(queueName);
+                        // 使用队列级别的锁保证操作和日志写入原子执行
+                        synchronized (queue) {
+                            // 队列刚被并发的 DROP 删除，改为写入重新创建的同名队列
+                            if (queue.isDropped()) {
+                                continue;
+                            }
+                            queue.offer(message);
+                            if (shouldLog) {
+                                logger.log(logLine(command, action, queueName, payload), durability.forQueue(queueName));
+                            }
                         }
-                        queue = queues.get(queueName);
-                    } finally {
-                        structureLock.unlock();
+                        wake = queue::wakeConsumer;
+                        System.out.println("[INFO] 消息已发布到队列 " + queueName + ": " + message);
+                        return "OK: 消息已发布";
                     }
                 }
-                // 使用队列级别的写锁保证操作和日志写入原子执行
-                queue.writeLock().lock();
-                try {
-                    String message = parts[2];
-                    queue.offer(message);
-                    if (shouldLog) {
-                        logger.log(command);
+                case CONSUME -> {
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return "ERROR: 队列不存在";
+                    }
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        String consumed = queue.poll();
+                        if (consumed == null) {
+                            return "NO_MESSAGE";
+                        }
+                        if (shouldLog) {
+                            logger.log(logLine(command, action, queueName, payload), durability.forQueue(queueName));
+                        }
+                        System.out.println("[INFO] 消息从队列 " + queueName + " 被消费: " + consumed);
+                        return MESSAGE_PREFIX + consumed;
                     }
-                    System.out.println("[INFO] 消息已发布到队列 " + queueName + ": " + message);
-                    return "OK: 消息已发布";
-                } finally {
-                    queue.writeLock().unlock();
-                }
-            }
-            case "CONSUME" -> {
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    return "ERROR: 队列不存在";
                 }
-                queue.writeLock().lock();
-                try {
-                    String consumed = queue.poll();
-                    if (consumed == null) {
-                        return "NO_MESSAGE";
+                case CONSUMEBATCH -> {
+                    ConsumeBatch batch;
+                    try {
+                        batch = ConsumeBatch.parse(payload);
+                    } catch (IllegalArgumentException e) {
+                        return "ERROR: " + e.getMessage();
                     }
-                    if (shouldLog) {
-                        logger.log(command);
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return "ERROR: 队列不存在";
                     }
-                    System.out.println("[INFO] 消息从队列 " + queueName + " 被消费: " + consumed);
-                    return "MESSAGE: " + consumed;
-                } finally {
-                    queue.writeLock().unlock();
-                }
-            }
-            case "CREATE" -> {
-                structureLock.lock();
-                try {
-                    if (queues.containsKey(queueName)) {
-                        return "ERROR: 队列已存在";
+                    List<String> consumed;
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        consumed = queue.pollBatch(batch.getMaxCount(), batch.getMaxBytes(),
+                                m -> m.getBytes(StandardCharsets.UTF_8).length);
+                        if (consumed.isEmpty()) {
+                            return "NO_MESSAGE";
+                        }
+                        if (shouldLog) {
+                            // 整批只记录一行，写入实际取出的条数，重放时按条数出队
+                            logger.log(ConsumeBatch.ACTION + " " + queueName + " " + consumed.size(),
+                                    durability.forQueue(queueName));
+                        }
                     }
-                    queues.put(queueName, new QueueHolder());
-                    if (shouldLog) {
-                        logger.log(command);
+                    System.out.println("[INFO] 从队列 " + queueName + " 批量消费消息 " + consumed.size() + " 条");
+                    StringBuilder response = new StringBuilder(ConsumeBatch.PREFIX).append(consumed.size());
+                    for (String message : consumed) {
+                        response.append('\n').append(message);
+                    }
+                    return response.toString();
+                }
+                case CREATE -> {
+                    // 新队列在放入队列表之前先加锁，CREATE 写入日志之前其他操作无法使用它
+                    QueueHolder created = new QueueHolder(queueBackends.typeOf(queueName));
+                    synchronized (created) {
+                        if (queues.putIfAbsent(queueName, created) != null) {
+                            return "ERROR: 队列已存在";
+                        }
+                        if (shouldLog) {
+                            logger.log(logLine(command, action, queueName, payload), durability.forQueue(queueName));
+                        }
                     }
                     System.out.println("[INFO] 队列已创建: " + queueName);
                     return "OK: 队列已创建";
-                } finally {
-                    structureLock.unlock();
                 }
-            }
-            case "DROP" -> {
-                structureLock.lock();
-                try {
+                case DROP -> {
                     QueueHolder queue = queues.get(queueName);
                     if (queue == null) {
                         return "ERROR: 队列不存在";
-                    } else {
-                        queue.writeLock().lock();
-                        try {
-                            queues.remove(queueName);
-                            if (shouldLog) {
-                                logger.log(command);
-                            }
-                            System.out.println("[INFO] 队列已删除: " + queueName);
-                            return "OK: 队列已删除";
-                        } finally {
-                            queue.writeLock().unlock();
+                    }
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        queue.markDropped();
+                        queues.remove(queueName, queue);
+                        if (shouldLog) {
+                            logger.log(logLine(command, action, queueName, payload), durability.forQueue(queueName));
                         }
                     }
-                } finally {
-                    structureLock.unlock();
+                    wake = queue::wakeAllConsumers;
+                    System.out.println("[INFO] 队列已删除: " + queueName);
+                    return "OK: 队列已删除";
                 }
+                default -> {
+                    return "ERROR: 未知命令";
+                }
+            }
+        } finally {
+            if (shouldLog) {
+                snapshotLock.readLock().unlock();
             }
-            default -> {
-                return "ERROR: 未知命令";
+            if (wake != null) {
+                wake.run();
             }
         }
     }
 
+    // 日志中的一行命令：文本命令原样写入，二进制协议的命令由各部分拼出
+    private static String logLine(String command, CommandParser.Action action, String queueName, String payload) {
+        if (command != null) {
+            return command;
+        }
+        return payload == null ? action + " " + queueName : action + " " + queueName + " " + payload;
+    }
+
     /**
      * 加载持久化日志数据，重放命令以恢复内存队列状态
      */
     public void loadPersistedData() {
         System.out.println("[INFO] 正在加载持久化数据...");
+        long startTime = System.currentTimeMillis();
+        long fromPosition = 0;
+        long snapshotMessages = 0;
         try {
-            List<String> commands = PersistentLogger.readLog(LOG_FILE);
-            for (String cmd : commands) {
+            // 先加载最新快照，再只重放快照位置之后的日志
+            QueueSnapshot snapshot = QueueSnapshot.readFrom(SNAPSHOT_FILE);
+            if (snapshot != null) {
+                for (Map.Entry<String, List<byte[]>> entry : snapshot.getQueues().entrySet()) {
+                    QueueHolder queue = new QueueHolder(queueBackends.typeOf(entry.getKey()));
+                    for (byte[] message : entry.getValue()) {
+                        queue.offer(new String(message, StandardCharsets.UTF_8));
+                    }
+                    queues.put(entry.getKey(), queue);
+                }
+                fromPosition = snapshot.getLogPosition();
+                snapshotMessages = snapshot.getMessageCount();
+                lastSnapshotPosition = fromPosition;
+                System.out.println("[INFO] 已加载快照: 日志位置 " + fromPosition + "，队列 " + snapshot.getQueues().size()
+                        + " 个，消息 " + snapshotMessages + " 条");
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] 加载快照失败，将完整重放日志: " + e.getMessage());
+            queues.clear();
+            fromPosition = 0;
+        }
+        try {
+            // 流式扫描快照位置之后的日志，逐条解码重放，不再把整个日志读入内存
+            Path logPath = Paths.get(LOG_FILE);
+            long totalBytes = Files.exists(logPath) ? Math.max(0, Files.size(logPath) - fromPosition) : 0;
+            LogScanner scanner = new LogScanner("日志重放", totalBytes);
+            scanner.scan(logPath, fromPosition, -1, (buffer, offset, length) -> {
+                String cmd = new String(buffer, offset, length, StandardCharsets.UTF_8);
+                // 重放命令时不再记录到日志，避免重复写入
                 String resp = applyCommand(cmd, false);
                 System.out.println("[INFO] 重放命令: " + cmd + " -> " + resp);
-            }
-            System.out.println("[INFO] 持久化数据加载完毕");
+            });
+            scanner.finish();
+            System.out.println("[INFO] 持久化数据加载完毕，快照消息 " + snapshotMessages + " 条，重放日志 "
+                    + scanner.getRecordCount() + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
         } catch (IOException e) {
             System.out.println("[ERROR] 加载持久化数据失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * 生成一次快照：屏障内只复制内存中的队列内容，文件写入在屏障外进行，不阻塞后续请求
+     */
+    public void takeSnapshot() throws IOException {
+        if (logger == null) {
+            return;
+        }
+        long position;
+        Map<String, List<String>> contents = new LinkedHashMap<>();
+        snapshotLock.writeLock().lock();
+        try {
+            // 日志写入在屏障内同步完成，此时的文件大小就是快照对应的位置
+            position = logger.position();
+            if (position == lastSnapshotPosition) {
+                return;
+            }
+            queues.forEach((name, queue) -> {
+                contents.put(name, queue.snapshot());
+                // 已经变空的队列释放存储结构
+                queue.compact();
+            });
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        // 非 SYNC_EACH 的写入可能还没有刷盘，快照只能覆盖已经持久化的日志
+        logger.sync();
+        long startTime = System.currentTimeMillis();
+        QueueSnapshot snapshot = QueueSnapshot.ofStrings(position, contents);
+        snapshot.writeTo(SNAPSHOT_FILE);
+        lastSnapshotPosition = position;
+        System.out.println("[INFO] 快照已写入: 日志位置 " + position + "，队列 " + contents.size() + " 个，消息 "
+                + snapshot.getMessageCount() + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * 启动后台快照任务
+     *
+     * @param intervalSeconds 快照间隔（秒）
+     */
+    public void startSnapshotTask(long intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SnapshotThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException e) {
+                System.err.println("[ERROR] 写入快照失败: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
     /**
      * 持久化日志工具，基于 Java NIO FileChannel 以追加方式写入日志文件
      */
     public static class PersistentLogger {
-        private java.nio.channels.FileChannel channel;
+        private FileChannel channel;
         private Path logFilePath;
+        private LogFlusher flusher;
 
         public PersistentLogger(String filePath) throws IOException {
             this.logFilePath = Paths.get(filePath);
-            channel = java.nio.channels.FileChannel.open(logFilePath,
+            channel = FileChannel.open(logFilePath,
                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            flusher = new LogFlusher(channel, logFilePath.getFileName().toString());
+        }
+
+        public void log(String record, DurabilityPolicy policy) {
+            write(record + "\n", policy);
         }
 
-        public void log(String record) {
-            String line = record + "\n";
-            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        /**
+         * 一次写入多条记录（批量发布），SYNC_EACH 时整组只 fsync 一次
+         */
+        public void logAll(List<String> records, DurabilityPolicy policy) {
+            StringBuilder lines = new StringBuilder();
+            for (String record : records) {
+                lines.append(record).append('\n');
+            }
+            write(lines.toString(), policy);
+        }
+
+        private void write(String lines, DurabilityPolicy policy) {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
             try {
+                int bytes = buffer.remaining();
                 while (buffer.hasRemaining()) {
                     channel.write(buffer);
                 }
-                channel.force(true);
+                // SYNC_EACH 时 force(true) 确保数据刷入磁盘后才返回
+                flusher.afterWrite(policy, bytes);
             } catch (IOException e) {
                 System.err.println("[ERROR] 写入日志失败：" + e.getMessage());
             }
         }
 
+        /**
+         * 立即刷盘，持久化此前的所有写入
+         */
+        public void sync() throws IOException {
+            flusher.force();
+        }
+
+        /**
+         * 各持久化模式当前的未刷盘字节数
+         */
+        public String getFlushSummary() {
+            return flusher.getTracker().getSummary();
+        }
+
+        /**
+         * 当前日志文件大小，即下一条记录的起始字节偏移
+         */
+        public long position() throws IOException {
+            return channel.size();
+        }
+
         public void close() {
+            flusher.close();
             try {
                 channel.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-
-        public static List<String> readLog(String filePath) throws IOException {
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                return Collections.emptyList();
-            }
-            return Files.readAllLines(path, StandardCharsets.UTF_8);
-        }
     }
 }
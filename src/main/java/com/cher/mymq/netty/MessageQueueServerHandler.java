@@ -1,33 +1,235 @@
 package com.cher.mymq.netty;
 
+import com.cher.mymq.common.BinaryFrame;
+import com.cher.mymq.common.CommandExecutor;
+import com.cher.mymq.common.CommandParser;
+import com.cher.mymq.common.OrderedExecutor;
+import com.cher.mymq.common.PublishBatch;
+import com.cher.mymq.common.ReadPause;
+import com.cher.mymq.common.Subscription;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.CharacterCodingException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MessageQueueServerHandler extends SimpleChannelInboundHandler<String> {
     private final MessageQueueServer businessLogic;
-    // 为业务逻辑处理建立工作线程池，避免阻塞 I/O 线程
-    private final ExecutorService workerPool = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors()
-    );
+    // 所有连接共享的命令执行方式，避免业务逻辑处理阻塞 I/O 线程
+    private final CommandExecutor commandExecutor;
+    // 该连接提交任务的执行器，以及按到达顺序逐个执行命令的执行器（响应顺序与请求一致，客户端可以流水线发送），
+    // 在处理器加入 pipeline 时创建
+    private Executor workers;
+    private OrderedExecutor commands;
+    // 该连接的读取暂停（命令积压、队列已满等原因），全部恢复后才继续读取
+    private ReadPause readPause;
 
-    public MessageQueueServerHandler(MessageQueueServer businessLogic) {
+    // 正在接收的批量发布帧（每个连接一个处理器实例，只在 I/O 线程上访问），没有时为 null
+    private PublishBatch<String> publishBatch;
+    // 该连接上的推送式订阅，按队列名索引
+    private final Map<String, Subscription<String>> subscriptions = new ConcurrentHashMap<>();
+
+    public MessageQueueServerHandler(MessageQueueServer businessLogic, CommandExecutor commandExecutor) {
         this.businessLogic = businessLogic;
+        this.commandExecutor = commandExecutor;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        workers = commandExecutor.forConnection(ctx.executor());
+        readPause = new ReadPause(reading -> ctx.channel().config().setAutoRead(reading));
+        commands = commandExecutor.newOrderedExecutor(ctx.executor(),
+                () -> ctx.writeAndFlush(CommandExecutor.BUSY + "\n"), readPause::pause, readPause::resume);
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
         final String command = msg.trim();
-        // 将命令提交到工作线程池处理
-        workerPool.submit(() -> {
-            String response = businessLogic.applyCommand(command, true);
-            // 回写响应，末尾添加换行符以匹配客户端的行解码
-            ctx.writeAndFlush(response + "\n");
+        if (publishBatch != null) {
+            // 批量发布帧中的消息行，收齐后整帧提交，只响应一次
+            if (PublishBatch.addLine(publishBatch, command)) {
+                PublishBatch<String> batch = publishBatch;
+                publishBatch = null;
+                commands.execute(() -> ctx.writeAndFlush(businessLogic.publishBatch(batch) + "\n"));
+            }
+            return;
+        }
+        if (PublishBatch.isHeader(command)) {
+            try {
+                publishBatch = PublishBatch.fromHeader(command);
+            } catch (IllegalArgumentException e) {
+                // 错误响应也排在之前命令的响应之后
+                commands.execute(() -> ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n"));
+            }
+            return;
+        }
+        // 将命令提交到工作线程池处理，同一连接的命令按顺序执行
+        // 回写响应，末尾添加换行符以匹配客户端的行解码；长轮询的 CONSUME 在有消息或超时后才响应，之后才执行下一条命令
+        commands.submit(done -> {
+            if (handleSubscription(ctx, command)) {
+                done.run();
+                return;
+            }
+            businessLogic.handleCommand(command, response -> {
+                ctx.writeAndFlush(response + "\n");
+                done.run();
+            });
         });
     }
 
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof BinaryFrame) {
+            handleBinary(ctx, (BinaryFrame) msg);
+            return;
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * 协商为二进制协议的连接（见 ProtocolNegotiator）：按帧的操作码直接执行，队列名和负载不再拼回文本命令重新解析，
+     * 响应带回请求的关联 ID。队列中保存字符串、日志按行记录，因此负载必须是合法的 UTF-8 且不能包含换行符
+     */
+    private void handleBinary(ChannelHandlerContext ctx, BinaryFrame frame) {
+        int correlationId = frame.getCorrelationId();
+        CommandParser.Action action = frame.getAction();
+        String queueName = frame.getQueueName();
+        String payload = null;
+        String error = null;
+        if (action == null) {
+            error = "ERROR: 未知的操作码 " + frame.getOpcode();
+        } else if (!frame.hasValidQueueName()) {
+            error = "ERROR: 无效的队列名";
+        } else {
+            try {
+                payload = frame.getPayloadAsString();
+                if (payload != null && (payload.indexOf('\n') >= 0 || payload.indexOf('\r') >= 0)) {
+                    error = "ERROR: 消息不能包含换行符";
+                }
+            } catch (CharacterCodingException e) {
+                error = "ERROR: 消息不是合法的 UTF-8";
+            }
+        }
+        if (error != null) {
+            String response = error;
+            commands.execute(() -> ctx.writeAndFlush(BinaryFrame.response(correlationId, response)));
+            return;
+        }
+        String message = payload;
+        commands.submit(done -> businessLogic.handle(action, queueName, message, response -> {
+            ctx.writeAndFlush(BinaryFrame.response(correlationId, response));
+            done.run();
+        }), () -> ctx.writeAndFlush(BinaryFrame.response(correlationId, CommandExecutor.BUSY)));
+    }
+
+    /**
+     * 订阅相关命令：
+     *   SUBSCRIBE queueName credits —— 订阅队列，服务端在额度内推送 DELIVER queueName message
+     *   CREDIT queueName n —— 补充额度，成功时不响应
+     *   UNSUBSCRIBE queueName —— 取消订阅
+     *
+     * @return 不是订阅相关命令时返回 false
+     */
+    private boolean handleSubscription(ChannelHandlerContext ctx, String command) {
+        CommandParser parser = CommandParser.local();
+        if (!parser.parse(command)) {
+            return false;
+        }
+        CommandParser.Action action = parser.action();
+        if (action != CommandParser.Action.SUBSCRIBE && action != CommandParser.Action.CREDIT
+                && action != CommandParser.Action.UNSUBSCRIBE) {
+            return false;
+        }
+        String queueName = parser.queueName();
+        String argument = parser.payload();
+        switch (action) {
+            case SUBSCRIBE -> {
+                long credits;
+                try {
+                    credits = Subscription.parseCredits(argument);
+                } catch (IllegalArgumentException e) {
+                    ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n");
+                    return true;
+                }
+                Subscription<String> existing = subscriptions.get(queueName);
+                if (existing != null && !existing.isClosed()) {
+                    ctx.writeAndFlush("ERROR: 已订阅该队列\n");
+                    return true;
+                }
+                Subscription<String> subscription = businessLogic.subscribe(queueName,
+                        result -> deliver(ctx, queueName, result), () -> ctx.channel().isWritable(), ctx::flush);
+                if (subscription == null) {
+                    ctx.writeAndFlush("ERROR: 队列不存在\n");
+                    return true;
+                }
+                subscriptions.put(queueName, subscription);
+                ctx.writeAndFlush("OK: 已订阅 " + queueName + "\n");
+                subscription.addCredits(credits);
+                return true;
+            }
+            case CREDIT -> {
+                Subscription<String> subscription = subscriptions.get(queueName);
+                if (subscription == null || subscription.isClosed()) {
+                    ctx.writeAndFlush("ERROR: 未订阅该队列\n");
+                    return true;
+                }
+                try {
+                    subscription.addCredits(Subscription.parseCredits(argument));
+                } catch (IllegalArgumentException e) {
+                    ctx.writeAndFlush("ERROR: " + e.getMessage() + "\n");
+                }
+                return true;
+            }
+            case UNSUBSCRIBE -> {
+                Subscription<String> subscription = subscriptions.remove(queueName);
+                if (subscription == null) {
+                    ctx.writeAndFlush("ERROR: 未订阅该队列\n");
+                    return true;
+                }
+                subscription.close();
+                ctx.writeAndFlush("OK: 已取消订阅 " + queueName + "\n");
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // 推送一条消息，刷出由订阅在一轮推送结束后统一进行；队列被删除时推送错误并结束订阅
+    private static void deliver(ChannelHandlerContext ctx, String queueName, String result) {
+        if (result.startsWith(MessageQueueServer.MESSAGE_PREFIX)) {
+            ctx.write(Subscription.DELIVER_PREFIX + queueName + " "
+                    + result.substring(MessageQueueServer.MESSAGE_PREFIX.length()) + "\n");
+        } else {
+            ctx.write("ERROR: 订阅的队列 " + queueName + " 已不存在\n");
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        subscriptions.values().forEach(Subscription::close);
+        subscriptions.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && !subscriptions.isEmpty()) {
+            // 出站缓冲已降到低水位以下，恢复推送；出队会写日志，不在 I/O 线程上执行
+            try {
+                workers.execute(() -> subscriptions.values().forEach(Subscription::drain));
+            } catch (RejectedExecutionException e) {
+                // 命令队列已满，下一次补充额度或恢复可写时再推送
+                System.out.println("[WARN] 恢复订阅推送被拒绝: " + e.getMessage());
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         cause.printStackTrace();
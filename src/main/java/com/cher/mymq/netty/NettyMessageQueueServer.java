@@ -1,5 +1,8 @@
 package com.cher.mymq.netty;
 
+import com.cher.mymq.common.BinaryFrameEncoder;
+import com.cher.mymq.common.CommandExecutor;
+import com.cher.mymq.common.ProtocolNegotiator;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -10,13 +13,21 @@ import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
 import io.netty.util.CharsetUtil;
 
+import java.util.List;
+
 public class NettyMessageQueueServer {
     private static final int PORT = 9999;
+    // 快照间隔（秒）
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("mymq.snapshot.intervalSeconds", 60);
 
     public static void main(String[] args) throws Exception {
         // 创建业务逻辑对象，并加载历史持久化数据
         MessageQueueServer businessLogic = new MessageQueueServer();
         businessLogic.loadPersistedData();
+        // 后台周期性生成队列快照，缩短重启时的日志重放
+        businessLogic.startSnapshotTask(SNAPSHOT_INTERVAL_SECONDS);
+        // 所有连接共享的命令执行方式（-Dmymq.executor.*）
+        CommandExecutor commandExecutor = CommandExecutor.fromSystemProperties("Netty");
 
         // 创建 Netty 的 boss 和 worker 线程组
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
@@ -29,12 +40,13 @@ public class NettyMessageQueueServer {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
                             ChannelPipeline pipeline = ch.pipeline();
-                            // 使用基于行分隔符的解码器和编码器
-                            pipeline.addLast(new LineBasedFrameDecoder(1024));
-                            pipeline.addLast(new StringDecoder(CharsetUtil.UTF_8));
+                            // 按客户端的第一个字节选择协议：文本协议使用基于行分隔符的解码器，二进制协议见 BinaryFrame
+                            pipeline.addLast(new ProtocolNegotiator(List.of(() -> new LineBasedFrameDecoder(1024),
+                                    () -> new StringDecoder(CharsetUtil.UTF_8))));
                             pipeline.addLast(new StringEncoder(CharsetUtil.UTF_8));
+                            pipeline.addLast(new BinaryFrameEncoder());
                             // 添加自定义业务处理器
-                            pipeline.addLast(new MessageQueueServerHandler(businessLogic));
+                            pipeline.addLast(new MessageQueueServerHandler(businessLogic, commandExecutor));
                         }
                     });
 
@@ -42,6 +54,7 @@ public class NettyMessageQueueServer {
             System.out.println("[INFO] Netty MessageQueueServer started on port " + PORT);
             future.channel().closeFuture().sync();
         } finally {
+            commandExecutor.shutdown();
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
         }
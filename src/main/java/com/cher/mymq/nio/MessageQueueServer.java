@@ -1,5 +1,20 @@
 package com.cher.mymq.nio;
 
+import com.cher.mymq.common.CommandExecutor;
+import com.cher.mymq.common.CommandParser;
+import com.cher.mymq.common.CompactQueue;
+import com.cher.mymq.common.ConsumeBatch;
+import com.cher.mymq.common.DurabilityConfig;
+import com.cher.mymq.common.DurabilityPolicy;
+import com.cher.mymq.common.LogFlusher;
+import com.cher.mymq.common.LogScanner;
+import com.cher.mymq.common.LongPollConsumer;
+import com.cher.mymq.common.OrderedExecutor;
+import com.cher.mymq.common.PublishBatch;
+import com.cher.mymq.common.QueueBackendConfig;
+import com.cher.mymq.common.QueueSnapshot;
+import com.cher.mymq.common.ReadPause;
+
 import java.net.*;
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -12,58 +27,57 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class MessageQueueServer {
     private static final int PORT = 9999;
     private static final String LOG_FILE = "messagequeue.log";
-
-    public static class QueueHolder {
-        private final LinkedBlockingQueue<String> queue;
-        private final ReentrantReadWriteLock lock;
-
-        QueueHolder() {
-            this.queue = new LinkedBlockingQueue<>();
-            this.lock = new ReentrantReadWriteLock();
-        }
-
-        public boolean offer(String e) {
-            return queue.offer(e);
-        }
-
-        public String poll() {
-            return queue.poll();
-        }
-
-        public ReentrantReadWriteLock.WriteLock writeLock() {
-            return lock.writeLock();
-        }
-
-        public ReentrantReadWriteLock.ReadLock readLock() {
-            return lock.readLock();
+    private static final String SNAPSHOT_FILE = "messagequeue.snapshot";
+    // 快照间隔（秒）
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("mymq.snapshot.intervalSeconds", 60);
+    // 负责连接读写的子 Reactor 数（每个一个 Selector 和一个线程），默认为 CPU 核数
+    private static final int REACTOR_COUNT = Math.max(1,
+            Integer.getInteger("mymq.nio.reactors", Runtime.getRuntime().availableProcessors()));
+
+    // 空闲队列只占容器本身，存储结构按需创建、变空后在快照时释放（见 CompactQueue）；
+    // 需要与日志保持顺序的操作对 QueueHolder 加 synchronized，不再为每个队列分配读写锁
+    public static class QueueHolder extends CompactQueue<String> {
+        QueueHolder(QueueBackendConfig.Type type) {
+            super(type);
         }
     }
 
-    // 使用 ConcurrentHashMap 管理各个队列，每个队列使用 LinkedBlockingQueue 实现
+    // 使用 ConcurrentHashMap 管理各个队列，每个队列的存储结构由 queueBackends 决定
     private ConcurrentHashMap<String, QueueHolder> queues = new ConcurrentHashMap<>();
 
-    private final ReentrantLock structureLock = new ReentrantLock();
-
     // 日志工具实例，用于持久化状态变更记录
     private PersistentLogger logger;
+    // 持久化策略：服务端默认策略及按队列的覆盖（-Dmymq.durability / -Dmymq.durability.queue.<队列名>）
+    private final DurabilityConfig durability = DurabilityConfig.fromSystemProperties();
+    // 队列存储结构：默认实现及按队列的覆盖（-Dmymq.queue.backend / -Dmymq.queue.backend.queue.<队列名>）
+    private final QueueBackendConfig queueBackends = QueueBackendConfig.fromSystemProperties();
+    // 长轮询 CONSUME 的等待与超时
+    private final LongPollConsumer<String> longPoll = new LongPollConsumer<>("LongPollTimer");
+
+    // 快照屏障：记录日志的命令持有读锁，生成快照时短暂持有写锁复制队列内容并确定日志位置
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // 最近一次快照对应的日志位置（字节偏移），没有新日志时跳过快照
+    private volatile long lastSnapshotPosition = -1;
 
     private static volatile boolean running = true; // 运行状态
 
-    // 工作线程池，用于处理业务逻辑（applyCommand）的任务
-    private ExecutorService workerPool = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors()
-    );
+    // 所有连接共享的命令执行方式（-Dmymq.executor.*），用于处理业务逻辑（applyCommand）的任务；
+    // EVENT_LOOP 时交给连接所在的子 Reactor 线程执行（见 SubReactor#execute）
+    private final CommandExecutor commandExecutor = CommandExecutor.fromSystemProperties("NIO");
 
     public static void main(String[] args) {
         MessageQueueServer server = new MessageQueueServer();
         // 启动时加载历史持久化数据，重放日志恢复内存状态
         server.loadPersistedData();
+        // 后台周期性生成队列快照，缩短重启时的日志重放
+        server.startSnapshotTask(SNAPSHOT_INTERVAL_SECONDS);
         server.start();
     }
 
@@ -77,19 +91,24 @@ public class MessageQueueServer {
     }
 
     /**
-     * 使用 NIO 实现的服务器主循环
+     * 使用 NIO 实现的服务器主循环（主从 Reactor）：主线程的 Selector 只接受连接，
+     * 新连接轮流分配给各子 Reactor，之后的读写都在该子 Reactor 的线程上进行
      */
     public void start() {
+        SubReactor[] reactors = new SubReactor[REACTOR_COUNT];
         try {
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new SubReactor(i);
+                reactors[i].start();
+            }
             // 打开 ServerSocketChannel，并设置为非阻塞模式
             ServerSocketChannel serverChannel = ServerSocketChannel.open();
             serverChannel.configureBlocking(false);
             serverChannel.bind(new InetSocketAddress(PORT));
-            System.out.println("[INFO] 消息队列服务端已启动，监听端口：" + PORT);
+            System.out.println("[INFO] 消息队列服务端已启动，监听端口：" + PORT + "，子 Reactor 数：" + reactors.length);
 
-            // 创建 Selector 以管理多个 Channel 的 IO 事件
+            // 创建 Selector，只注册 ServerSocketChannel 的 OP_ACCEPT 事件
             Selector selector = Selector.open();
-            // 注册 ServerSocketChannel 的 OP_ACCEPT 事件
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
             // 添加关闭钩子
@@ -98,7 +117,8 @@ public class MessageQueueServer {
                 stopServer();
             }));
 
-            // 主循环：不断等待和处理 IO 事件
+            // 主循环：接受连接并分配给子 Reactor
+            int next = 0;
             while (running) {
                 selector.select();
                 Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
@@ -106,17 +126,9 @@ public class MessageQueueServer {
                     SelectionKey key = keyIterator.next();
                     keyIterator.remove();
 
-                    if (!key.isValid()) {
-                        continue;
-                    }
-                    if (key.isAcceptable()) {
-                        accept(selector, key);
-                    }
-                    if (key.isReadable()) {
-                        read(selector, key);
-                    }
-                    if (key.isValid() && key.isWritable()) {
-                        write(key);
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept(key, reactors[next]);
+                        next = (next + 1) % reactors.length;
                     }
                 }
             }
@@ -127,6 +139,12 @@ public class MessageQueueServer {
             System.out.println("[ERROR] 服务器异常: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            for (SubReactor reactor : reactors) {
+                if (reactor != null) {
+                    reactor.wakeup();
+                }
+            }
+            commandExecutor.shutdown();
             if (logger != null) {
                 logger.close();
             }
@@ -134,9 +152,9 @@ public class MessageQueueServer {
     }
 
     /**
-     * 处理连接请求
+     * 处理连接请求，交给子 Reactor 注册读事件
      */
-    private void accept(Selector selector, SelectionKey key) throws IOException {
+    private void accept(SelectionKey key, SubReactor reactor) throws IOException {
         ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
         SocketChannel clientChannel = serverChannel.accept();
         if (clientChannel == null) {
@@ -144,15 +162,13 @@ public class MessageQueueServer {
         }
         clientChannel.configureBlocking(false);
         System.out.println("[INFO] 接收到来自 " + clientChannel.getRemoteAddress() + " 的连接");
-        // 为该连接创建一个 ClientContext，并注册读事件
-        ClientContext context = new ClientContext();
-        clientChannel.register(selector, SelectionKey.OP_READ, context);
+        reactor.register(clientChannel);
     }
 
     /**
      * 读取客户端发送的数据，并按行处理
      */
-    private void read(Selector selector, SelectionKey key) {
+    private void read(SelectionKey key) {
         SocketChannel channel = (SocketChannel) key.channel();
         ClientContext context = (ClientContext) key.attachment();
         ByteBuffer buffer = context.readBuffer;
@@ -189,23 +205,28 @@ public class MessageQueueServer {
         while ((index = data.indexOf("\n")) != -1) {
             String line = data.substring(0, index).trim();
             data = data.substring(index + 1);
-            if (!line.isEmpty()) {
+            if (context.publishBatch != null) {
+                // 批量发布帧中的消息行，收齐后整帧提交，只响应一次
+                if (PublishBatch.addLine(context.publishBatch, line)) {
+                    PublishBatch<String> batch = context.publishBatch;
+                    context.publishBatch = null;
+                    context.commands.execute(() -> context.respond.accept(publishBatch(batch)));
+                }
+            } else if (PublishBatch.isHeader(line)) {
+                try {
+                    context.publishBatch = PublishBatch.fromHeader(line);
+                } catch (IllegalArgumentException e) {
+                    // 错误响应也排在之前命令的响应之后
+                    context.commands.execute(() -> context.respond.accept("ERROR: " + e.getMessage()));
+                }
+            } else if (!line.isEmpty()) {
                 System.out.println("[DEBUG] 收到命令: " + line);
-                // 提交到工作线程池异步处理
+                // 提交到工作线程池异步处理，同一连接的命令按顺序执行，响应后才执行下一条
                 final String command = line;
-                final SelectionKey currentKey = key;
-                workerPool.submit(() -> {
-                    String response = applyCommand(command, true);
-                    System.out.println("[DEBUG] 响应命令: " + response);
-                    // 将响应入队，并设置写事件兴趣
-                    synchronized (context) {
-                        context.enqueueResponse(response + "\n");
-                    }
-                    currentKey.interestOps(currentKey.interestOps() | SelectionKey.OP_WRITE);
-                    // 唤醒阻塞的 select() 调用
-                    selector.wakeup();
-                });
-
+                context.commands.submit(done -> handleCommand(command, response -> {
+                    context.respond.accept(response);
+                    done.run();
+                }));
             }
         }
         // 保存未处理的部分
@@ -214,7 +235,7 @@ public class MessageQueueServer {
     }
 
     /**
-     * 向客户端写入响应数据
+     * 向客户端写入响应数据，未写完时等待写事件，写完后取消写事件兴趣（只在连接所在的子 Reactor 线程上调用）
      */
     private void write(SelectionKey key) {
         SocketChannel channel = (SocketChannel) key.channel();
@@ -231,8 +252,9 @@ public class MessageQueueServer {
                 queue.poll();
             }
             if (queue.isEmpty()) {
-                // 写完后取消写事件兴趣
                 key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
             }
         } catch (IOException e) {
             System.err.println("[ERROR] 写入客户端数据失败: " + e.getMessage());
@@ -252,119 +274,224 @@ public class MessageQueueServer {
         key.cancel();
     }
 
+    /**
+     * 执行客户端命令，通过 respond 返回响应。CONSUME queueName timeoutMs 为长轮询：
+     * 队列为空时不占用线程等待，有新消息发布或超时后才响应；其他命令与 applyCommand 相同
+     */
+    private void handleCommand(String command, Consumer<String> respond) {
+        CommandParser parser = CommandParser.local();
+        if (parser.parse(command) && parser.action() == CommandParser.Action.CONSUME && parser.hasPayload()) {
+            long timeoutMillis;
+            try {
+                timeoutMillis = parser.payloadAsLong();
+            } catch (NumberFormatException e) {
+                respond.accept("ERROR: 无效的等待时间");
+                return;
+            }
+            String queueName = parser.queueName();
+            longPoll.consume(() -> applyCommand("CONSUME " + queueName, true), "NO_MESSAGE"::equals,
+                    () -> queues.get(queueName), timeoutMillis, respond);
+            return;
+        }
+        respond.accept(applyCommand(command, true));
+    }
+
+    /**
+     * 批量发布（见 {@link PublishBatch}）：逐个队列加锁，该队列的消息全部写入后一次写入日志（最多一次 fsync），
+     * 整批只返回一个响应
+     */
+    private String publishBatch(PublishBatch<String> batch) {
+        if (batch.getError() != null) {
+            return "ERROR: " + batch.getError();
+        }
+        int published = 0;
+        snapshotLock.readLock().lock();
+        try {
+            for (Map.Entry<String, List<String>> entry : batch.getMessages().entrySet()) {
+                String queueName = entry.getKey();
+                List<String> messages = entry.getValue();
+                // 日志中仍是逐条的 PUBLISH 记录，重放不需要区分
+                List<String> records = new ArrayList<>(messages.size());
+                for (String message : messages) {
+                    records.add("PUBLISH " + queueName + " " + message);
+                }
+                while (true) {
+                    QueueHolder queue = getOrCreateQueue(queueName);
+                    synchronized (queue) {
+                        // 队列刚被并发的 DROP 删除，改为写入重新创建的同名队列
+                        if (queue.isDropped()) {
+                            continue;
+                        }
+                        for (String message : messages) {
+                            queue.offer(message);
+                        }
+                        logger.logAll(records, durability.forQueue(queueName));
+                    }
+                    queue.wakeConsumers(messages.size());
+                    break;
+                }
+                published += messages.size();
+                System.out.println("[INFO] 批量发布到队列 " + queueName + " 消息 " + messages.size() + " 条");
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        return "OK: 已发布 " + published + " 条消息";
+    }
+
+    /**
+     * 取得队列，不存在时自动创建。不加全局锁，并发创建同名队列时只有一个生效
+     */
+    private QueueHolder getOrCreateQueue(String queueName) {
+        QueueHolder queue = queues.get(queueName);
+        if (queue != null) {
+            return queue;
+        }
+        return queues.computeIfAbsent(queueName, name -> {
+            System.out.println("[INFO] 自动创建队列: " + name);
+            return new QueueHolder(queueBackends.typeOf(name));
+        });
+    }
+
     /**
      * 解析并应用客户端或日志中的命令
      *
-     * @param command   命令字符串（格式：PUBLISH/CONSUME/CREATE/DROP queueName [message]）
+     * @param command   命令字符串（格式：PUBLISH/CONSUME/CREATE/DROP queueName [message]，CONSUMEBATCH queueName maxCount [maxBytes]）
      * @param shouldLog 是否记录该命令到日志（重放日志时传 false）
      * @return 操作结果响应
      */
     private String applyCommand(String command, boolean shouldLog) {
-        String[] parts = command.split(" ", 3);
-        if (parts.length < 2) {
+        // 逐字符解析，不拆分字符串；嵌套执行（唤醒长轮询）会重用同一解析器，第三部分在各分支开头立即取出
+        CommandParser parser = CommandParser.local();
+        if (!parser.parse(command)) {
             return "ERROR: 无效的命令格式";
         }
-        String action = parts[0].toUpperCase();
-        String queueName = parts[1];
+        CommandParser.Action action = parser.action();
+        String queueName = parser.queueName();
 
-        switch (action) {
-            case "PUBLISH" -> {
-                if (parts.length < 3) {
-                    return "ERROR: PUBLISH 命令需要消息内容";
-                }
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    structureLock.lock();
-                    try {
-                        if (!queues.containsKey(queueName)) {
-                            queues.put(queueName, new QueueHolder());
-                            System.out.println("[INFO] 自动创建队列: " + queueName);
+        // 记录日志的命令需要经过快照屏障，保证快照与日志位置一致
+        if (shouldLog) {
+            snapshotLock.readLock().lock();
+        }
+        try {
+            switch (action) {
+                case PUBLISH -> {
+                    String message = parser.payload();
+                    if (message == null) {
+                        return "ERROR: PUBLISH 命令需要消息内容";
+                    }
+                    while (true) {
+                        QueueHolder queue = getOrCreateQueue(queueName);
+                        synchronized (queue) {
+                            // 队列刚被并发的 DROP 删除，改为写入重新创建的同名队列
+                            if (queue.isDropped()) {
+                                continue;
+                            }
+                            queue.offer(message);
+                            if (shouldLog) {
+                                logger.log(command, durability.forQueue(queueName));
+                            }
                         }
-                        queue = queues.get(queueName);
-
-                    } finally {
-                        structureLock.unlock();
+                        queue.wakeConsumer();
+                        System.out.println("[INFO] 消息已发布到队列 " + queueName + ": " + message);
+                        return "OK: 消息已发布";
                     }
                 }
-                queue.writeLock().lock();
-                try {
-                    String message = parts[2];
-                    // 如果队列不存在则自动创建
-                    queue.offer(message);
-                    if (shouldLog) {
-                        logger.log(command);
+                case CONSUME -> {
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return "ERROR: 队列不存在";
+                    }
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        String consumed = queue.poll();
+                        if (consumed == null) {
+                            return "NO_MESSAGE";
+                        }
+                        if (shouldLog) {
+                            // 记录消费操作，确保重放时也删除对应消息
+                            logger.log(command, durability.forQueue(queueName));
+                        }
+                        System.out.println("[INFO] 消息从队列 " + queueName + " 被消费: " + consumed);
+                        return "MESSAGE: " + consumed;
                     }
-                    System.out.println("[INFO] 消息已发布到队列 " + queueName + ": " + message);
-                    return "OK: 消息已发布";
-                } finally {
-                    queue.writeLock().unlock();
-                }
-            }
-            case "CONSUME" -> {
-                QueueHolder queue = queues.get(queueName);
-                if (queue == null) {
-                    return "ERROR: 队列不存在";
                 }
-                queue.writeLock().lock();
-                try {
-                    String consumed = queue.poll();
-                    if (consumed == null) {
-                        return "NO_MESSAGE";
+                case CONSUMEBATCH -> {
+                    ConsumeBatch batch;
+                    try {
+                        batch = ConsumeBatch.parse(parser.payload());
+                    } catch (IllegalArgumentException e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+                    QueueHolder queue = queues.get(queueName);
+                    if (queue == null) {
+                        return "ERROR: 队列不存在";
+                    }
+                    List<String> consumed;
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        consumed = queue.pollBatch(batch.getMaxCount(), batch.getMaxBytes(),
+                                m -> m.getBytes(StandardCharsets.UTF_8).length);
+                        if (consumed.isEmpty()) {
+                            return "NO_MESSAGE";
+                        }
+                        if (shouldLog) {
+                            // 整批只记录一行，写入实际取出的条数，重放时按条数出队
+                            logger.log(ConsumeBatch.ACTION + " " + queueName + " " + consumed.size(),
+                                    durability.forQueue(queueName));
+                        }
                     }
-                    if (shouldLog) {
-                        // 记录消费操作，确保重放时也删除对应消息
-                        logger.log(command);
+                    System.out.println("[INFO] 从队列 " + queueName + " 批量消费消息 " + consumed.size() + " 条");
+                    StringBuilder response = new StringBuilder(ConsumeBatch.PREFIX).append(consumed.size());
+                    for (String message : consumed) {
+                        response.append('\n').append(message);
                     }
-                    System.out.println("[INFO] 消息从队列 " + queueName + " 被消费: " + consumed);
-                    return "MESSAGE: " + consumed;
-                } finally {
-                    queue.writeLock().unlock();
+                    return response.toString();
                 }
-            }
-            case "CREATE" -> {
-                structureLock.lock();
-                try {
-                    if (queues.containsKey(queueName)) {
-                        return "ERROR: 队列已存在";
-                    }
-
-                    queues.put(queueName, new QueueHolder());
-                    if (shouldLog) {
-                        logger.log(command);
+                case CREATE -> {
+                    // 新队列在放入队列表之前先加锁，CREATE 写入日志之前其他操作无法使用它
+                    QueueHolder created = new QueueHolder(queueBackends.typeOf(queueName));
+                    synchronized (created) {
+                        if (queues.putIfAbsent(queueName, created) != null) {
+                            return "ERROR: 队列已存在";
+                        }
+                        if (shouldLog) {
+                            logger.log(command, durability.forQueue(queueName));
+                        }
                     }
-
                     System.out.println("[INFO] 队列已创建: " + queueName);
                     return "OK: 队列已创建";
-
-                } finally {
-                    structureLock.unlock();
                 }
-            }
-            case "DROP" -> {
-                structureLock.lock();
-                try {
+                case DROP -> {
                     QueueHolder queue = queues.get(queueName);
                     if (queue == null) {
                         return "ERROR: 队列不存在";
-                    } else {
-                        queue.writeLock().lock();
-                        try {
-                            queues.remove(queueName);
-                            if (shouldLog) {
-                                logger.log(command);
-                            }
-                            System.out.println("[INFO] 队列已删除: " + queueName);
-                            return "OK: 队列已删除";
-                        } finally {
-                            queue.writeLock().unlock();
+                    }
+                    synchronized (queue) {
+                        if (queue.isDropped()) {
+                            return "ERROR: 队列不存在";
+                        }
+                        queue.markDropped();
+                        queues.remove(queueName, queue);
+                        if (shouldLog) {
+                            logger.log(command, durability.forQueue(queueName));
                         }
                     }
-                } finally {
-                    structureLock.unlock();
+                    queue.wakeAllConsumers();
+                    System.out.println("[INFO] 队列已删除: " + queueName);
+                    return "OK: 队列已删除";
+                }
+                default -> {
+                    return "ERROR: 未知命令";
                 }
             }
-            default -> {
-                return "ERROR: 未知命令";
+        } finally {
+            if (shouldLog) {
+                snapshotLock.readLock().unlock();
             }
         }
     }
@@ -374,25 +501,297 @@ public class MessageQueueServer {
      */
     public void loadPersistedData() {
         System.out.println("[INFO] 正在加载持久化数据...");
+        long startTime = System.currentTimeMillis();
+        long fromPosition = 0;
+        long snapshotMessages = 0;
         try {
-            List<String> commands = PersistentLogger.readLog(LOG_FILE);
-            for (String cmd : commands) {
+            // 先加载最新快照，再只重放快照位置之后的日志
+            QueueSnapshot snapshot = QueueSnapshot.readFrom(SNAPSHOT_FILE);
+            if (snapshot != null) {
+                for (Map.Entry<String, List<byte[]>> entry : snapshot.getQueues().entrySet()) {
+                    QueueHolder queue = new QueueHolder(queueBackends.typeOf(entry.getKey()));
+                    for (byte[] message : entry.getValue()) {
+                        queue.offer(new String(message, StandardCharsets.UTF_8));
+                    }
+                    queues.put(entry.getKey(), queue);
+                }
+                fromPosition = snapshot.getLogPosition();
+                snapshotMessages = snapshot.getMessageCount();
+                lastSnapshotPosition = fromPosition;
+                System.out.println("[INFO] 已加载快照: 日志位置 " + fromPosition + "，队列 " + snapshot.getQueues().size()
+                        + " 个，消息 " + snapshotMessages + " 条");
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] 加载快照失败，将完整重放日志: " + e.getMessage());
+            queues.clear();
+            fromPosition = 0;
+        }
+        try {
+            // 流式扫描快照位置之后的日志，逐条解码重放，不再把整个日志读入内存
+            Path logPath = Paths.get(LOG_FILE);
+            long totalBytes = Files.exists(logPath) ? Math.max(0, Files.size(logPath) - fromPosition) : 0;
+            LogScanner scanner = new LogScanner("日志重放", totalBytes);
+            scanner.scan(logPath, fromPosition, -1, (buffer, offset, length) -> {
+                String cmd = new String(buffer, offset, length, StandardCharsets.UTF_8);
                 // 重放命令时不再记录到日志，避免重复写入
                 String resp = applyCommand(cmd, false);
                 System.out.println("[INFO] 重放命令: " + cmd + " -> " + resp);
-            }
-            System.out.println("[INFO] 持久化数据加载完毕");
+            });
+            scanner.finish();
+            System.out.println("[INFO] 持久化数据加载完毕，快照消息 " + snapshotMessages + " 条，重放日志 "
+                    + scanner.getRecordCount() + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
         } catch (IOException e) {
             System.out.println("[ERROR] 加载持久化数据失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * 生成一次快照：屏障内只复制内存中的队列内容，文件写入在屏障外进行，不阻塞后续请求
+     */
+    public void takeSnapshot() throws IOException {
+        if (logger == null) {
+            return;
+        }
+        long position;
+        Map<String, List<String>> contents = new LinkedHashMap<>();
+        snapshotLock.writeLock().lock();
+        try {
+            // 日志写入在屏障内同步完成，此时的文件大小就是快照对应的位置
+            position = logger.position();
+            if (position == lastSnapshotPosition) {
+                return;
+            }
+            queues.forEach((name, queue) -> {
+                contents.put(name, queue.snapshot());
+                // 已经变空的队列释放存储结构
+                queue.compact();
+            });
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        // 非 SYNC_EACH 的写入可能还没有刷盘，快照只能覆盖已经持久化的日志
+        logger.sync();
+        long startTime = System.currentTimeMillis();
+        QueueSnapshot snapshot = QueueSnapshot.ofStrings(position, contents);
+        snapshot.writeTo(SNAPSHOT_FILE);
+        lastSnapshotPosition = position;
+        System.out.println("[INFO] 快照已写入: 日志位置 " + position + "，队列 " + contents.size() + " 个，消息 "
+                + snapshot.getMessageCount() + " 条，耗时 " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * 启动后台快照任务
+     *
+     * @param intervalSeconds 快照间隔（秒）
+     */
+    public void startSnapshotTask(long intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SnapshotThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException e) {
+                System.err.println("[ERROR] 写入快照失败: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
     private static void stopServer() {
         running = false;
         System.out.println("MessageQueueServer 退出成功");
     }
 
+    /**
+     * 内部类：子 Reactor，一个 Selector 和一个线程，负责分配给它的连接的读写。
+     * 工作线程的响应放入连接的无锁写队列，连接从没有待写响应变为有时才加入本 Reactor 的待刷出队列（同样无锁），
+     * 由 Reactor 线程在一轮事件处理后统一写出；只有 Reactor 可能阻塞在 select() 上时才唤醒，
+     * 一轮 select 最多唤醒一次，Reactor 线程自己产生的响应（EVENT_LOOP）不唤醒。
+     * EVENT_LOOP 时也是连接的命令执行器：命令放入任务队列，由 Reactor 线程在一轮事件处理后执行
+     */
+    private final class SubReactor implements Runnable, Executor {
+        private final Selector selector;
+        private final Thread thread;
+        // Acceptor 分配来、等待注册到本 Selector 的连接
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        // 有待写响应的连接
+        private final Queue<ClientContext> pendingFlushes = new ConcurrentLinkedQueue<>();
+        // 其他线程恢复或暂停了读取、需要更新读事件兴趣的连接
+        private final Queue<ClientContext> pendingReadChanges = new ConcurrentLinkedQueue<>();
+        // EVENT_LOOP 时待执行的命令（长轮询完成后同一连接的后续命令可能由超时线程或其他连接的工作线程提交）
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        // 为 true 时 Reactor 已被唤醒或正在处理事件，之后放入队列的任务会在本轮结束前处理，不需要 wakeup()
+        private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+        SubReactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "NIO-Reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        /**
+         * 由 Acceptor 线程调用：新连接在 Reactor 线程上注册
+         */
+        void register(SocketChannel channel) {
+            pendingChannels.offer(channel);
+            wakeup();
+        }
+
+        /**
+         * 连接的响应回调（可以在任意线程上调用，长轮询的响应可能来自发布消息或超时的线程）
+         */
+        void respond(ClientContext context, String response) {
+            System.out.println("[DEBUG] 响应命令: " + response);
+            context.enqueueResponse(response + "\n");
+            if (context.flushScheduled.compareAndSet(false, true)) {
+                pendingFlushes.offer(context);
+                if (Thread.currentThread() != thread) {
+                    wakeup();
+                }
+            }
+        }
+
+        /**
+         * 开始或停止读取连接（见 {@link ReadPause}），读事件兴趣只在 Reactor 线程上修改
+         */
+        void setReading(ClientContext context, boolean reading) {
+            context.reading = reading;
+            if (Thread.currentThread() == thread) {
+                applyReading(context);
+            } else {
+                pendingReadChanges.offer(context);
+                wakeup();
+            }
+        }
+
+        // 按连接最新的读取状态设置读事件兴趣
+        private void applyReading(ClientContext context) {
+            SelectionKey key = context.key;
+            if (key.isValid()) {
+                key.interestOps(context.reading ? key.interestOps() | SelectionKey.OP_READ
+                        : key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * EVENT_LOOP 时连接的命令执行器：任何线程提交的命令都在本 Reactor 线程上执行，
+         * Reactor 线程自己提交的同样排队，避免连续命令的递归调用
+         */
+        @Override
+        public void execute(Runnable task) {
+            if (!running) {
+                throw new RejectedExecutionException(thread.getName() + " 已停止");
+            }
+            pendingTasks.offer(task);
+            if (Thread.currentThread() != thread) {
+                wakeup();
+            }
+        }
+
+        void wakeup() {
+            if (wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    wakenUp.set(false);
+                    // 先清除标志再检查队列：此前放入的任务在本轮处理，此后放入的会唤醒 select()
+                    if (pendingChannels.isEmpty() && pendingFlushes.isEmpty() && pendingReadChanges.isEmpty()
+                            && pendingTasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    wakenUp.set(true);
+                    registerPending();
+                    ClientContext changed;
+                    while ((changed = pendingReadChanges.poll()) != null) {
+                        applyReading(changed);
+                    }
+                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    }
+                    runPendingTasks();
+                    flushPending();
+                } catch (IOException e) {
+                    System.out.println("[ERROR] " + thread.getName() + " 异常: " + e.getMessage());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                ClientContext context = new ClientContext();
+                try {
+                    context.key = channel.register(selector, SelectionKey.OP_READ, context);
+                } catch (ClosedChannelException e) {
+                    continue;
+                }
+                context.respond = response -> respond(context, response);
+                // 命令积压过多时停止读取该连接
+                context.readPause = new ReadPause(reading -> setReading(context, reading));
+                context.commands = commandExecutor.newOrderedExecutor(this,
+                        () -> context.respond.accept(CommandExecutor.BUSY), context.readPause::pause, context.readPause::resume);
+            }
+        }
+
+        // 执行排队的命令，执行中提交的后续命令（同一连接的下一条）也在本轮执行
+        private void runPendingTasks() {
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("[ERROR] " + thread.getName() + " 执行命令异常: " + e.getMessage());
+                }
+            }
+        }
+
+        private void flushPending() {
+            ClientContext context;
+            while ((context = pendingFlushes.poll()) != null) {
+                // 先清除标志再写出：写出过程中新到的响应会重新加入队列
+                context.flushScheduled.set(false);
+                SelectionKey key = context.key;
+                if (!key.isValid()) {
+                    context.writeQueue.clear();
+                } else if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                    // 已在等待写事件的连接由写事件写出
+                    write(key);
+                }
+            }
+        }
+    }
+
     /**
      * 内部类：用于保存每个客户端连接的状态信息
      */
@@ -401,10 +800,22 @@ public class MessageQueueServer {
         ByteBuffer readBuffer = ByteBuffer.allocate(1024);
         // 用于累积接收到的文本数据
         StringBuilder requestBuffer = new StringBuilder();
-        // 待发送的响应队列
-        Queue<ByteBuffer> writeQueue = new LinkedList<>();
+        // 待发送的响应队列：工作线程放入，连接所在的子 Reactor 线程写出
+        final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        // 是否已在子 Reactor 的待刷出队列中
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
         // 字符集解码器
         CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        // 正在接收的批量发布帧（只在 selector 线程上访问），没有时为 null
+        PublishBatch<String> publishBatch;
+        // 注册读事件后立即设置：连接在子 Reactor 上的 SelectionKey、响应回调，
+        // 以及按到达顺序逐个执行命令的执行器（响应顺序与请求一致）
+        SelectionKey key;
+        Consumer<String> respond;
+        OrderedExecutor commands;
+        // 读取暂停计数，以及最新的读取状态（由 Reactor 线程据此设置读事件兴趣）
+        ReadPause readPause;
+        volatile boolean reading = true;
 
         void enqueueResponse(String response) {
             ByteBuffer buf = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
@@ -418,42 +829,73 @@ public class MessageQueueServer {
     public static class PersistentLogger {
         private FileChannel channel;
         private Path logFilePath;
+        private LogFlusher flusher;
 
         public PersistentLogger(String filePath) throws IOException {
             this.logFilePath = Paths.get(filePath);
             // 以追加方式打开日志文件（不存在则创建）
             channel = FileChannel.open(logFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            flusher = new LogFlusher(channel, logFilePath.getFileName().toString());
+        }
+
+        public void log(String record, DurabilityPolicy policy) {
+            write(record + "\n", policy);
         }
 
-        public void log(String record) {
-            String line = record + "\n";
-            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        /**
+         * 一次写入多条记录（批量发布），SYNC_EACH 时整组只 fsync 一次
+         */
+        public void logAll(List<String> records, DurabilityPolicy policy) {
+            StringBuilder lines = new StringBuilder();
+            for (String record : records) {
+                lines.append(record).append('\n');
+            }
+            write(lines.toString(), policy);
+        }
+
+        private void write(String lines, DurabilityPolicy policy) {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
             try {
+                int bytes = buffer.remaining();
                 while (buffer.hasRemaining()) {
                     channel.write(buffer);
                 }
-                // force(true) 确保数据刷入磁盘
-                channel.force(true);
+                // SYNC_EACH 时 force(true) 确保数据刷入磁盘后才返回
+                flusher.afterWrite(policy, bytes);
             } catch (IOException e) {
                 System.err.println("[ERROR] 写入日志失败：" + e.getMessage());
             }
         }
 
+        /**
+         * 立即刷盘，持久化此前的所有写入
+         */
+        public void sync() throws IOException {
+            flusher.force();
+        }
+
+        /**
+         * 各持久化模式当前的未刷盘字节数
+         */
+        public String getFlushSummary() {
+            return flusher.getTracker().getSummary();
+        }
+
+        /**
+         * 当前日志文件大小，即下一条记录的起始字节偏移
+         */
+        public long position() throws IOException {
+            return channel.size();
+        }
+
         public void close() {
+            flusher.close();
             try {
                 channel.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-
-        public static List<String> readLog(String filePath) throws IOException {
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                return Collections.emptyList();
-            }
-            return Files.readAllLines(path, StandardCharsets.UTF_8);
-        }
     }
 }
 